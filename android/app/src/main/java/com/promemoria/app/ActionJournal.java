@@ -0,0 +1,192 @@
+package com.promemoria.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Journal append-only delle azioni fatte dalle notifiche (Fatto / 5 min).
+ * Ogni riga è scritta e sincronizzata su disco (fsync) prima di rispondere al broadcast;
+ * la WebView la recupera con un cursore (offset in byte) e legge solo le righe nuove.
+ *
+ * Formato riga: tipo TAB istante TAB reminderId TAB fino_a \n
+ */
+public final class ActionJournal {
+
+    private static final String TAG = "ActionJournal";
+
+    public static final String TYPE_COMPLETE = "complete";
+    public static final String TYPE_SNOOZE = "snooze";
+
+    private static final String FILE_NAME = "action_journal.log";
+    private static final String PREFS_NAME = "ActionJournal";
+
+    // Offset logico del primo byte del file (cresce a ogni compattazione)
+    private static final String KEY_BASE = "base";
+    // Fin dove la WebView ha confermato di aver salvato le azioni
+    private static final String KEY_ACKED = "acked";
+    // Fin dove le azioni sono già state consegnate alla WebView
+    private static final String KEY_DELIVERED = "delivered";
+
+    // Sotto questa dimensione non vale la pena troncare
+    private static final long COMPACT_THRESHOLD = 16 * 1024;
+
+    private ActionJournal() {}
+
+    /**
+     * Azione registrata
+     */
+    public static final class Entry {
+        public final String type;
+        public final long at;
+        public final String reminderId;
+        public final long until;
+
+        Entry(String type, long at, String reminderId, long until) {
+            this.type = type;
+            this.at = at;
+            this.reminderId = reminderId;
+            this.until = until;
+        }
+    }
+
+    /**
+     * Azioni successive a un cursore, più il cursore da usare la volta dopo
+     */
+    public static final class Batch {
+        public final List<Entry> entries;
+        public final long cursor;
+
+        Batch(List<Entry> entries, long cursor) {
+            this.entries = entries;
+            this.cursor = cursor;
+        }
+    }
+
+    /**
+     * Aggiunge un'azione e la rende durevole prima di tornare
+     */
+    public static synchronized void append(Context context, String type, String reminderId, long until) {
+        if (reminderId == null || reminderId.isEmpty()) return;
+
+        String line = type + "\t" + System.currentTimeMillis() + "\t" + sanitize(reminderId) + "\t" + until + "\n";
+        try (FileOutputStream out = new FileOutputStream(file(context), true)) {
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error appending to journal", e);
+        }
+    }
+
+    /**
+     * Azioni dopo il cursore. Il cursore passato vale come conferma di tutto ciò che lo precede.
+     */
+    public static synchronized Batch readSince(Context context, long cursor) {
+        SharedPreferences prefs = prefs(context);
+        long base = prefs.getLong(KEY_BASE, 0);
+
+        List<Entry> entries = new ArrayList<>();
+        long end = readEntries(context, Math.max(cursor, base) - base, entries) + base;
+
+        prefs.edit()
+            .putLong(KEY_ACKED, Math.max(cursor, prefs.getLong(KEY_ACKED, 0)))
+            .putLong(KEY_DELIVERED, Math.max(end, prefs.getLong(KEY_DELIVERED, 0)))
+            .apply();
+
+        compactIfAcked(context, prefs, base, cursor);
+        return new Batch(entries, end);
+    }
+
+    /**
+     * Riapplica allo store le azioni non ancora consegnate alla WebView.
+     * Serve dopo un sync completo, che altrimenti riporterebbe aperti i promemoria appena completati.
+     */
+    public static synchronized void reapplyPending(Context context, ReminderStore store) {
+        SharedPreferences prefs = prefs(context);
+        long base = prefs.getLong(KEY_BASE, 0);
+        long delivered = prefs.getLong(KEY_DELIVERED, 0);
+
+        List<Entry> entries = new ArrayList<>();
+        readEntries(context, Math.max(delivered, base) - base, entries);
+        for (Entry entry : entries) {
+            if (TYPE_COMPLETE.equals(entry.type)) {
+                store.setCompleted(entry.reminderId, true);
+            }
+        }
+        if (!entries.isEmpty()) {
+            Log.d(TAG, "Reapplied " + entries.size() + " pending actions");
+        }
+    }
+
+    // Legge le righe complete da offset (fisico) e restituisce l'offset fisico dopo l'ultima
+    private static long readEntries(Context context, long offset, List<Entry> out) {
+        File file = file(context);
+        if (!file.exists() || offset >= file.length()) return Math.min(offset, file.length());
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[(int) (raf.length() - offset)];
+            raf.seek(offset);
+            raf.readFully(bytes);
+
+            int lineStart = 0;
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] != '\n') continue;
+                Entry entry = parse(new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8));
+                if (entry != null) out.add(entry);
+                lineStart = i + 1;
+            }
+            // Un'eventuale riga troncata (scrittura interrotta) resta dopo il cursore
+            return offset + lineStart;
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading journal", e);
+            return offset;
+        }
+    }
+
+    // Tutto confermato: il file si svuota e la base logica avanza, i cursori restano validi
+    private static void compactIfAcked(Context context, SharedPreferences prefs, long base, long cursor) {
+        File file = file(context);
+        long length = file.length();
+        if (length < COMPACT_THRESHOLD || cursor < base + length) return;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error compacting journal", e);
+            return;
+        }
+        prefs.edit().putLong(KEY_BASE, base + length).commit();
+        Log.d(TAG, "Journal compacted at " + (base + length));
+    }
+
+    private static Entry parse(String line) {
+        String[] parts = line.split("\t");
+        if (parts.length < 4) return null;
+        try {
+            return new Entry(parts[0], Long.parseLong(parts[1]), parts[2], Long.parseLong(parts[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String sanitize(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ');
+    }
+
+    private static File file(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,184 @@
+package com.promemoria.app;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Agenda dei promemoria aperti ordinata per scadenza (AgendaOrder), con data e ora
+ * già risolte nel fuso locale.
+ * "Oggi", "prossimi 7 giorni" o "questo mese" sono due ricerche binarie, senza parsing di date.
+ * La condividono widget, getAgenda del plugin e ricostruzione della coda allarmi.
+ */
+public final class AgendaIndex {
+
+    private static final String TAG = "AgendaIndex";
+
+    private final ReminderStore store;
+
+    // Stato protetto dal lock dell'istanza
+    private boolean loaded = false;
+    private ZoneId zone;
+    private final AgendaOrder order = new AgendaOrder();
+    // Tutti i promemoria con data valida, anche completati (riaprirli non rilegge lo store)
+    private final HashMap<String, Item> items = new HashMap<>();
+
+    /**
+     * Scadenza di un promemoria: minuto epoch e se ha un orario (senza è la mezzanotte locale)
+     */
+    private static final class Item {
+        final long minute;
+        final boolean hasTime;
+        boolean completed;
+
+        Item(long minute, boolean hasTime, boolean completed) {
+            this.minute = minute;
+            this.hasTime = hasTime;
+            this.completed = completed;
+        }
+    }
+
+    AgendaIndex(ReminderStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Promemoria aperti con scadenza in [fromMillis, toMillis)
+     */
+    public synchronized int count(long fromMillis, long toMillis) {
+        ensureCurrent();
+        return order.count(fromMillis, toMillis);
+    }
+
+    /**
+     * Id dei promemoria aperti con scadenza in [fromMillis, toMillis), in ordine di scadenza
+     */
+    public synchronized List<String> range(long fromMillis, long toMillis, int offset, int limit) {
+        ensureCurrent();
+        return order.range(fromMillis, toMillis, offset, limit);
+    }
+
+    /**
+     * Scadenza (epoch millis) di un promemoria, anche completato; -1 se sconosciuto o senza data valida
+     */
+    public synchronized long dueAt(String reminderId) {
+        ensureCurrent();
+        Item item = items.get(reminderId);
+        return item != null ? item.minute * 60_000L : -1;
+    }
+
+    /**
+     * Se la scadenza ha un orario o è solo un giorno
+     */
+    public synchronized boolean hasTime(String reminderId) {
+        ensureCurrent();
+        Item item = items.get(reminderId);
+        return item != null && item.hasTime;
+    }
+
+    /**
+     * Fuso in cui sono risolte le scadenze: quello con cui calcolare i confini dei giorni
+     */
+    public synchronized ZoneId zone() {
+        ensureCurrent();
+        return zone;
+    }
+
+    /**
+     * Dopo un sync completo: si ricarica dallo store alla prossima lettura
+     */
+    synchronized void invalidate() {
+        loaded = false;
+        items.clear();
+        order.clear();
+    }
+
+    /**
+     * Stesse modifiche applicate allo store da applyDelta
+     */
+    synchronized void applyDelta(JSONArray upserts, JSONArray deletes) {
+        if (!loaded) return;
+
+        for (int i = 0; i < deletes.length(); i++) {
+            remove(deletes.optString(i));
+        }
+        for (int i = 0; i < upserts.length(); i++) {
+            JSONObject r = upserts.optJSONObject(i);
+            if (r != null && !r.optString("id", "").isEmpty()) put(r);
+        }
+    }
+
+    synchronized void put(JSONObject reminder) {
+        if (!loaded) return;
+        String id = reminder.optString("id");
+        remove(id);
+        Item item = toItem(reminder.optString("date", ""), reminder.optString("time", ""),
+            reminder.optBoolean("isCompleted", false));
+        if (item == null) return;
+        items.put(id, item);
+        if (!item.completed) order.insert(item.minute, id);
+    }
+
+    synchronized void remove(String reminderId) {
+        if (!loaded) return;
+        Item item = items.remove(reminderId);
+        if (item != null && !item.completed) order.delete(item.minute, reminderId);
+    }
+
+    synchronized void setCompleted(String reminderId, boolean completed) {
+        if (!loaded) return;
+        Item item = items.get(reminderId);
+        if (item == null || item.completed == completed) return;
+        item.completed = completed;
+        if (completed) {
+            order.delete(item.minute, reminderId);
+        } else {
+            order.insert(item.minute, reminderId);
+        }
+    }
+
+    private Item toItem(String date, String time, boolean completed) {
+        long dueAt = ReminderTimes.dueAt(date, time, zone);
+        if (dueAt == -1) return null;
+        return new Item(Math.floorDiv(dueAt, 60_000L), ReminderTimes.parseTime(time) != null, completed);
+    }
+
+    // Carica se serve; un cambio di fuso sposta tutte le scadenze
+    private void ensureCurrent() {
+        ZoneId current = ZoneId.systemDefault();
+        if (loaded && !current.equals(zone)) invalidate();
+        if (loaded) return;
+
+        zone = current;
+        long start = MetricsRegistry.beginSection("agenda_load");
+        try {
+            SQLiteDatabase db = store.getReadableDatabase();
+            try (Cursor c = db.query(ReminderStore.TABLE_REMINDERS, new String[]{
+                    ReminderStore.COL_ID, ReminderStore.COL_DATE, ReminderStore.COL_TIME,
+                    ReminderStore.COL_COMPLETED}, null, null, null, null, null)) {
+                while (c.moveToNext()) {
+                    Item item = toItem(c.getString(1), c.isNull(2) ? "" : c.getString(2), c.getInt(3) != 0);
+                    if (item != null) items.put(c.getString(0), item);
+                }
+            }
+            List<String> open = new ArrayList<>(items.size());
+            for (Map.Entry<String, Item> entry : items.entrySet()) {
+                if (!entry.getValue().completed) open.add(entry.getKey());
+            }
+            order.load(open, id -> items.get(id).minute);
+            loaded = true;
+            Log.d(TAG, "Agenda loaded: " + order.size() + " open of " + items.size() + " dated reminders");
+        } finally {
+            MetricsRegistry.endSection(MetricsRegistry.histogram("agenda.load"), start);
+        }
+    }
+}
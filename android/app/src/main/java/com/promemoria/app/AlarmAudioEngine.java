@@ -0,0 +1,224 @@
+package com.promemoria.app;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.MediaPlayer;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Motore audio della sveglia: tiene pronto (prepareAsync, in loop) il MediaPlayer della
+ * suoneria configurata, così ACTION_START deve solo chiamare start().
+ * Si prepara allo scatto, o poco prima se il prossimo è entro WARM_LEAD_MS (vedi ReminderAlarmReceiver);
+ * in ogni altro caso viene rilasciato dopo un periodo di inattività.
+ * Tutto gira su un HandlerThread dedicato: niente prepare() sul main looper.
+ */
+public final class AlarmAudioEngine {
+
+    private static final String TAG = "AlarmAudioEngine";
+
+    // Player pronto ma inutilizzato: rilasciato dopo questo intervallo
+    private static final long IDLE_RELEASE_MS = 2 * 60_000;
+
+    // Anticipo con cui si prepara la suoneria del prossimo scatto: sotto IDLE_RELEASE_MS,
+    // così il player preparato arriva fino allo scatto
+    public static final long WARM_LEAD_MS = 60_000;
+
+    private static Handler handler;
+
+    // Stato toccato solo dal thread dell'handler
+    private static MediaPlayer player;
+    private static String playerRingtone;
+    private static boolean prepared;
+    private static boolean playing;
+    private static long pendingStartAt = -1;
+
+    private AlarmAudioEngine() {}
+
+    /**
+     * Prepara in anticipo il player della suoneria (es. appena scatta l'alarm, prima del servizio)
+     */
+    public static void warm(Context context, String ringtone) {
+        Context appContext = context.getApplicationContext();
+        handler().post(() -> {
+            ensurePlayer(appContext, ringtone);
+            scheduleIdleRelease();
+        });
+    }
+
+    /**
+     * Avvia il suono in loop; requestedAt è l'elapsedRealtime di ACTION_START
+     */
+    public static void start(Context context, String ringtone, long requestedAt) {
+        Context appContext = context.getApplicationContext();
+        handler().post(() -> {
+            handler().removeCallbacks(idleRelease);
+            if ("silent".equals(ringtone)) return;
+
+            boolean warm = player != null && prepared && ringtone.equals(playerRingtone);
+            if (!ensurePlayer(appContext, ringtone)) return;
+
+            if (prepared) {
+                play(requestedAt, warm);
+            } else {
+                // Preparazione ancora in corso: parte da onPrepared
+                pendingStartAt = requestedAt;
+            }
+        });
+    }
+
+    /**
+     * Ferma il suono ma tiene il player pronto per il prossimo allarme
+     */
+    public static void stop() {
+        handler().post(() -> {
+            pendingStartAt = -1;
+            if (player != null && playing) {
+                try {
+                    player.pause();
+                    player.seekTo(0);
+                } catch (IllegalStateException e) {
+                    Log.e(TAG, "Error pausing player", e);
+                    release();
+                }
+            }
+            playing = false;
+            scheduleIdleRelease();
+        });
+    }
+
+    private static synchronized Handler handler() {
+        if (handler == null) {
+            HandlerThread thread = new HandlerThread("AlarmAudio");
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler;
+    }
+
+    // Crea e prepara (asincrono) il player se manca o è di un'altra suoneria
+    private static boolean ensurePlayer(Context context, String ringtone) {
+        if ("silent".equals(ringtone)) {
+            release();
+            return false;
+        }
+        if (player != null && ringtone.equals(playerRingtone)) return true;
+
+        release();
+        try {
+            MediaPlayer created = new MediaPlayer();
+            created.setDataSource(context, soundUri(context, ringtone));
+            created.setAudioAttributes(new AudioAttributes.Builder()
+                .setUsage(AudioAttributes.USAGE_ALARM)
+                .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                .build());
+            created.setLooping(true);
+            created.setOnPreparedListener(mp -> {
+                if (mp != player) return;
+                prepared = true;
+                Log.d(TAG, "Player ready: " + playerRingtone);
+                if (pendingStartAt != -1) {
+                    play(pendingStartAt, false);
+                }
+            });
+            created.setOnErrorListener((mp, what, extra) -> {
+                Log.e(TAG, "Player error " + what + "/" + extra);
+                if (mp == player) release();
+                return true;
+            });
+
+            player = created;
+            playerRingtone = ringtone;
+            prepared = false;
+            created.prepareAsync();
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error preparing sound", e);
+            release();
+            return false;
+        }
+    }
+
+    private static void play(long requestedAt, boolean warm) {
+        pendingStartAt = -1;
+        try {
+            player.start();
+            playing = true;
+            long latency = SystemClock.elapsedRealtime() - requestedAt;
+            // Da ACTION_START al suono effettivo
+            MetricsRegistry.histogram("alarm_audio.start").record(latency);
+            MetricsRegistry.counter(warm ? "alarm_audio.warm_starts" : "alarm_audio.cold_starts").inc();
+            Log.d(TAG, "Sound started: " + playerRingtone + " in " + latency + " ms" + (warm ? " (warm)" : ""));
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Error starting sound", e);
+            release();
+        }
+    }
+
+    private static void release() {
+        if (player != null) {
+            try {
+                player.release();
+            } catch (Exception e) {
+                Log.e(TAG, "Error releasing player", e);
+            }
+        }
+        player = null;
+        playerRingtone = null;
+        prepared = false;
+        playing = false;
+    }
+
+    private static final Runnable idleRelease = () -> {
+        if (!playing && pendingStartAt == -1) {
+            release();
+            Log.d(TAG, "Idle player released");
+        }
+    };
+
+    private static void scheduleIdleRelease() {
+        Handler h = handler();
+        h.removeCallbacks(idleRelease);
+        h.postDelayed(idleRelease, IDLE_RELEASE_MS);
+    }
+
+    private static Uri soundUri(Context context, String ringtone) {
+        // Mappa suoneria a risorsa
+        int soundRes;
+        switch (ringtone) {
+            case "chime": soundRes = R.raw.chime; break;
+            case "beep": soundRes = R.raw.beep; break;
+            case "gentle": soundRes = R.raw.gentle; break;
+            case "urgent": soundRes = R.raw.urgent; break;
+            case "alert": soundRes = R.raw.alert; break;
+            default: soundRes = 0; break;
+        }
+
+        if (soundRes != 0) {
+            return Uri.parse("android.resource://" + context.getPackageName() + "/" + soundRes);
+        }
+        return RingtoneManager.getDefaultUri(RingtoneManager.TYPE_ALARM);
+    }
+
+    /**
+     * Solo per i test: player rilasciato dal test precedente, nessuno squillo in attesa
+     */
+    static synchronized void resetForTest() {
+        // Fermo il thread audio del test precedente con i suoi post (rilascio per inattività compreso)
+        if (handler != null) {
+            handler.removeCallbacksAndMessages(null);
+            handler.getLooper().quit();
+            handler = null;
+        }
+        if (player != null) player.release();
+        player = null;
+        playerRingtone = null;
+        prepared = false;
+        playing = false;
+        pendingStartAt = -1;
+    }
+}
@@ -0,0 +1,347 @@
+package com.promemoria.app;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coda di priorità su disco di tutti gli scatti pendenti (promemoria e snooze).
+ * Ad AlarmManager viene registrato un solo alarm, quello della testa: quando scatta
+ * si eseguono insieme tutti gli elementi scaduti e si riarma la nuova testa.
+ */
+public class AlarmQueue {
+
+    private static final String TAG = "AlarmQueue";
+
+    public static final String ACTION_FIRE_DUE = "com.promemoria.app.ACTION_FIRE_DUE";
+    public static final String EXTRA_TRIGGER_AT = "trigger_at";
+    public static final String EXTRA_DELIVERY_API = "delivery_api";
+
+    public static final int KIND_REMINDER = 0;
+    public static final int KIND_SNOOZE = 1;
+
+    // Elementi che scadono entro questa finestra partono nello stesso giro
+    private static final long DUE_TOLERANCE_MS = 1000;
+
+    /**
+     * Scatto pendente in coda
+     */
+    public static class Entry {
+        public final String reminderId;
+        public final int kind;
+        public final long triggerAt;
+        public final String title;
+        public final String body;
+
+        public Entry(String reminderId, int kind, long triggerAt, String title, String body) {
+            this.reminderId = reminderId;
+            this.kind = kind;
+            this.triggerAt = triggerAt;
+            this.title = title;
+            this.body = body;
+        }
+    }
+
+    // Testa attualmente registrata in AlarmManager (-1 = nessuna / sconosciuta) e API di base richiesta
+    private static long armedAt = -1;
+    private static int armedBaseApi = -1;
+
+    /**
+     * Inserisce o sostituisce uno scatto e riarma la testa se serve
+     */
+    public static void enqueue(Context context, Entry entry) {
+        List<Entry> single = new ArrayList<>(1);
+        single.add(entry);
+        enqueueAll(context, single);
+    }
+
+    /**
+     * Inserisce molti scatti in una transazione e riarma la testa una volta sola
+     */
+    public static void enqueueAll(Context context, List<Entry> entries) {
+        SQLiteDatabase db = ReminderStore.getInstance(context).getWritableDatabase();
+        Map<String, Integer> ids;
+        db.beginTransaction();
+        try {
+            // ID notifica assegnati nella stessa transazione: nessun fsync per promemoria
+            ids = NotificationIds.allocateAll(db, reminderIds(entries));
+            for (Entry entry : entries) {
+                db.insertWithOnConflict(ReminderStore.TABLE_ALARM_QUEUE, null,
+                    toValues(entry), SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        NotificationIds.remember(ids);
+        rearm(context);
+    }
+
+    /**
+     * Rimuove tutti gli scatti del promemoria
+     */
+    public static void remove(Context context, String reminderId) {
+        ReminderStore.getInstance(context).getWritableDatabase().delete(
+            ReminderStore.TABLE_ALARM_QUEUE,
+            ReminderStore.COL_REMINDER_ID + " = ?",
+            new String[]{reminderId});
+        rearm(context);
+    }
+
+    /**
+     * Rimuove gli scatti di molti promemoria in una transazione
+     */
+    public static void removeAll(Context context, List<String> reminderIds) {
+        SQLiteDatabase db = ReminderStore.getInstance(context).getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String reminderId : reminderIds) {
+                db.delete(ReminderStore.TABLE_ALARM_QUEUE,
+                    ReminderStore.COL_REMINDER_ID + " = ?", new String[]{reminderId});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        rearm(context);
+    }
+
+    /**
+     * Rimuove solo gli scatti di un certo tipo (es. snooze) del promemoria
+     */
+    public static void remove(Context context, String reminderId, int kind) {
+        ReminderStore.getInstance(context).getWritableDatabase().delete(
+            ReminderStore.TABLE_ALARM_QUEUE,
+            ReminderStore.COL_REMINDER_ID + " = ? AND " + ReminderStore.COL_KIND + " = ?",
+            new String[]{reminderId, String.valueOf(kind)});
+        rearm(context);
+    }
+
+    /**
+     * Estrae dalla coda tutti gli elementi scaduti (in ordine di scadenza)
+     */
+    public static List<Entry> popDue(Context context, long now) {
+        SQLiteDatabase db = ReminderStore.getInstance(context).getWritableDatabase();
+        String limit = String.valueOf(now + DUE_TOLERANCE_MS);
+        List<Entry> due = new ArrayList<>();
+        Map<String, Integer> ids;
+
+        db.beginTransaction();
+        try {
+            try (Cursor c = db.query(ReminderStore.TABLE_ALARM_QUEUE, null,
+                    ReminderStore.COL_TRIGGER_AT + " <= ?", new String[]{limit},
+                    null, null, ReminderStore.COL_TRIGGER_AT)) {
+                while (c.moveToNext()) {
+                    due.add(fromCursor(c));
+                }
+            }
+            db.delete(ReminderStore.TABLE_ALARM_QUEUE,
+                ReminderStore.COL_TRIGGER_AT + " <= ?", new String[]{limit});
+            // Processo appena avviato dall'alarm: ID di tutti gli scaduti con una sola lettura
+            ids = NotificationIds.allocateAll(db, reminderIds(due));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        NotificationIds.remember(ids);
+        return due;
+    }
+
+    /**
+     * Ricostruisce in blocco gli scatti futuri dei promemoria dallo store nativo,
+     * ricalcolando gli orari nel fuso corrente (i ricorrenti passano alla prossima occorrenza).
+     * Gli scatti già scaduti restano in coda (partono al riarmo) e gli snooze, che sono
+     * istanti assoluti, non vengono toccati.
+     * Restituisce il numero di scatti ricostruiti.
+     */
+    public static int rebuildFromStore(Context context, long now) {
+        ReminderStore store = ReminderStore.getInstance(context);
+        // Scadenze già risolte dall'agenda (caricata qui, fuori dalla transazione, nel fuso corrente)
+        AgendaIndex agenda = store.getAgenda();
+        ZoneId zone = agenda.zone();
+        SQLiteDatabase db = store.getWritableDatabase();
+        int count = 0;
+        List<String> rebuilt = new ArrayList<>();
+        Map<String, Integer> ids;
+
+        db.beginTransaction();
+        try {
+            db.delete(ReminderStore.TABLE_ALARM_QUEUE,
+                ReminderStore.COL_KIND + " = ? AND " + ReminderStore.COL_TRIGGER_AT + " > ?",
+                new String[]{String.valueOf(KIND_REMINDER), String.valueOf(now)});
+
+            // Stesse condizioni di ReminderContext: allarme attivo, non completato, categoria esistente
+            try (Cursor c = db.rawQuery("SELECT r." + ReminderStore.COL_ID
+                    + ", r." + ReminderStore.COL_TITLE
+                    + ", r." + ReminderStore.COL_DESCRIPTION
+                    + ", r." + ReminderStore.COL_DATE
+                    + ", r." + ReminderStore.COL_TIME
+                    + ", r." + ReminderStore.COL_ALARM_MINUTES_BEFORE
+                    + ", r." + ReminderStore.COL_RECURRENCE
+                    + ", r." + ReminderStore.COL_RECURRENCE_END
+                    + ", c." + ReminderStore.COL_NAME
+                    + " FROM " + ReminderStore.TABLE_REMINDERS + " r JOIN " + ReminderStore.TABLE_CATEGORIES
+                    + " c ON c." + ReminderStore.COL_ID + " = r." + ReminderStore.COL_CATEGORY_ID
+                    + " WHERE r." + ReminderStore.COL_COMPLETED + " = 0 AND r." + ReminderStore.COL_ALARM_ENABLED + " = 1",
+                    null)) {
+                ContentValues values = new ContentValues();
+                while (c.moveToNext()) {
+                    long dueAt = agenda.dueAt(c.getString(0));
+                    long triggerAt = dueAt == -1 ? -1 : dueAt - c.getInt(5) * 60_000L;
+                    int conflict = SQLiteDatabase.CONFLICT_REPLACE;
+                    if (triggerAt <= now) {
+                        // Ricorrente già passato: prossima occorrenza, ma senza sovrascrivere
+                        // uno scatto scaduto ancora in coda (al suo scatto riarmerà la serie)
+                        RecurrenceCalculator.Rule rule = RecurrenceCalculator.rule(c.getString(6),
+                            c.getString(3), c.getString(4), c.getInt(5), c.getString(7), zone);
+                        if (rule == null) continue;
+                        triggerAt = RecurrenceCalculator.nextTrigger(rule, now);
+                        if (triggerAt == -1) continue;
+                        conflict = SQLiteDatabase.CONFLICT_IGNORE;
+                    }
+
+                    String description = c.getString(2);
+                    values.clear();
+                    values.put(ReminderStore.COL_REMINDER_ID, c.getString(0));
+                    values.put(ReminderStore.COL_KIND, KIND_REMINDER);
+                    values.put(ReminderStore.COL_TRIGGER_AT, triggerAt);
+                    values.put(ReminderStore.COL_TITLE, "⏰ " + c.getString(8) + ": " + c.getString(1));
+                    values.put(ReminderStore.COL_BODY,
+                        description == null || description.isEmpty() ? "Hai un promemoria!" : description);
+                    if (db.insertWithOnConflict(ReminderStore.TABLE_ALARM_QUEUE, null, values, conflict) != -1) {
+                        rebuilt.add(c.getString(0));
+                        count++;
+                    }
+                }
+            }
+            ids = NotificationIds.allocateAll(db, rebuilt);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        NotificationIds.remember(ids);
+
+        invalidateArmed();
+        rearm(context);
+        return count;
+    }
+
+    /**
+     * Registra in AlarmManager solo lo scatto più vicino (o nessuno se la coda è vuota)
+     */
+    public static synchronized void rearm(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (alarmManager == null) return;
+
+        long head = headTriggerAt(context);
+        if (head == -1) {
+            if (armedAt == -1) return;
+            alarmManager.cancel(headIntent(context, 0, -1));
+            armedAt = -1;
+            armedBaseApi = -1;
+            Log.d(TAG, "Queue empty, head alarm cancelled");
+            return;
+        }
+
+        // Stesso istante ma nuovi elementi vicini alla testa (es. priorità alta): va riarmata con l'API giusta
+        int baseApi = headBaseApi(context, head);
+        if (head == armedAt && baseApi == armedBaseApi) return;
+
+        int api = DeliveryPolicy.choose(context, baseApi);
+        DeliveryPolicy.arm(context, alarmManager, api, head, headIntent(context, head, api));
+        armedAt = head;
+        armedBaseApi = baseApi;
+        Log.d(TAG, "Head alarm armed at " + head + " via " + DeliveryPolicy.name(api));
+    }
+
+    /**
+     * Istante della testa registrata in AlarmManager da questo processo, oppure -1
+     */
+    static synchronized long armedAt() {
+        return armedAt;
+    }
+
+    /**
+     * Dimentica la testa registrata (es. dopo che è scattata o dopo un riavvio)
+     */
+    static synchronized void invalidateArmed() {
+        armedAt = -1;
+        armedBaseApi = -1;
+    }
+
+    private static long headTriggerAt(Context context) {
+        SQLiteDatabase db = ReminderStore.getInstance(context).getReadableDatabase();
+        try (Cursor c = db.rawQuery("SELECT MIN(" + ReminderStore.COL_TRIGGER_AT + ") FROM "
+                + ReminderStore.TABLE_ALARM_QUEUE, null)) {
+            if (c.moveToFirst() && !c.isNull(0)) {
+                return c.getLong(0);
+            }
+        }
+        return -1;
+    }
+
+    // API più puntuale richiesta dagli elementi che una finestra sulla testa potrebbe ritardare
+    private static int headBaseApi(Context context, long head) {
+        boolean alarmMode = NotificationSettings.get(context).alarmMode;
+        int api = DeliveryPolicy.API_WINDOW;
+
+        SQLiteDatabase db = ReminderStore.getInstance(context).getReadableDatabase();
+        try (Cursor c = db.rawQuery("SELECT q." + ReminderStore.COL_KIND + ", r." + ReminderStore.COL_PRIORITY
+                + " FROM " + ReminderStore.TABLE_ALARM_QUEUE + " q LEFT JOIN " + ReminderStore.TABLE_REMINDERS + " r"
+                + " ON r." + ReminderStore.COL_ID + " = q." + ReminderStore.COL_REMINDER_ID
+                + " WHERE q." + ReminderStore.COL_TRIGGER_AT + " <= ?",
+                new String[]{String.valueOf(head + DeliveryPolicy.WINDOW_MS)})) {
+            while (c.moveToNext() && api != DeliveryPolicy.API_ALARM_CLOCK) {
+                api = Math.min(api, DeliveryPolicy.baseApi(alarmMode, c.getString(1), c.getInt(0)));
+            }
+        }
+        return api;
+    }
+
+    private static PendingIntent headIntent(Context context, long triggerAt, int api) {
+        // L'azione dedicata distingue questo PendingIntent da quelli per-promemoria
+        Intent intent = new Intent(context, ReminderAlarmReceiver.class);
+        intent.setAction(ACTION_FIRE_DUE);
+        intent.putExtra(EXTRA_TRIGGER_AT, triggerAt);
+        intent.putExtra(EXTRA_DELIVERY_API, api);
+        return PendingIntent.getBroadcast(context, 0, intent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    private static List<String> reminderIds(List<Entry> entries) {
+        List<String> ids = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            ids.add(entry.reminderId);
+        }
+        return ids;
+    }
+
+    private static ContentValues toValues(Entry entry) {
+        ContentValues values = new ContentValues();
+        values.put(ReminderStore.COL_REMINDER_ID, entry.reminderId);
+        values.put(ReminderStore.COL_KIND, entry.kind);
+        values.put(ReminderStore.COL_TRIGGER_AT, entry.triggerAt);
+        values.put(ReminderStore.COL_TITLE, entry.title);
+        values.put(ReminderStore.COL_BODY, entry.body);
+        return values;
+    }
+
+    private static Entry fromCursor(Cursor c) {
+        return new Entry(
+            c.getString(c.getColumnIndexOrThrow(ReminderStore.COL_REMINDER_ID)),
+            c.getInt(c.getColumnIndexOrThrow(ReminderStore.COL_KIND)),
+            c.getLong(c.getColumnIndexOrThrow(ReminderStore.COL_TRIGGER_AT)),
+            c.getString(c.getColumnIndexOrThrow(ReminderStore.COL_TITLE)),
+            c.getString(c.getColumnIndexOrThrow(ReminderStore.COL_BODY)));
+    }
+}
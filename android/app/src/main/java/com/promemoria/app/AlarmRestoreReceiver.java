@@ -0,0 +1,56 @@
+package com.promemoria.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ricostruisce la coda degli alarm dopo riavvio, aggiornamento dell'app o cambio di
+ * ora/fuso, leggendo direttamente lo store nativo: nessuna Activity né WebView.
+ */
+public class AlarmRestoreReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "AlarmRestore";
+    private static final String PREFS_NAME = "AlarmRestore";
+
+    // goAsync concede circa 10 secondi prima dell'ANR del broadcast
+    private static final long BUDGET_MS = 10_000;
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(action)
+                && !Intent.ACTION_TIME_CHANGED.equals(action)
+                && !Intent.ACTION_TIMEZONE_CHANGED.equals(action)
+                && !Intent.ACTION_MY_PACKAGE_REPLACED.equals(action)) {
+            return;
+        }
+
+        Context appContext = context.getApplicationContext();
+        ReceiverExecutor.run(this, "alarm_restore", () -> restore(appContext, action));
+    }
+
+    private static void restore(Context context, String action) {
+        long start = MetricsRegistry.beginSection("alarm_restore");
+        int count = AlarmQueue.rebuildFromStore(context, System.currentTimeMillis());
+        MetricsRegistry.endSection(MetricsRegistry.histogram("alarm_restore.duration"), start);
+        MetricsRegistry.counter("alarm_restore.alarms").add(count);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(SystemClock.elapsedRealtimeNanos() - start);
+
+        Log.d(TAG, "Rebuilt " + count + " alarms in " + elapsed + " ms (" + action + ")");
+        if (elapsed > BUDGET_MS) {
+            Log.w(TAG, "Alarm restore exceeded broadcast budget: " + elapsed + " ms");
+        }
+
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+            .putString("last_action", action)
+            .putInt("last_count", count)
+            .putLong("last_duration_ms", elapsed)
+            .apply();
+        MetricsRegistry.dumpThrottled(context);
+    }
+}
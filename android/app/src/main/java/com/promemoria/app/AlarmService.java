@@ -7,23 +7,25 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.media.AudioAttributes;
-import android.media.MediaPlayer;
-import android.media.RingtoneManager;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
 /**
- * Foreground service per notifiche tipo SVEGLIA con suono in loop
+ * Foreground service per notifiche tipo SVEGLIA con suono in loop.
+ * Una sola sessione raccoglie tutti i promemoria che scattano mentre suona:
+ * un servizio, un player e una vibrazione per N allarmi ravvicinati.
  */
 public class AlarmService extends Service {
     
@@ -33,18 +35,45 @@ public class AlarmService extends Service {
     public static final String ACTION_START = "com.promemoria.app.ACTION_START_ALARM";
     public static final String ACTION_STOP = "com.promemoria.app.ACTION_STOP_ALARM";
     public static final String ACTION_SNOOZE = "com.promemoria.app.ACTION_SNOOZE_ALARM";
+    public static final String ACTION_DISMISS = "com.promemoria.app.ACTION_DISMISS_ALARM";
     
     public static final String EXTRA_NOTIFICATION_ID = "notification_id";
     public static final String EXTRA_REMINDER_ID = "reminder_id";
     public static final String EXTRA_TITLE = "title";
     public static final String EXTRA_BODY = "body";
     
-    private MediaPlayer mediaPlayer;
+    // Notifica in primo piano della sessione, fuori dall'intervallo dei blocchi di NotificationIds
+    private static final int SESSION_NOTIFICATION_ID = Integer.MAX_VALUE - 1;
+    private static final String GROUP_KEY = "com.promemoria.app.ALARM_SESSION";
+    
+    // Sessione attiva: i receiver inviano ACTION_DISMISS solo se c'è qualcosa da chiudere
+    private static volatile boolean sessionActive = false;
+    
+    /**
+     * Promemoria in attesa nella sessione corrente
+     */
+    private static class AlarmItem {
+        final int notificationId;
+        final String reminderId;
+        final String title;
+        final String body;
+        
+        AlarmItem(int notificationId, String reminderId, String title, String body) {
+            this.notificationId = notificationId;
+            this.reminderId = reminderId;
+            this.title = title;
+            this.body = body;
+        }
+    }
+    
+    // Ordine di arrivo; chiave = reminderId (o ID notifica se assente)
+    private final LinkedHashMap<String, AlarmItem> items = new LinkedHashMap<>();
+    
     private Vibrator vibrator;
     private Handler handler;
     private boolean isRunning = false;
     
-    // Stop automatico dopo 60 secondi
+    // Stop automatico 60 secondi dopo l'ultimo promemoria arrivato
     private static final long AUTO_STOP_DELAY = 60000;
     
     private Runnable autoStopRunnable = () -> {
@@ -52,6 +81,24 @@ public class AlarmService extends Service {
         stopAlarm();
     };
     
+    /**
+     * Toglie un promemoria dalla sessione in corso (Fatto/5 min dalle notifiche)
+     */
+    public static void dismiss(Context context, String reminderId, int notificationId) {
+        if (!sessionActive) return;
+        
+        Intent intent = new Intent(context, AlarmService.class);
+        intent.setAction(ACTION_DISMISS);
+        intent.putExtra(EXTRA_REMINDER_ID, reminderId);
+        intent.putExtra(EXTRA_NOTIFICATION_ID, notificationId);
+        try {
+            // Il servizio è in primo piano: startService è consentito
+            context.startService(intent);
+        } catch (Exception e) {
+            Log.e(TAG, "Error dismissing alarm item", e);
+        }
+    }
+    
     @Override
     public void onCreate() {
         super.onCreate();
@@ -64,6 +111,7 @@ public class AlarmService extends Service {
         if (intent == null) return START_NOT_STICKY;
         
         String action = intent.getAction();
+        long requestedAt = SystemClock.elapsedRealtime();
         
         if (ACTION_START.equals(action)) {
             int notificationId = intent.getIntExtra(EXTRA_NOTIFICATION_ID, 0);
@@ -71,7 +119,9 @@ public class AlarmService extends Service {
             String title = intent.getStringExtra(EXTRA_TITLE);
             String body = intent.getStringExtra(EXTRA_BODY);
             
-            startAlarm(notificationId, reminderId, title, body);
+            startAlarm(new AlarmItem(notificationId, reminderId, title, body), requestedAt);
+        } else if (ACTION_DISMISS.equals(action)) {
+            dismissItem(intent.getStringExtra(EXTRA_REMINDER_ID), intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1));
         } else if (ACTION_STOP.equals(action) || ACTION_SNOOZE.equals(action)) {
             stopAlarm();
         }
@@ -79,115 +129,82 @@ public class AlarmService extends Service {
         return START_NOT_STICKY;
     }
     
-    private void startAlarm(int notificationId, String reminderId, String title, String body) {
-        if (isRunning) return;
-        isRunning = true;
+    private void startAlarm(AlarmItem item, long requestedAt) {
+        items.remove(keyOf(item.reminderId, item.notificationId));
+        items.put(keyOf(item.reminderId, item.notificationId), item);
         
-        // Leggi impostazioni
-        SharedPreferences prefs = getSharedPreferences("CapacitorStorage", MODE_PRIVATE);
-        String settingsJson = prefs.getString("notification-settings", "{}");
-        boolean vibrationEnabled = settingsJson.contains("\"vibrationEnabled\":true");
-        String ringtone = "chime"; // default
+        // Il timer riparte a ogni nuovo promemoria
+        handler.removeCallbacks(autoStopRunnable);
+        handler.postDelayed(autoStopRunnable, AUTO_STOP_DELAY);
         
-        // Parse ringtone from settings
-        int ringtoneStart = settingsJson.indexOf("\"ringtone\":\"");
-        if (ringtoneStart != -1) {
-            int ringtoneEnd = settingsJson.indexOf("\"", ringtoneStart + 12);
-            if (ringtoneEnd != -1) {
-                ringtone = settingsJson.substring(ringtoneStart + 12, ringtoneEnd);
-            }
+        if (isRunning) {
+            // Sessione già attiva: stesso suono e vibrazione, si aggiorna solo la notifica
+            updateNotifications();
+            Log.d(TAG, "Alarm added to session: " + item.title + " (" + items.size() + " active)");
+            return;
         }
+        isRunning = true;
+        sessionActive = true;
         
-        // Leggi nome utente
-        String userName = prefs.getString("user-name", "");
-        String personalizedTitle = title;
-        if (!userName.isEmpty()) {
-            personalizedTitle = "Ei " + userName + "! " + title;
-        }
+        // Leggi impostazioni (già parsate e in cache)
+        NotificationSettings settings = NotificationSettings.get(this);
         
-        // Crea notifica full-screen
-        Notification notification = createAlarmNotification(notificationId, reminderId, personalizedTitle, body);
-        startForeground(notificationId, notification);
+        // Avvia suono in LOOP per primo: il player è già preparato dal receiver
+        AlarmAudioEngine.start(this, settings.ringtone, requestedAt);
         
-        // Avvia suono in LOOP
-        startSound(ringtone);
+        // Crea notifica full-screen
+        startForeground(SESSION_NOTIFICATION_ID, createSessionNotification());
         
         // Avvia vibrazione in LOOP
-        if (vibrationEnabled) {
+        if (settings.vibrationEnabled) {
             startVibration();
         }
         
-        // Auto-stop dopo 60 secondi
-        handler.postDelayed(autoStopRunnable, AUTO_STOP_DELAY);
+        Log.d(TAG, "Alarm started: " + item.title);
+    }
+    
+    private void dismissItem(String reminderId, int notificationId) {
+        AlarmItem removed = items.remove(keyOf(reminderId, notificationId));
+        if (removed == null) return;
+        
+        if (items.isEmpty()) {
+            stopAlarm();
+            return;
+        }
         
-        Log.d(TAG, "Alarm started: " + personalizedTitle);
+        cancelChild(removed);
+        updateNotifications();
+        Log.d(TAG, "Alarm dismissed: " + removed.title + " (" + items.size() + " active)");
     }
     
     private void stopAlarm() {
         isRunning = false;
+        sessionActive = false;
         handler.removeCallbacks(autoStopRunnable);
         
-        // Stop suono
-        if (mediaPlayer != null) {
-            try {
-                if (mediaPlayer.isPlaying()) {
-                    mediaPlayer.stop();
-                }
-                mediaPlayer.release();
-            } catch (Exception e) {
-                Log.e(TAG, "Error stopping media player", e);
-            }
-            mediaPlayer = null;
-        }
+        // Stop suono (il player resta pronto per il prossimo allarme)
+        AlarmAudioEngine.stop();
         
         // Stop vibrazione
         if (vibrator != null) {
             vibrator.cancel();
         }
         
+        // Promemoria ancora in sessione: chiusi senza Fatto/5 min (stop o timeout)
+        for (AlarmItem item : items.values()) {
+            cancelChild(item);
+            NativeEventBus.publish(NativeEventBus.TYPE_DISMISSED, item.reminderId);
+        }
+        items.clear();
+        
         stopForeground(true);
         stopSelf();
         
         Log.d(TAG, "Alarm stopped");
     }
     
-    private void startSound(String ringtone) {
-        try {
-            Uri soundUri;
-            
-            // Mappa suoneria a risorsa
-            int soundRes = 0;
-            switch (ringtone) {
-                case "chime": soundRes = R.raw.chime; break;
-                case "beep": soundRes = R.raw.beep; break;
-                case "gentle": soundRes = R.raw.gentle; break;
-                case "urgent": soundRes = R.raw.urgent; break;
-                case "alert": soundRes = R.raw.alert; break;
-                case "silent": return; // No sound
-                default: soundRes = 0; break;
-            }
-            
-            if (soundRes != 0) {
-                soundUri = Uri.parse("android.resource://" + getPackageName() + "/" + soundRes);
-            } else {
-                soundUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_ALARM);
-            }
-            
-            mediaPlayer = new MediaPlayer();
-            mediaPlayer.setDataSource(this, soundUri);
-            mediaPlayer.setAudioAttributes(new AudioAttributes.Builder()
-                .setUsage(AudioAttributes.USAGE_ALARM)
-                .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
-                .build());
-            mediaPlayer.setLooping(true); // LOOP!
-            mediaPlayer.prepare();
-            mediaPlayer.start();
-            
-            Log.d(TAG, "Sound started: " + ringtone);
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Error playing sound", e);
-        }
+    private static String keyOf(String reminderId, int notificationId) {
+        return reminderId != null && !reminderId.isEmpty() ? reminderId : "#" + notificationId;
     }
     
     private void startVibration() {
@@ -204,52 +221,135 @@ public class AlarmService extends Service {
         }
     }
     
-    private Notification createAlarmNotification(int notificationId, String reminderId, String title, String body) {
-        // Intent per STOP
-        Intent stopIntent = new Intent(this, AlarmService.class);
-        stopIntent.setAction(ACTION_STOP);
-        PendingIntent stopPending = PendingIntent.getService(this, notificationId + 100, stopIntent,
-            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    /**
+     * Aggiorna la notifica della sessione e, con più promemoria, le notifiche figlie con le azioni
+     */
+    private void updateNotifications() {
+        NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (nm == null) return;
         
-        // Intent per SNOOZE (5 minuti)
-        Intent snoozeIntent = new Intent(this, NotificationActionReceiver.class);
-        snoozeIntent.setAction(NotificationActionReceiver.ACTION_SNOOZE);
-        snoozeIntent.putExtra(EXTRA_NOTIFICATION_ID, notificationId);
-        snoozeIntent.putExtra(EXTRA_REMINDER_ID, reminderId);
-        snoozeIntent.putExtra(EXTRA_TITLE, title);
-        snoozeIntent.putExtra(EXTRA_BODY, body);
-        PendingIntent snoozePending = PendingIntent.getBroadcast(this, notificationId + 101, snoozeIntent,
-            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        // startForeground anche per gli aggiornamenti: soddisfa ogni startForegroundService successivo
+        startForeground(SESSION_NOTIFICATION_ID, createSessionNotification());
+        
+        if (items.size() > 1) {
+            for (AlarmItem item : items.values()) {
+                nm.notify(item.notificationId, createChildNotification(item));
+            }
+        } else {
+            // Tornati a uno solo: le azioni stanno sulla notifica della sessione
+            for (AlarmItem item : items.values()) {
+                nm.cancel(item.notificationId);
+            }
+        }
+    }
+    
+    private void cancelChild(AlarmItem item) {
+        NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (nm != null) {
+            nm.cancel(item.notificationId);
+        }
+    }
+    
+    private String personalize(String title) {
+        String userName = NotificationSettings.get(this).userName;
+        return userName.isEmpty() ? title : "Ei " + userName + "! " + title;
+    }
+    
+    private Notification createSessionNotification() {
+        List<AlarmItem> active = new ArrayList<>(items.values());
+        AlarmItem first = active.get(0);
         
         // Intent per aprire app
         Intent openIntent = new Intent(this, MainActivity.class);
         openIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
-        PendingIntent openPending = PendingIntent.getActivity(this, notificationId, openIntent,
+        PendingIntent openPending = PendingIntent.getActivity(this, first.notificationId, openIntent,
             PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
         
         // Full-screen intent
         Intent fullScreenIntent = new Intent(this, MainActivity.class);
         fullScreenIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
         fullScreenIntent.putExtra("alarm", true);
-        PendingIntent fullScreenPending = PendingIntent.getActivity(this, notificationId + 50, fullScreenIntent,
+        PendingIntent fullScreenPending = PendingIntent.getActivity(this,
+            NotificationIds.requestCode(first.notificationId, NotificationIds.SLOT_FULL_SCREEN), fullScreenIntent,
             PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
         
-        return new NotificationCompat.Builder(this, CHANNEL_ID)
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
             .setSmallIcon(R.drawable.ic_stat_notification)
-            .setContentTitle("⏰ " + title)
-            .setContentText(body)
             .setPriority(NotificationCompat.PRIORITY_MAX)
             .setCategory(NotificationCompat.CATEGORY_ALARM)
             .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
             .setOngoing(true)
             .setAutoCancel(false)
+            .setOnlyAlertOnce(true)
             .setContentIntent(openPending)
-            .setFullScreenIntent(fullScreenPending, true)
-            .addAction(0, "✓ Fatto", stopPending)
-            .addAction(0, "⏰ 5 min", snoozePending)
+            .setFullScreenIntent(fullScreenPending, true);
+        
+        if (active.size() == 1) {
+            // Un solo promemoria: titolo e azioni direttamente sulla notifica
+            builder.setContentTitle("⏰ " + personalize(first.title))
+                .setContentText(first.body)
+                .addAction(0, "✓ Fatto", actionIntent(first, NotificationActionReceiver.ACTION_COMPLETE,
+                    NotificationIds.SLOT_ALARM_STOP))
+                .addAction(0, "⏰ 5 min", actionIntent(first, NotificationActionReceiver.ACTION_SNOOZE,
+                    NotificationIds.SLOT_ALARM_SNOOZE));
+            return builder.build();
+        }
+        
+        // Più promemoria: elenco nella notifica di riepilogo, azioni sulle figlie del gruppo
+        String title = "⏰ " + personalize(active.size() + " promemoria");
+        NotificationCompat.InboxStyle inbox = new NotificationCompat.InboxStyle()
+            .setBigContentTitle(title);
+        for (AlarmItem item : active) {
+            inbox.addLine(item.title);
+        }
+        
+        // Intent per STOP di tutta la sessione
+        Intent stopIntent = new Intent(this, AlarmService.class);
+        stopIntent.setAction(ACTION_STOP);
+        PendingIntent stopPending = PendingIntent.getService(this, SESSION_NOTIFICATION_ID, stopIntent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        
+        return builder.setContentTitle(title)
+            .setContentText(first.title)
+            .setStyle(inbox)
+            .setNumber(active.size())
+            .setGroup(GROUP_KEY)
+            .setGroupSummary(true)
+            .addAction(0, "🔕 Ferma tutto", stopPending)
+            .build();
+    }
+    
+    private Notification createChildNotification(AlarmItem item) {
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+            .setSmallIcon(R.drawable.ic_stat_notification)
+            .setContentTitle("⏰ " + item.title)
+            .setContentText(item.body)
+            .setCategory(NotificationCompat.CATEGORY_ALARM)
+            .setOngoing(true)
+            .setAutoCancel(false)
+            .setGroup(GROUP_KEY)
+            // Suona solo la sessione: le figlie non ripetono l'allerta
+            .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_SUMMARY)
+            .setOnlyAlertOnce(true)
+            .addAction(0, "✓ Fatto", actionIntent(item, NotificationActionReceiver.ACTION_COMPLETE,
+                NotificationIds.SLOT_COMPLETE_ACTION))
+            .addAction(0, "⏰ 5 min", actionIntent(item, NotificationActionReceiver.ACTION_SNOOZE,
+                NotificationIds.SLOT_SNOOZE_ACTION))
             .build();
     }
     
+    // Fatto/5 min passano da NotificationActionReceiver, che poi toglie il promemoria dalla sessione
+    private PendingIntent actionIntent(AlarmItem item, String action, int slot) {
+        Intent intent = new Intent(this, NotificationActionReceiver.class);
+        intent.setAction(action);
+        intent.putExtra(EXTRA_NOTIFICATION_ID, item.notificationId);
+        intent.putExtra(EXTRA_REMINDER_ID, item.reminderId);
+        intent.putExtra(EXTRA_TITLE, item.title);
+        intent.putExtra(EXTRA_BODY, item.body);
+        return PendingIntent.getBroadcast(this, NotificationIds.requestCode(item.notificationId, slot), intent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+    
     private void createNotificationChannel() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationChannel channel = new NotificationChannel(
@@ -277,7 +377,9 @@ public class AlarmService extends Service {
     
     @Override
     public void onDestroy() {
-        stopAlarm();
+        if (isRunning) {
+            stopAlarm();
+        }
         super.onDestroy();
     }
 }
@@ -0,0 +1,161 @@
+package com.promemoria.app;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Sceglie con quale API di AlarmManager armare la testa della coda:
+ * setAlarmClock per sveglie e priorità alta (puntuale anche in Doze),
+ * setExactAndAllowWhileIdle per priorità media e snooze, setWindow per la priorità bassa
+ * (nessun risveglio esatto). Il ritardo osservato di ogni API viene registrato e,
+ * se una API consegna troppo spesso in ritardo, i suoi promemoria passano a quella superiore.
+ */
+public final class DeliveryPolicy {
+
+    private static final String TAG = "DeliveryPolicy";
+    private static final String PREFS_NAME = "DeliveryPolicy";
+
+    public static final int API_ALARM_CLOCK = 0;
+    public static final int API_EXACT = 1;
+    public static final int API_WINDOW = 2;
+
+    private static final String[] API_NAMES = {"alarm_clock", "exact_idle", "window"};
+
+    // Ampiezza della finestra per la priorità bassa
+    static final long WINDOW_MS = 10 * 60_000;
+
+    // Oltre questo ritardo una consegna conta come tardiva, per API
+    private static final long[] LATE_THRESHOLD_MS = {5_000, 60_000, 30 * 60_000};
+
+    // Media esponenziale della quota di consegne tardive: peso dell'ultima consegna
+    private static final double DECAY = 0.1;
+    private static final int MIN_SAMPLES = 10;
+    private static final double ESCALATE_RATIO = 0.2;
+
+    // Con una API promossa, ogni PROBE_EVERY armi si riprova quella di base per rimisurarla
+    private static final int PROBE_EVERY = 20;
+
+    private DeliveryPolicy() {}
+
+    /**
+     * API di base per un elemento in coda (senza adattamento)
+     */
+    static int baseApi(boolean alarmMode, String priority, int kind) {
+        if (alarmMode || "high".equals(priority)) return API_ALARM_CLOCK;
+        if (kind == AlarmQueue.KIND_SNOOZE || !"low".equals(priority)) return API_EXACT;
+        return API_WINDOW;
+    }
+
+    /**
+     * API da usare davvero: promossa se quella di base consegna in ritardo,
+     * finestra se l'app non può più usare alarm esatti
+     */
+    static int choose(Context context, int base) {
+        if (!canScheduleExact(context)) return API_WINDOW;
+
+        SharedPreferences prefs = prefs(context);
+        int api = base;
+        while (api > API_ALARM_CLOCK && isUnreliable(prefs, api)) {
+            api--;
+        }
+        if (api == base) return api;
+
+        // Ogni tanto si torna alla API di base, altrimenti non si saprebbe mai se è migliorata
+        int promoted = prefs.getInt("promoted_" + API_NAMES[base], 0) + 1;
+        prefs.edit().putInt("promoted_" + API_NAMES[base], promoted % PROBE_EVERY).apply();
+        if (promoted % PROBE_EVERY == 0) {
+            Log.d(TAG, "Probing " + API_NAMES[base] + " again");
+            return base;
+        }
+        return api;
+    }
+
+    /**
+     * Se uno scatto consegnato con questa API può avviare il servizio sveglia in foreground.
+     * Da Android 12 l'esenzione vale solo per alarm esatti e sveglie col permesso concesso:
+     * dopo setWindow startForegroundService fallirebbe, meglio la notifica semplice.
+     */
+    static boolean allowsForegroundStart(Context context, int api) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S) return true;
+        return (api == API_ALARM_CLOCK || api == API_EXACT) && canScheduleExact(context);
+    }
+
+    /**
+     * Registra l'alarm con l'API scelta
+     */
+    static void arm(Context context, AlarmManager alarmManager, int api, long triggerAt, PendingIntent operation) {
+        switch (api) {
+            case API_ALARM_CLOCK:
+                alarmManager.setAlarmClock(
+                    new AlarmManager.AlarmClockInfo(triggerAt, showIntent(context)), operation);
+                break;
+            case API_EXACT:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, triggerAt, operation);
+                } else {
+                    alarmManager.setExact(AlarmManager.RTC_WAKEUP, triggerAt, operation);
+                }
+                break;
+            default:
+                alarmManager.setWindow(AlarmManager.RTC_WAKEUP, triggerAt, WINDOW_MS, operation);
+                break;
+        }
+        MetricsRegistry.counter("delivery." + name(api) + ".armed").inc();
+    }
+
+    /**
+     * Ritardo di una consegna (arrivo del broadcast meno orario richiesto)
+     */
+    static void recordDelivery(Context context, int api, long latenessMs) {
+        if (api < API_ALARM_CLOCK || api > API_WINDOW) return;
+
+        MetricsRegistry.histogram("delivery." + API_NAMES[api] + ".lateness").record(latenessMs);
+
+        SharedPreferences prefs = prefs(context);
+        String name = API_NAMES[api];
+        boolean late = latenessMs > LATE_THRESHOLD_MS[api];
+        float ratio = prefs.getFloat("late_ratio_" + name, 0f);
+        ratio = (float) (ratio * (1 - DECAY) + (late ? DECAY : 0));
+        prefs.edit()
+            .putFloat("late_ratio_" + name, ratio)
+            .putInt("samples_" + name, prefs.getInt("samples_" + name, 0) + 1)
+            .apply();
+
+        if (late) {
+            Log.w(TAG, name + " delivered " + latenessMs + " ms late (late ratio " + ratio + ")");
+        }
+    }
+
+    static String name(int api) {
+        return api >= API_ALARM_CLOCK && api <= API_WINDOW ? API_NAMES[api] : "unknown";
+    }
+
+    private static boolean isUnreliable(SharedPreferences prefs, int api) {
+        String name = API_NAMES[api];
+        return prefs.getInt("samples_" + name, 0) >= MIN_SAMPLES
+            && prefs.getFloat("late_ratio_" + name, 0f) > ESCALATE_RATIO;
+    }
+
+    private static boolean canScheduleExact(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S) return true;
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        return alarmManager != null && alarmManager.canScheduleExactAlarms();
+    }
+
+    // Tocco sull'icona della sveglia nella barra di stato: apre l'app
+    private static PendingIntent showIntent(Context context) {
+        Intent intent = new Intent(context, MainActivity.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        return PendingIntent.getActivity(context, 3000, intent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,37 @@
+package com.promemoria.app;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache in memoria dei blocchi di ID assegnati da NotificationIds, letta senza lock
+ * a ogni scatto. Nessuna dipendenza Android (la misurano anche i benchmark JMH).
+ */
+final class IdBlockCache {
+
+    private final ConcurrentHashMap<String, Integer> bases = new ConcurrentHashMap<>();
+
+    /**
+     * Base del blocco già in cache, oppure -1
+     */
+    int get(String reminderId) {
+        Integer base = bases.get(reminderId);
+        return base != null ? base : -1;
+    }
+
+    void put(String reminderId, int base) {
+        bases.put(reminderId, base);
+    }
+
+    void putAll(Map<String, Integer> assigned) {
+        bases.putAll(assigned);
+    }
+
+    void remove(String reminderId) {
+        bases.remove(reminderId);
+    }
+
+    void clear() {
+        bases.clear();
+    }
+}
@@ -0,0 +1,243 @@
+package com.promemoria.app;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metriche in-process della pipeline nativa: contatori e istogrammi di latenza log-lineari
+ * (stile HDR, errore relativo sotto il 12,5%), senza lock sul percorso di registrazione.
+ * Lette dalla WebView con getMetrics() e salvate in files/metrics.json;
+ * le sezioni Trace rendono visibili gli stessi passaggi nelle catture Perfetto.
+ */
+public final class MetricsRegistry {
+
+    private static final String TAG = "MetricsRegistry";
+    private static final String FILE_NAME = "metrics.json";
+
+    // Dump automatico al massimo una volta ogni DUMP_INTERVAL_MS
+    private static final long DUMP_INTERVAL_MS = 60_000;
+
+    private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final AtomicLong lastDumpAt = new AtomicLong();
+
+    private MetricsRegistry() {}
+
+    /**
+     * Contatore monotono
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Istogramma log-lineare: valori 0..7 esatti, poi 8 bucket per ogni potenza di 2
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int MAX_EXP = 40; // oltre 2^41 si satura nell'ultimo bucket
+        private static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB_COUNT;
+
+        private final TimeUnit unit;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(TimeUnit unit) {
+            this.unit = unit;
+        }
+
+        /**
+         * Registra un valore già nell'unità dell'istogramma (i negativi valgono 0)
+         */
+        public void record(long value) {
+            long v = Math.max(0, value);
+            buckets.incrementAndGet(indexOf(v));
+            sum.add(v);
+
+            long current = max.get();
+            while (v > current && !max.compareAndSet(current, v)) {
+                current = max.get();
+            }
+        }
+
+        /**
+         * Registra una durata misurata con elapsedRealtimeNanos
+         */
+        public void recordNanos(long nanos) {
+            record(unit.convert(nanos, TimeUnit.NANOSECONDS));
+        }
+
+        static int indexOf(long v) {
+            if (v < SUB_COUNT) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            if (exp > MAX_EXP) return BUCKETS - 1;
+            int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+            return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+        }
+
+        // Valore più alto che finisce nel bucket
+        static long upperBound(int index) {
+            if (index < SUB_COUNT) return index;
+            int exp = index / SUB_COUNT + SUB_BITS - 1;
+            long sub = index % SUB_COUNT;
+            return ((SUB_COUNT + sub + 1) << (exp - SUB_BITS)) - 1;
+        }
+
+        JSONObject toJson() throws JSONException {
+            // Copia dei bucket: il conteggio si ricava da lì per restare coerente con i percentili
+            long[] copy = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = buckets.get(i);
+                total += copy[i];
+            }
+
+            long maxValue = max.get();
+            JSONObject json = new JSONObject();
+            json.put("unit", unit.name().toLowerCase(Locale.ROOT));
+            json.put("count", total);
+            json.put("mean", total > 0 ? (double) sum.sum() / total : 0);
+            json.put("max", maxValue);
+            json.put("p50", percentile(copy, total, 0.50, maxValue));
+            json.put("p90", percentile(copy, total, 0.90, maxValue));
+            json.put("p99", percentile(copy, total, 0.99, maxValue));
+            return json;
+        }
+
+        private static long percentile(long[] copy, long total, double p, long maxValue) {
+            if (total == 0) return 0;
+            long target = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < copy.length; i++) {
+                seen += copy[i];
+                if (seen >= target) return Math.min(upperBound(i), maxValue);
+            }
+            return maxValue;
+        }
+    }
+
+    public static Counter counter(String name) {
+        Counter existing = counters.get(name);
+        if (existing != null) return existing;
+        Counter created = new Counter();
+        existing = counters.putIfAbsent(name, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * Istogramma in millisecondi
+     */
+    public static Histogram histogram(String name) {
+        return histogram(name, TimeUnit.MILLISECONDS);
+    }
+
+    public static Histogram histogram(String name, TimeUnit unit) {
+        Histogram existing = histograms.get(name);
+        if (existing != null) return existing;
+        Histogram created = new Histogram(unit);
+        existing = histograms.putIfAbsent(name, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * Apre una sezione Trace e restituisce l'istante di inizio per endSection
+     */
+    public static long beginSection(String section) {
+        Trace.beginSection(section);
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Chiude la sezione (stesso thread di beginSection) e ne registra la durata
+     */
+    public static void endSection(Histogram histogram, long startNanos) {
+        Trace.endSection();
+        histogram.recordNanos(SystemClock.elapsedRealtimeNanos() - startNanos);
+    }
+
+    /**
+     * Tutte le metriche, in ordine alfabetico
+     */
+    public static JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        try {
+            JSONObject counterJson = new JSONObject();
+            for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+                counterJson.put(entry.getKey(), entry.getValue().get());
+            }
+            JSONObject histogramJson = new JSONObject();
+            for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+                histogramJson.put(entry.getKey(), entry.getValue().toJson());
+            }
+            json.put("at", System.currentTimeMillis());
+            json.put("uptimeMs", SystemClock.elapsedRealtime());
+            json.put("counters", counterJson);
+            json.put("histograms", histogramJson);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error building metrics", e);
+        }
+        return json;
+    }
+
+    /**
+     * Scrive le metriche in files/metrics.json (file temporaneo + rename, mai a metà)
+     */
+    public static synchronized void dump(Context context) {
+        lastDumpAt.set(SystemClock.elapsedRealtime());
+        File target = new File(context.getFilesDir(), FILE_NAME);
+        File temp = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(toJson().toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing metrics", e);
+            return;
+        }
+        if (!temp.renameTo(target)) {
+            Log.e(TAG, "Error replacing " + FILE_NAME);
+        }
+    }
+
+    /**
+     * Come dump, ma al massimo una volta ogni DUMP_INTERVAL_MS (da chiamare fuori dal main thread)
+     */
+    public static void dumpThrottled(Context context) {
+        long last = lastDumpAt.get();
+        long now = SystemClock.elapsedRealtime();
+        if (last != 0 && now - last < DUMP_INTERVAL_MS) return;
+        if (lastDumpAt.compareAndSet(last, now)) {
+            dump(context);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.promemoria.app;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Buffer circolare lock-free degli eventi nativi (scatti, snooze, completamenti) verso la WebView.
+ * Più produttori (receiver, servizio) riservano uno slot con un getAndIncrement;
+ * un solo consumatore (il plugin) li scarica a blocchi. Se il consumatore resta indietro
+ * di più di CAPACITY eventi, i più vecchi vengono sovrascritti e contati come persi.
+ */
+public final class NativeEventBus {
+
+    public static final String TYPE_FIRED = "fired";
+    public static final String TYPE_SNOOZED = "snoozed";
+    public static final String TYPE_COMPLETED = "completed";
+    public static final String TYPE_DISMISSED = "dismissed";
+
+    private static final int CAPACITY = 1024; // potenza di 2
+    private static final int MASK = CAPACITY - 1;
+
+    private static final AtomicReferenceArray<Event> slots = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong writeSeq = new AtomicLong();
+
+    // Solo il consumatore legge/scrive readSeq
+    private static long readSeq = 0;
+
+    private static volatile Runnable listener;
+
+    private NativeEventBus() {}
+
+    /**
+     * Evento pubblicato
+     */
+    public static final class Event {
+        final long seq;
+        public final String type;
+        public final String reminderId;
+        public final long at;
+
+        Event(long seq, String type, String reminderId, long at) {
+            this.seq = seq;
+            this.type = type;
+            this.reminderId = reminderId;
+            this.at = at;
+        }
+    }
+
+    /**
+     * Pubblica un evento; non blocca mai il chiamante
+     */
+    public static void publish(String type, String reminderId) {
+        long seq = writeSeq.getAndIncrement();
+        slots.set((int) (seq & MASK), new Event(seq, type, reminderId, System.currentTimeMillis()));
+
+        Runnable current = listener;
+        if (current != null) {
+            current.run();
+        }
+    }
+
+    /**
+     * Avvisato dopo ogni publish (dal thread del produttore): deve solo pianificare lo scarico
+     */
+    public static void setListener(Runnable newListener) {
+        listener = newListener;
+    }
+
+    /**
+     * Scarica in out gli eventi non ancora letti e restituisce quanti sono andati persi.
+     * Da chiamare da un solo thread alla volta.
+     */
+    public static synchronized int drain(List<Event> out) {
+        long end = writeSeq.get();
+        int dropped = 0;
+
+        if (end - readSeq > CAPACITY) {
+            dropped = (int) (end - readSeq - CAPACITY);
+            readSeq = end - CAPACITY;
+        }
+
+        while (readSeq < end) {
+            Event event = slots.get((int) (readSeq & MASK));
+            if (event == null || event.seq < readSeq) {
+                // Slot riservato ma non ancora scritto: si riprende al prossimo scarico
+                break;
+            }
+            if (event.seq > readSeq) {
+                // Sovrascritto da un produttore più veloce
+                dropped++;
+            } else {
+                out.add(event);
+            }
+            readSeq++;
+        }
+        return dropped;
+    }
+}
@@ -1,18 +1,29 @@
 package com.promemoria.app;
 
 import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.Context;
-import android.content.Intent;
-import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Plugin Capacitor per notifiche native con pulsanti che NON aprono l'app
  */
@@ -21,6 +32,68 @@ public class NativeNotificationPlugin extends Plugin {
     
     private static final String TAG = "NativeNotificationPlugin";
     
+    // Lavoro batch fuori dal thread del bridge
+    private static final ExecutorService batchExecutor = Executors.newSingleThreadExecutor();
+    
+    // Promemoria fittizio della notifica di prova
+    private static final String TEST_REMINDER_ID = ReminderStore.TEST_ID_PREFIX + "native";
+    
+    // Tetto alle occorrenze per promemoria in getNextOccurrences
+    private static final int MAX_OCCURRENCES = 366;
+    
+    // Risultati per pagina nella ricerca
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int MAX_SEARCH_LIMIT = 100;
+    
+    // Tetto alle voci restituite da getAgenda
+    private static final int MAX_AGENDA_LIMIT = 500;
+    
+    // Attesa prima di scaricare gli eventi: una raffica arriva alla WebView in un solo messaggio
+    private static final long EVENT_BATCH_DELAY_MS = 50;
+    
+    private final Handler eventHandler = new Handler(Looper.getMainLooper());
+    private final Runnable drainEvents = this::drainEvents;
+    
+    @Override
+    public void load() {
+        NativeEventBus.setListener(() -> {
+            eventHandler.removeCallbacks(drainEvents);
+            eventHandler.postDelayed(drainEvents, EVENT_BATCH_DELAY_MS);
+        });
+        // Eventi arrivati prima che la WebView fosse pronta
+        eventHandler.post(drainEvents);
+    }
+    
+    @Override
+    protected void handleOnDestroy() {
+        NativeEventBus.setListener(null);
+        eventHandler.removeCallbacks(drainEvents);
+    }
+    
+    /**
+     * Invia alla WebView, in un solo evento "nativeEvents", tutto ciò che è nel buffer
+     */
+    private void drainEvents() {
+        List<NativeEventBus.Event> events = new ArrayList<>();
+        int dropped = NativeEventBus.drain(events);
+        if (events.isEmpty() && dropped == 0) return;
+        
+        JSArray list = new JSArray();
+        for (NativeEventBus.Event event : events) {
+            JSObject item = new JSObject();
+            item.put("type", event.type);
+            item.put("reminderId", event.reminderId);
+            item.put("at", event.at);
+            list.put(item);
+        }
+        
+        JSObject data = new JSObject();
+        data.put("events", list);
+        data.put("dropped", dropped);
+        // Trattenuti finché JS non registra il listener
+        notifyListeners("nativeEvents", data, true);
+    }
+    
     @PluginMethod
     public void schedule(PluginCall call) {
         String id = call.getString("id", "");
@@ -33,44 +106,8 @@ public class NativeNotificationPlugin extends Plugin {
             return;
         }
         
-        int notificationId = Math.abs(id.hashCode()) % 1000000;
-        
-        Context context = getContext();
-        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        
-        if (alarmManager == null) {
-            call.reject("AlarmManager non disponibile");
-            return;
-        }
-        
-        // Crea intent per mostrare la notifica
-        Intent intent = new Intent(context, ReminderAlarmReceiver.class);
-        intent.putExtra(NotificationActionReceiver.EXTRA_NOTIFICATION_ID, notificationId);
-        intent.putExtra(NotificationActionReceiver.EXTRA_REMINDER_ID, id);
-        intent.putExtra(NotificationActionReceiver.EXTRA_TITLE, title);
-        intent.putExtra(NotificationActionReceiver.EXTRA_BODY, body);
-        
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(
-            context,
-            notificationId,
-            intent,
-            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-        );
-        
         try {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                alarmManager.setExactAndAllowWhileIdle(
-                    AlarmManager.RTC_WAKEUP,
-                    timestamp,
-                    pendingIntent
-                );
-            } else {
-                alarmManager.setExact(
-                    AlarmManager.RTC_WAKEUP,
-                    timestamp,
-                    pendingIntent
-                );
-            }
+            int notificationId = ReminderAlarms.schedule(getContext(), id, title, body, timestamp);
             
             Log.d(TAG, "Notification scheduled: " + title + " at " + timestamp);
             
@@ -93,50 +130,382 @@ public class NativeNotificationPlugin extends Plugin {
             return;
         }
         
-        int notificationId = Math.abs(id.hashCode()) % 1000000;
-        
         Context context = getContext();
         AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        ReminderAlarms.cancel(context, alarmManager, id);
+        
+        Log.d(TAG, "Notification and snooze alarms cancelled: " + id);
+        call.resolve();
+    }
+    
+    /**
+     * Programma più promemoria con un solo attraversamento del bridge.
+     * Risolve una volta sola con l'esito di ogni elemento.
+     */
+    @PluginMethod
+    public void scheduleMany(PluginCall call) {
+        JSArray items = call.getArray("items");
+        if (items == null) {
+            call.reject("items richiesto");
+            return;
+        }
         
-        if (alarmManager != null) {
-            // Cancella l'alarm principale
-            Intent intent = new Intent(context, ReminderAlarmReceiver.class);
-            PendingIntent pendingIntent = PendingIntent.getBroadcast(
-                context,
-                notificationId,
-                intent,
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-            );
-            alarmManager.cancel(pendingIntent);
+        Context context = getContext();
+        batchExecutor.execute(() -> {
+            JSArray results = new JSArray();
+            List<AlarmQueue.Entry> entries = new ArrayList<>();
+            for (int i = 0; i < items.length(); i++) {
+                JSONObject item = items.optJSONObject(i);
+                String id = item != null ? item.optString("id", "") : "";
+                long timestamp = item != null ? item.optLong("timestamp", 0L) : 0L;
+                
+                JSObject result = new JSObject();
+                result.put("id", id);
+                if (id.isEmpty() || timestamp == 0) {
+                    result.put("success", false);
+                    result.put("error", "ID e timestamp sono richiesti");
+                } else {
+                    entries.add(new AlarmQueue.Entry(id, AlarmQueue.KIND_REMINDER, timestamp,
+                        item.optString("title", "Promemoria"), item.optString("body", "")));
+                    result.put("success", true);
+                }
+                results.put(result);
+            }
+            
+            try {
+                // Una transazione sulla coda e un solo alarm registrato
+                ReminderAlarms.scheduleAll(context, entries);
+                for (int i = 0; i < results.length(); i++) {
+                    JSONObject result = results.optJSONObject(i);
+                    if (result.optBoolean("success")) {
+                        result.put("notificationId", NotificationIds.find(context, result.optString("id")));
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error scheduling batch", e);
+                call.reject("Errore scheduling notifiche: " + e.getMessage());
+                return;
+            }
+            
+            Log.d(TAG, "Batch scheduled: " + entries.size() + "/" + items.length());
             
-            // Cancella anche eventuali alarm di snooze
-            Intent snoozeIntent = new Intent(context, SnoozeAlarmReceiver.class);
-            PendingIntent snoozePending = PendingIntent.getBroadcast(
-                context,
-                notificationId,
-                snoozeIntent,
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-            );
-            alarmManager.cancel(snoozePending);
+            JSObject ret = new JSObject();
+            ret.put("results", results);
+            call.resolve(ret);
+        });
+    }
+    
+    /**
+     * Cancella più promemoria con un solo attraversamento del bridge
+     */
+    @PluginMethod
+    public void cancelMany(PluginCall call) {
+        JSArray ids = call.getArray("ids");
+        if (ids == null) {
+            call.reject("ids richiesto");
+            return;
         }
         
-        // Cancella la notifica se già mostrata
-        NotificationHelper.cancelNotification(context, notificationId);
+        Context context = getContext();
+        batchExecutor.execute(() -> {
+            AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            
+            JSArray results = new JSArray();
+            List<String> valid = new ArrayList<>();
+            for (int i = 0; i < ids.length(); i++) {
+                String id = ids.optString(i, "");
+                
+                JSObject result = new JSObject();
+                result.put("id", id);
+                if (id.isEmpty()) {
+                    result.put("success", false);
+                    result.put("error", "ID richiesto");
+                } else {
+                    valid.add(id);
+                    result.put("success", true);
+                }
+                results.put(result);
+            }
+            
+            ReminderAlarms.cancelAll(context, alarmManager, valid);
+            Log.d(TAG, "Batch cancelled: " + valid.size());
+            
+            JSObject ret = new JSObject();
+            ret.put("results", results);
+            call.resolve(ret);
+        });
+    }
+    
+    /**
+     * Prossimi N scatti (epoch millis, già anticipati) di più promemoria in una chiamata.
+     * I non ricorrenti restituiscono al massimo il loro unico scatto futuro.
+     */
+    @PluginMethod
+    public void getNextOccurrences(PluginCall call) {
+        JSArray items = call.getArray("items");
+        if (items == null) {
+            call.reject("items richiesto");
+            return;
+        }
+        int count = Math.max(1, Math.min(call.getInt("count", 1), MAX_OCCURRENCES));
+        long after = call.getLong("after", System.currentTimeMillis());
         
-        Log.d(TAG, "Notification and snooze alarms cancelled: " + id);
-        call.resolve();
+        batchExecutor.execute(() -> {
+            ZoneId zone = ZoneId.systemDefault();
+            long[] buffer = new long[count];
+            JSArray results = new JSArray();
+            
+            for (int i = 0; i < items.length(); i++) {
+                JSONObject item = items.optJSONObject(i);
+                if (item == null) continue;
+                
+                String date = item.optString("date", "");
+                String time = item.optString("time", "");
+                int minutesBefore = item.optInt("alarmMinutesBefore", 0);
+                
+                int found;
+                RecurrenceCalculator.Rule rule = RecurrenceCalculator.rule(item.optString("recurrence", "none"),
+                    date, time, minutesBefore, item.optString("recurrenceEndDate", ""), zone);
+                if (rule != null) {
+                    found = RecurrenceCalculator.nextTriggers(rule, after, buffer);
+                } else {
+                    long triggerAt = ReminderTimes.triggerAt(date, time, minutesBefore, zone);
+                    found = triggerAt > after ? 1 : 0;
+                    buffer[0] = triggerAt;
+                }
+                
+                JSArray occurrences = new JSArray();
+                for (int j = 0; j < found; j++) {
+                    occurrences.put(buffer[j]);
+                }
+                JSObject result = new JSObject();
+                result.put("id", item.optString("id", ""));
+                result.put("occurrences", occurrences);
+                results.put(result);
+            }
+            
+            JSObject ret = new JSObject();
+            ret.put("results", results);
+            call.resolve(ret);
+        });
+    }
+    
+    /**
+     * Allinea lo store nativo indicizzato ai dati della WebView (sync completo).
+     * La versione passata diventa la base per i delta successivi.
+     */
+    @PluginMethod
+    public void syncData(PluginCall call) {
+        String reminders = call.getString("reminders", "[]");
+        String categories = call.getString("categories", "[]");
+        long version = call.getLong("version", -1L);
+
+        long start = MetricsRegistry.beginSection("sync_full");
+        try {
+            JSONArray reminderArray;
+            JSONArray categoryArray;
+            long parseStart = MetricsRegistry.beginSection("sync_parse");
+            try {
+                reminderArray = new JSONArray(reminders);
+                categoryArray = new JSONArray(categories);
+            } finally {
+                MetricsRegistry.endSection(MetricsRegistry.histogram("sync.parse", TimeUnit.MICROSECONDS), parseStart);
+            }
+            
+            ReminderStore store = ReminderStore.getInstance(getContext());
+            store.replaceAll(reminderArray, categoryArray, version);
+            afterSync(store);
+            call.resolve();
+        } catch (Exception e) {
+            Log.e(TAG, "Error syncing reminder store", e);
+            call.reject("Errore sincronizzazione dati: " + e.getMessage());
+        } finally {
+            MetricsRegistry.endSection(MetricsRegistry.histogram("sync.full"), start);
+        }
+    }
+
+    /**
+     * Applica solo le modifiche (upsert e delete per id) con una versione crescente.
+     * Una versione già vista non fa nulla: niente scritture, niente widget.
+     */
+    @PluginMethod
+    public void applyDelta(PluginCall call) {
+        Long version = call.getLong("version");
+        if (version == null) {
+            call.reject("version mancante");
+            return;
+        }
+
+        long start = MetricsRegistry.beginSection("sync_delta");
+        try {
+            long parseStart = MetricsRegistry.beginSection("sync_parse");
+            JSArray upserts = call.getArray("upserts", new JSArray());
+            JSArray deletes = call.getArray("deletes", new JSArray());
+            JSArray categoryUpserts = call.getArray("categoryUpserts", new JSArray());
+            JSArray categoryDeletes = call.getArray("categoryDeletes", new JSArray());
+            MetricsRegistry.endSection(MetricsRegistry.histogram("sync.parse", TimeUnit.MICROSECONDS), parseStart);
+            
+            ReminderStore store = ReminderStore.getInstance(getContext());
+            boolean applied = store.applyDelta(version, upserts, deletes, categoryUpserts, categoryDeletes);
+            MetricsRegistry.counter(applied ? "sync.delta_applied" : "sync.delta_skipped").inc();
+            if (applied) {
+                afterSync(store);
+            }
+
+            JSObject ret = new JSObject();
+            ret.put("applied", applied);
+            ret.put("version", applied ? version : store.getSyncVersion());
+            call.resolve(ret);
+        } catch (Exception e) {
+            Log.e(TAG, "Error applying delta", e);
+            call.reject("Errore sincronizzazione dati: " + e.getMessage());
+        } finally {
+            MetricsRegistry.endSection(MetricsRegistry.histogram("sync.delta"), start);
+        }
+    }
+
+    /**
+     * Metriche della pipeline nativa (contatori e istogrammi); le salva anche in files/metrics.json
+     */
+    @PluginMethod
+    public void getMetrics(PluginCall call) {
+        Context context = getContext();
+        batchExecutor.execute(() -> {
+            MetricsRegistry.dump(context);
+            try {
+                call.resolve(JSObject.fromJSONObject(MetricsRegistry.toJson()));
+            } catch (JSONException e) {
+                call.reject("Errore lettura metriche: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Ricerca full-text sull'indice nativo: una pagina di id per rilevanza e il totale.
+     * La WebView risolve gli id sui promemoria che ha già in memoria.
+     */
+    @PluginMethod
+    public void search(PluginCall call) {
+        String query = call.getString("query", "");
+        int offset = Math.max(0, call.getInt("offset", 0));
+        int limit = Math.max(1, Math.min(call.getInt("limit", DEFAULT_SEARCH_LIMIT), MAX_SEARCH_LIMIT));
+
+        long start = MetricsRegistry.beginSection("search_query");
+        try {
+            ReminderSearchIndex.Result result = ReminderStore.getInstance(getContext())
+                .getSearchIndex().search(query, offset, limit);
+
+            JSObject ret = new JSObject();
+            ret.put("ids", new JSArray(result.ids));
+            ret.put("total", result.total);
+            call.resolve(ret);
+        } catch (Exception e) {
+            Log.e(TAG, "Error searching reminders", e);
+            call.reject("Errore ricerca: " + e.getMessage());
+        } finally {
+            MetricsRegistry.endSection(MetricsRegistry.histogram("search.query", TimeUnit.MICROSECONDS), start);
+        }
+    }
+
+    /**
+     * Statistiche aggregate in una sola chiamata: totali, per categoria, per priorità e finestre temporali
+     */
+    @PluginMethod
+    public void getStats(PluginCall call) {
+        try {
+            JSONObject stats = ReminderStore.getInstance(getContext()).getStats().toJson();
+            call.resolve(JSObject.fromJSONObject(stats));
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading stats", e);
+            call.reject("Errore lettura statistiche: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Promemoria aperti con scadenza in [from, to) (epoch millis), in ordine di scadenza:
+     * ricerca binaria sull'agenda nativa, la stessa usata da widget e coda allarmi
+     */
+    @PluginMethod
+    public void getAgenda(PluginCall call) {
+        long from = call.getLong("from", Long.MIN_VALUE);
+        long to = call.getLong("to", Long.MAX_VALUE);
+        int offset = Math.max(0, call.getInt("offset", 0));
+        int limit = Math.max(1, Math.min(call.getInt("limit", MAX_AGENDA_LIMIT), MAX_AGENDA_LIMIT));
+
+        long start = MetricsRegistry.beginSection("agenda_query");
+        try {
+            AgendaIndex agenda = ReminderStore.getInstance(getContext()).getAgenda();
+            JSArray items = new JSArray();
+            for (String id : agenda.range(from, to, offset, limit)) {
+                JSObject item = new JSObject();
+                item.put("id", id);
+                item.put("dueAt", agenda.dueAt(id));
+                item.put("hasTime", agenda.hasTime(id));
+                items.put(item);
+            }
+
+            JSObject ret = new JSObject();
+            ret.put("items", items);
+            ret.put("total", agenda.count(from, to));
+            call.resolve(ret);
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading agenda", e);
+            call.reject("Errore lettura agenda: " + e.getMessage());
+        } finally {
+            MetricsRegistry.endSection(MetricsRegistry.histogram("agenda.query", TimeUnit.MICROSECONDS), start);
+        }
+    }
+
+    private void afterSync(ReminderStore store) {
+        // Le azioni dalle notifiche non ancora recuperate dalla WebView restano valide
+        ActionJournal.reapplyPending(getContext(), store);
+        // Il widget legge solo lo snapshot: ricalcolalo ora che i dati sono cambiati
+        WidgetSnapshot.publish(getContext());
+    }
+
+    /**
+     * Azioni fatte dalle notifiche dopo il cursore (offset nel journal).
+     * Il cursore ricevuto conferma il salvataggio delle azioni precedenti.
+     */
+    @PluginMethod
+    public void getActionsSince(PluginCall call) {
+        long cursor = call.getLong("cursor", 0L);
+        
+        Context context = getContext();
+        batchExecutor.execute(() -> {
+            ActionJournal.Batch batch = ActionJournal.readSince(context, cursor);
+            
+            JSArray entries = new JSArray();
+            for (ActionJournal.Entry entry : batch.entries) {
+                JSObject item = new JSObject();
+                item.put("type", entry.type);
+                item.put("reminderId", entry.reminderId);
+                item.put("at", entry.at);
+                if (entry.until > 0) {
+                    item.put("until", entry.until);
+                }
+                entries.put(item);
+            }
+            
+            JSObject ret = new JSObject();
+            ret.put("entries", entries);
+            ret.put("cursor", batch.cursor);
+            call.resolve(ret);
+        });
     }
     
     @PluginMethod
     public void test(PluginCall call) {
         // Mostra notifica subito per test
         Context context = getContext();
-        int notificationId = (int) System.currentTimeMillis() % 1000000;
+        // Id fisso: un solo blocco riusato, liberato al prossimo sync completo
+        String testId = TEST_REMINDER_ID;
+        int notificationId = NotificationIds.get(context, testId);
         
         NotificationHelper.showReminderNotification(
             context,
             notificationId,
-            "test-" + System.currentTimeMillis(),
+            testId,
             "Test Promemoria",
             "I pulsanti NON aprono l'app!"
         );
@@ -1,17 +1,11 @@
 package com.promemoria.app;
 
-import android.app.AlarmManager;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.os.Build;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import java.time.ZoneId;
 
 /**
  * Receiver per gestire le azioni delle notifiche SENZA aprire l'app
@@ -36,25 +30,26 @@ public class NotificationActionReceiver extends BroadcastReceiver {
         
         Log.d(TAG, "Action received: " + action + ", notificationId: " + notificationId + ", reminderId: " + reminderId);
         
-        // STOP AlarmService se attivo
-        Intent stopServiceIntent = new Intent(context, AlarmService.class);
-        stopServiceIntent.setAction(AlarmService.ACTION_STOP);
-        context.stopService(stopServiceIntent);
+        // Togli il promemoria dalla sessione sveglia (si ferma quando non resta nulla)
+        AlarmService.dismiss(context, reminderId, notificationId);
         
-        // Cancella la notifica corrente
-        NotificationManager notificationManager = 
-            (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-        if (notificationManager != null && notificationId != -1) {
-            notificationManager.cancel(notificationId);
+        // Cancella la notifica corrente, tenendo allineati coda e riepilogo del dispatcher
+        if (notificationId != -1) {
+            NotificationDispatcher.cancel(context, notificationId);
             Log.d(TAG, "Notification cancelled: " + notificationId);
         }
         
+        // Store e AlarmManager fuori dal main thread
+        ReceiverExecutor.run(this, action, () -> handleAction(context, action, reminderId, title, body));
+    }
+    
+    private void handleAction(Context context, String action, String reminderId, String title, String body) {
         // Cancella eventuali alarm pendenti per questo reminder
         cancelPendingAlarms(context, reminderId);
         
         if (ACTION_SNOOZE.equals(action)) {
             // Verifica se il promemoria esiste ancora
-            if (!reminderExists(context, reminderId)) {
+            if (!ReminderStore.isActive(context, reminderId)) {
                 Log.d(TAG, "Reminder no longer exists, skipping snooze: " + reminderId);
                 return;
             }
@@ -63,119 +58,64 @@ public class NotificationActionReceiver extends BroadcastReceiver {
             scheduleSnoozeNotification(context, reminderId, title, body);
         } else if (ACTION_COMPLETE.equals(action)) {
             Log.d(TAG, "Notification marked as complete");
-            // La notifica è già cancellata, non fare altro
+            markComplete(context, reminderId);
         }
     }
     
     /**
-     * Cancella eventuali alarm pendenti per questo reminder
+     * Completa il promemoria senza aprire l'app: journal durevole, store nativo e widget.
+     * La WebView recupera l'azione dal journal alla ripresa.
      */
-    private void cancelPendingAlarms(Context context, String reminderId) {
-        if (reminderId == null) return;
+    private void markComplete(Context context, String reminderId) {
+        if (reminderId == null || ReminderStore.isTestId(reminderId)) return;
         
-        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        if (alarmManager == null) return;
+        ActionJournal.append(context, ActionJournal.TYPE_COMPLETE, reminderId, 0);
         
-        // Usa un ID consistente basato sul reminderId
-        int requestCode = getConsistentId(reminderId);
-        
-        Intent intent = new Intent(context, SnoozeAlarmReceiver.class);
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(
-            context,
-            requestCode,
-            intent,
-            PendingIntent.FLAG_NO_CREATE | PendingIntent.FLAG_IMMUTABLE
-        );
-        
-        if (pendingIntent != null) {
-            alarmManager.cancel(pendingIntent);
-            pendingIntent.cancel();
-            Log.d(TAG, "Cancelled pending alarm for: " + reminderId);
+        ReminderStore store = ReminderStore.getInstance(context);
+        if (store.getRecurrenceRule(reminderId, ZoneId.systemDefault()) == null) {
+            store.setCompleted(reminderId, true);
+            AlarmQueue.remove(context, reminderId);
         }
+        // Un ricorrente resta aperto con lo stesso id, già riarmato sulla prossima occorrenza
+        // dopo lo scatto: la WebView sposta solo l'occorrenza completata nello storico
+        
+        WidgetSnapshot.publish(context);
+        NativeEventBus.publish(NativeEventBus.TYPE_COMPLETED, reminderId);
     }
     
     /**
-     * Verifica se il promemoria esiste ancora nel localStorage
+     * Cancella eventuali snooze pendenti per questo reminder
      */
-    private boolean reminderExists(Context context, String reminderId) {
-        if (reminderId == null || reminderId.isEmpty() || reminderId.startsWith("test-")) {
-            return true; // Permetti test notifications
-        }
-        
-        try {
-            SharedPreferences prefs = context.getSharedPreferences("CapacitorStorage", Context.MODE_PRIVATE);
-            String remindersJson = prefs.getString("reminders", "[]");
-            JSONArray reminders = new JSONArray(remindersJson);
-            
-            for (int i = 0; i < reminders.length(); i++) {
-                JSONObject r = reminders.getJSONObject(i);
-                if (reminderId.equals(r.optString("id", ""))) {
-                    // Controlla anche che non sia completato
-                    return !r.optBoolean("isCompleted", false);
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error checking reminder existence", e);
-            return true; // In caso di errore, permetti la notifica
-        }
+    private void cancelPendingAlarms(Context context, String reminderId) {
+        if (reminderId == null) return;
         
-        return false;
+        AlarmQueue.remove(context, reminderId, AlarmQueue.KIND_SNOOZE);
+        Log.d(TAG, "Cancelled pending snooze for: " + reminderId);
     }
     
     private void scheduleSnoozeNotification(Context context, String reminderId, String title, String body) {
-        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        if (alarmManager == null) return;
-        
-        // Usa ID consistente per evitare duplicati
-        int notificationId = getConsistentId(reminderId);
-        int requestCode = notificationId; // Stesso ID per sovrascrivere
-        
-        // Crea intent per la notifica snoozata
-        Intent notifyIntent = new Intent(context, SnoozeAlarmReceiver.class);
-        notifyIntent.putExtra(EXTRA_REMINDER_ID, reminderId);
-        notifyIntent.putExtra(EXTRA_TITLE, cleanTitle(title));
-        notifyIntent.putExtra(EXTRA_BODY, body != null ? body : "");
-        notifyIntent.putExtra(EXTRA_NOTIFICATION_ID, notificationId);
-        
-        // FLAG_UPDATE_CURRENT per sovrascrivere alarm esistenti
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(
-            context,
-            requestCode,
-            notifyIntent,
-            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-        );
+        if (reminderId == null) return;
         
         // 5 minuti da ora
         long triggerTime = System.currentTimeMillis() + (5 * 60 * 1000);
         
         try {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                alarmManager.setExactAndAllowWhileIdle(
-                    AlarmManager.RTC_WAKEUP,
-                    triggerTime,
-                    pendingIntent
-                );
-            } else {
-                alarmManager.setExact(
-                    AlarmManager.RTC_WAKEUP,
-                    triggerTime,
-                    pendingIntent
-                );
-            }
-            Log.d(TAG, "Snooze alarm set for 5 minutes, id: " + notificationId);
+            // In coda come gli altri scatti: sostituisce uno snooze già pendente
+            AlarmQueue.enqueue(context, new AlarmQueue.Entry(
+                reminderId,
+                AlarmQueue.KIND_SNOOZE,
+                triggerTime,
+                cleanTitle(title),
+                body != null ? body : ""
+            ));
+            ActionJournal.append(context, ActionJournal.TYPE_SNOOZE, reminderId, triggerTime);
+            NativeEventBus.publish(NativeEventBus.TYPE_SNOOZED, reminderId);
+            Log.d(TAG, "Snooze queued for 5 minutes: " + reminderId);
         } catch (Exception e) {
             Log.e(TAG, "Error setting snooze alarm", e);
         }
     }
     
-    /**
-     * Genera un ID consistente basato sul reminderId
-     */
-    private int getConsistentId(String reminderId) {
-        if (reminderId == null) return (int) System.currentTimeMillis() % 1000000;
-        return Math.abs(reminderId.hashCode()) % 1000000;
-    }
-    
     /**
      * Rimuove emoji dal titolo per evitare accumulo
      */
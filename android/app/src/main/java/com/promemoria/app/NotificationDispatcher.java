@@ -0,0 +1,430 @@
+package com.promemoria.app;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.service.notification.StatusBarNotification;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coda unica per le notifiche dei promemoria.
+ * Fuori da una raffica la notifica viene pubblicata subito, sul thread del chiamante (dentro il
+ * broadcast); quelle che seguono entro COALESCE_MS vengono raccolte in un gruppo con riepilogo
+ * InboxStyle, e un token bucket le tiene sotto il limite di notify() per app imposto da Android.
+ * Oltre MAX_ACTIVE notifiche visibili (il sistema ne mostra circa 50 per app) i promemoria
+ * confluiscono nel riepilogo invece di essere scartati. Finché c'è arretrato un wakelock
+ * tiene sveglio il dispositivo.
+ */
+public final class NotificationDispatcher {
+
+    private static final String TAG = "NotificationDispatcher";
+
+    public static final String GROUP_KEY = "com.promemoria.app.REMINDERS";
+
+    // Riepilogo del gruppo, fuori dall'intervallo dei blocchi di NotificationIds
+    private static final int SUMMARY_ID = Integer.MAX_VALUE - 2;
+
+    private static final long COALESCE_MS = 400;
+
+    // Android accetta circa 5 notify/s per pacchetto: si resta sotto
+    private static final double TOKENS_PER_SECOND = 4;
+    private static final int BUCKET_CAPACITY = 4;
+
+    // Sotto il tetto di circa 50 notifiche per app, oltre il quale il sistema le scarta
+    private static final int MAX_ACTIVE = 40;
+    // Oltre questo arretrato i post più vecchi confluiscono subito nel riepilogo
+    private static final int MAX_PENDING = 200;
+    private static final int SUMMARY_LINES = 6;
+
+    // Solo rete di sicurezza: il wakelock viene rilasciato appena l'arretrato è smaltito
+    private static final long WAKELOCK_TIMEOUT_MS = 10 * 60_000;
+    private static final long NO_MANAGER_RETRY_MS = 5_000;
+
+    private static Handler handler;
+
+    // Stato protetto dal lock della classe
+    private static final LinkedHashMap<Integer, NotificationCompat.Builder> pending = new LinkedHashMap<>();
+    private static final HashMap<Integer, Long> queuedAt = new HashMap<>();
+    // Promemoria mostrati solo nel riepilogo: ID notifica → titolo
+    private static final LinkedHashMap<Integer, CharSequence> folded = new LinkedHashMap<>();
+    private static boolean flushScheduled = false;
+    private static boolean summaryDirty = false;
+    private static boolean summaryShown = false;
+    private static long lastFlushAt = -COALESCE_MS;
+    private static double tokens = BUCKET_CAPACITY;
+    private static long lastRefill = SystemClock.elapsedRealtime();
+    private static PowerManager.WakeLock wakeLock;
+
+    // Contatori in MetricsRegistry
+    private static final MetricsRegistry.Counter posted = MetricsRegistry.counter("notify.posted"); // notify() riusciti
+    private static final MetricsRegistry.Counter merged = MetricsRegistry.counter("notify.merged"); // stesso ID o raccolti in un gruppo
+    private static final MetricsRegistry.Counter deferred = MetricsRegistry.counter("notify.deferred"); // rimandati dal token bucket
+    private static final MetricsRegistry.Counter overflow = MetricsRegistry.counter("notify.folded"); // mostrati solo nel riepilogo
+    private static final MetricsRegistry.Counter failed = MetricsRegistry.counter("notify.failed"); // notify() fallito (poi nel riepilogo)
+    private static final MetricsRegistry.Counter summaries = MetricsRegistry.counter("notify.summaries"); // riepiloghi pubblicati
+
+    // Da post() a notify(), e durata della sola notify()
+    private static final MetricsRegistry.Histogram delay = MetricsRegistry.histogram("notify.delay");
+    private static final MetricsRegistry.Histogram call = MetricsRegistry.histogram("notify.call", TimeUnit.MICROSECONDS);
+
+    private NotificationDispatcher() {}
+
+    /**
+     * Pubblica una notifica: subito se non è in corso una raffica, altrimenti al prossimo giro della coda
+     */
+    public static void post(Context context, int notificationId, NotificationCompat.Builder builder) {
+        Context appContext = context.getApplicationContext();
+        synchronized (NotificationDispatcher.class) {
+            // Stesso ID ancora in coda: vale solo l'ultimo
+            if (pending.remove(notificationId) != null) {
+                merged.inc();
+            }
+            pending.put(notificationId, builder);
+            // Il ritardo si misura dalla prima richiesta, anche se poi sostituita
+            if (!queuedAt.containsKey(notificationId)) {
+                queuedAt.put(notificationId, SystemClock.elapsedRealtime());
+            }
+            // Di nuovo in primo piano se era solo nel riepilogo
+            if (folded.remove(notificationId) != null) {
+                summaryDirty = true;
+            }
+
+            if (pending.size() > MAX_PENDING) {
+                Iterator<Map.Entry<Integer, NotificationCompat.Builder>> oldest = pending.entrySet().iterator();
+                Map.Entry<Integer, NotificationCompat.Builder> entry = oldest.next();
+                oldest.remove();
+                fold(entry.getKey(), entry.getValue());
+                Log.w(TAG, "Dispatch backlog full, notification " + entry.getKey() + " folded into the summary");
+            }
+
+            if (!flushScheduled && SystemClock.elapsedRealtime() - lastFlushAt >= COALESCE_MS) {
+                flush(appContext);
+            } else {
+                scheduleFlush(appContext, COALESCE_MS);
+            }
+            updateWakeLock(appContext);
+        }
+    }
+
+    /**
+     * Cancella una notifica (anche se ancora in coda o solo nel riepilogo) e riallinea il riepilogo
+     */
+    public static void cancel(Context context, int notificationId) {
+        cancelAll(context, Collections.singletonList(notificationId));
+    }
+
+    /**
+     * Come cancel() per molte notifiche: le notifiche attive si leggono una volta sola
+     * (getActiveNotifications è una chiamata binder), non una per ID
+     */
+    public static void cancelAll(Context context, Collection<Integer> notificationIds) {
+        if (notificationIds.isEmpty()) return;
+        Context appContext = context.getApplicationContext();
+        NotificationManager nm = (NotificationManager) appContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (nm != null) {
+            for (int notificationId : notificationIds) {
+                nm.cancel(notificationId);
+            }
+        }
+        synchronized (NotificationDispatcher.class) {
+            for (int notificationId : notificationIds) {
+                pending.remove(notificationId);
+                queuedAt.remove(notificationId);
+                if (folded.remove(notificationId) != null) {
+                    summaryDirty = true;
+                }
+            }
+            if (nm != null && folded.isEmpty() && activeChildren(nm).size() < 2) {
+                nm.cancel(SUMMARY_ID);
+                summaryShown = false;
+                summaryDirty = false;
+            } else if (summaryDirty) {
+                scheduleFlush(appContext, COALESCE_MS);
+            }
+            updateWakeLock(appContext);
+        }
+    }
+
+    private static synchronized Handler handler() {
+        if (handler == null) {
+            HandlerThread thread = new HandlerThread("NotificationDispatch");
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler;
+    }
+
+    private static void scheduleFlush(Context context, long delay) {
+        if (flushScheduled) return;
+        flushScheduled = true;
+        handler().postDelayed(() -> {
+            synchronized (NotificationDispatcher.class) {
+                flushScheduled = false;
+                flush(context);
+                updateWakeLock(context);
+            }
+        }, delay);
+    }
+
+    private static void flush(Context context) {
+        lastFlushAt = SystemClock.elapsedRealtime();
+        NotificationManager nm = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (nm == null) {
+            // Niente viene scartato: si riprova più tardi, col wakelock ancora attivo
+            Log.w(TAG, "NotificationManager unavailable, " + pending.size() + " notifications kept for retry");
+            scheduleFlush(context, NO_MANAGER_RETRY_MS);
+            return;
+        }
+
+        // Riepilogo chiuso dall'utente: con lui sono state chiuse anche le notifiche raccolte
+        if (summaryShown && !folded.isEmpty() && !isSummaryActive(nm)) {
+            folded.clear();
+            summaryShown = false;
+        }
+
+        refillTokens();
+        List<StatusBarNotification> active = activeChildren(nm);
+        Set<Integer> activeIds = new HashSet<>();
+        for (StatusBarNotification sbn : active) {
+            activeIds.add(sbn.getId());
+        }
+
+        // Posti ancora liberi sotto il tetto: il resto confluisce nel riepilogo
+        int room = MAX_ACTIVE - active.size();
+        Iterator<Map.Entry<Integer, NotificationCompat.Builder>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, NotificationCompat.Builder> entry = it.next();
+            // Sostituire una notifica visibile non occupa un nuovo posto
+            if (activeIds.contains(entry.getKey())) continue;
+            if (room > 0) {
+                room--;
+            } else {
+                it.remove();
+                fold(entry.getKey(), entry.getValue());
+            }
+        }
+
+        boolean grouped = active.size() + pending.size() + folded.size() >= 2;
+
+        // Con un gruppo il riepilogo consuma un token ma sostituisce N allerte
+        boolean postSummary = grouped && tokens >= 1;
+        if (postSummary) tokens--;
+
+        int postedNow = 0;
+        List<CharSequence> titles = new ArrayList<>();
+        List<Integer> sent = new ArrayList<>();
+        List<Integer> failedIds = new ArrayList<>();
+        for (Integer id : pending.keySet()) {
+            if (tokens < 1) break;
+            NotificationCompat.Builder builder = pending.get(id).setGroup(GROUP_KEY);
+            if (grouped) {
+                // Durante una raffica suona solo il riepilogo
+                builder.setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_SUMMARY);
+            }
+            try {
+                Notification notification = builder.build();
+                long start = MetricsRegistry.beginSection("notify");
+                try {
+                    nm.notify(id, notification);
+                } finally {
+                    MetricsRegistry.endSection(call, start);
+                }
+                Long since = queuedAt.get(id);
+                if (since != null) delay.record(SystemClock.elapsedRealtime() - since);
+                titles.add(notification.extras.getCharSequence(Notification.EXTRA_TITLE));
+                postedNow++;
+            } catch (Exception e) {
+                Log.e(TAG, "Error posting notification " + id + ", folded into the summary", e);
+                failed.inc();
+                failedIds.add(id);
+            }
+            tokens--;
+            sent.add(id);
+        }
+        for (Integer id : sent) {
+            NotificationCompat.Builder builder = pending.remove(id);
+            queuedAt.remove(id);
+            if (failedIds.contains(id)) fold(id, builder);
+        }
+
+        if (grouped && (postedNow > 0 || summaryDirty)) {
+            if (postSummary) {
+                // Le notifiche appena inviate potrebbero non risultare ancora attive: si uniscono a mano
+                for (StatusBarNotification sbn : active) {
+                    if (!sent.contains(sbn.getId())) {
+                        titles.add(sbn.getNotification().extras.getCharSequence(Notification.EXTRA_TITLE));
+                    }
+                }
+                titles.addAll(folded.values());
+                postSummary(context, nm, titles, titles.size() + pending.size());
+                summaryDirty = false;
+            } else {
+                // Nessun token per il riepilogo: va aggiornato al prossimo giro
+                summaryDirty = true;
+            }
+        } else {
+            // Token riservato ma riepilogo non necessario
+            if (postSummary) tokens++;
+            // Da solo un promemoria non fa gruppo: nessun riepilogo da aggiornare
+            if (!grouped) summaryDirty = false;
+        }
+
+        posted.add(postedNow);
+        if (grouped && postedNow > 1) merged.add(postedNow - 1);
+        deferred.add(pending.size());
+
+        if (!pending.isEmpty() || summaryDirty) {
+            // Arretrato: si riprova appena il bucket ha di nuovo un token
+            long wait = (long) Math.ceil(1000 / TOKENS_PER_SECOND);
+            Log.d(TAG, "Rate limited, " + pending.size() + " notifications deferred by " + wait + " ms");
+            scheduleFlush(context, wait);
+        }
+    }
+
+    // Il promemoria resta visibile come riga (e conteggio) del riepilogo
+    private static void fold(int notificationId, NotificationCompat.Builder builder) {
+        queuedAt.remove(notificationId);
+        CharSequence title = null;
+        try {
+            title = builder.build().extras.getCharSequence(Notification.EXTRA_TITLE);
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading title of notification " + notificationId, e);
+        }
+        folded.put(notificationId, title);
+        summaryDirty = true;
+        overflow.inc();
+    }
+
+    private static void postSummary(Context context, NotificationManager nm, List<CharSequence> titles, int count) {
+        if (count < 2) return;
+
+        String title = count + " promemoria";
+        NotificationCompat.InboxStyle inbox = new NotificationCompat.InboxStyle().setBigContentTitle(title);
+        int lines = 0;
+        for (CharSequence line : titles) {
+            if (lines == SUMMARY_LINES) break;
+            if (line != null) {
+                inbox.addLine(line);
+                lines++;
+            }
+        }
+        if (count > lines) {
+            inbox.setSummaryText("+" + (count - lines) + " altri");
+        }
+
+        // I promemoria raccolti nel riepilogo non hanno una notifica propria: si apre l'app
+        Intent openIntent = new Intent(context, MainActivity.class);
+        openIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        PendingIntent openPending = PendingIntent.getActivity(context, SUMMARY_ID, openIntent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
+        Notification summary = new NotificationCompat.Builder(context, NotificationHelper.CHANNEL_ID)
+            .setSmallIcon(R.drawable.ic_stat_notification)
+            .setContentTitle("⏰ " + title)
+            .setContentText("Tocca per vedere i promemoria")
+            .setPriority(NotificationCompat.PRIORITY_HIGH)
+            .setCategory(NotificationCompat.CATEGORY_REMINDER)
+            .setContentIntent(openPending)
+            .setStyle(inbox)
+            .setNumber(count)
+            .setGroup(GROUP_KEY)
+            .setGroupSummary(true)
+            .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_SUMMARY)
+            .build();
+        nm.notify(SUMMARY_ID, summary);
+        summaryShown = true;
+        summaries.inc();
+    }
+
+    // Notifiche del gruppo già visibili, escluso il riepilogo
+    private static List<StatusBarNotification> activeChildren(NotificationManager nm) {
+        List<StatusBarNotification> children = new ArrayList<>();
+        try {
+            for (StatusBarNotification sbn : nm.getActiveNotifications()) {
+                if (sbn.getId() != SUMMARY_ID && GROUP_KEY.equals(sbn.getNotification().getGroup())) {
+                    children.add(sbn);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading active notifications", e);
+        }
+        return children;
+    }
+
+    private static boolean isSummaryActive(NotificationManager nm) {
+        try {
+            for (StatusBarNotification sbn : nm.getActiveNotifications()) {
+                if (sbn.getId() == SUMMARY_ID) return true;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading active notifications", e);
+            return true;
+        }
+        return false;
+    }
+
+    // Sveglio finché c'è arretrato o un riepilogo da aggiornare
+    private static void updateWakeLock(Context context) {
+        boolean busy = !pending.isEmpty() || summaryDirty;
+        if (busy && (wakeLock == null || !wakeLock.isHeld())) {
+            if (wakeLock == null) {
+                PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+                if (pm == null) return;
+                wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "Promemoria:NotificationDispatch");
+                wakeLock.setReferenceCounted(false);
+            }
+            wakeLock.acquire(WAKELOCK_TIMEOUT_MS);
+        } else if (!busy && wakeLock != null) {
+            if (wakeLock.isHeld()) wakeLock.release();
+            wakeLock = null;
+        }
+    }
+
+    private static void refillTokens() {
+        long now = SystemClock.elapsedRealtime();
+        tokens = Math.min(BUCKET_CAPACITY, tokens + (now - lastRefill) * TOKENS_PER_SECOND / 1000.0);
+        lastRefill = now;
+    }
+
+    /**
+     * Solo per i test: niente arretrato, bucket pieno, nessun riepilogo né wakelock
+     */
+    static synchronized void resetForTest() {
+        // Nessun flush del test precedente sullo stato appena azzerato, e il thread termina
+        if (handler != null) {
+            handler.removeCallbacksAndMessages(null);
+            handler.getLooper().quit();
+            handler = null;
+        }
+        pending.clear();
+        queuedAt.clear();
+        folded.clear();
+        flushScheduled = false;
+        summaryDirty = false;
+        summaryShown = false;
+        lastFlushAt = -COALESCE_MS;
+        tokens = BUCKET_CAPACITY;
+        lastRefill = SystemClock.elapsedRealtime();
+        wakeLock = null;
+    }
+}
@@ -16,7 +16,7 @@ import androidx.core.app.NotificationCompat;
 public class NotificationHelper {
     
     private static final String TAG = "NotificationHelper";
-    private static final String CHANNEL_ID = "promemoria-alarm";
+    static final String CHANNEL_ID = "promemoria-alarm";
     
     /**
      * Mostra una notifica con i pulsanti "Fatto" e "5 min"
@@ -43,7 +43,7 @@ public class NotificationHelper {
         snoozeIntent.putExtra(NotificationActionReceiver.EXTRA_BODY, body);
         PendingIntent snoozePending = PendingIntent.getBroadcast(
             context, 
-            notificationId + 1, 
+            NotificationIds.requestCode(notificationId, NotificationIds.SLOT_SNOOZE_ACTION), 
             snoozeIntent, 
             PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
         );
@@ -55,7 +55,7 @@ public class NotificationHelper {
         completeIntent.putExtra(NotificationActionReceiver.EXTRA_REMINDER_ID, reminderId);
         PendingIntent completePending = PendingIntent.getBroadcast(
             context, 
-            notificationId + 2, 
+            NotificationIds.requestCode(notificationId, NotificationIds.SLOT_COMPLETE_ACTION), 
             completeIntent, 
             PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
         );
@@ -84,24 +84,16 @@ public class NotificationHelper {
             .addAction(0, "✓ Fatto", completePending) // NON apre l'app
             .addAction(0, "⏰ 5 min", snoozePending); // NON apre l'app
         
-        // Mostra la notifica
-        NotificationManager notificationManager = 
-            (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-        if (notificationManager != null) {
-            notificationManager.notify(notificationId, builder.build());
-            Log.d(TAG, "Notification shown with id: " + notificationId);
-        }
+        // Mostra la notifica (raggruppata e limitata dal dispatcher)
+        NotificationDispatcher.post(context, notificationId, builder);
+        Log.d(TAG, "Notification queued with id: " + notificationId);
     }
     
     /**
      * Cancella una notifica
      */
     public static void cancelNotification(Context context, int notificationId) {
-        NotificationManager notificationManager = 
-            (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-        if (notificationManager != null) {
-            notificationManager.cancel(notificationId);
-        }
+        NotificationDispatcher.cancel(context, notificationId);
     }
     
     private static void createNotificationChannel(Context context) {
@@ -0,0 +1,260 @@
+package com.promemoria.app;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Allocatore persistente di ID notifica e request code.
+ * Ogni promemoria riceve un blocco di BLOCK_SIZE interi consecutivi, stabile nel tempo:
+ * niente più collisioni tra hash vicini che si sovrascrivono i PendingIntent.
+ * I blocchi si assegnano in gruppo nella transazione di chi accoda e si liberano
+ * quando il promemoria viene eliminato.
+ */
+public class NotificationIds {
+
+    private static final String TAG = "NotificationIds";
+
+    public static final int BLOCK_SIZE = 8;
+
+    // Sopra il vecchio intervallo hash % 1000000, così non si pestano alarm già programmati
+    private static final int FIRST_BASE = 1 << 20;
+
+    // Slot all'interno del blocco
+    public static final int SLOT_NOTIFICATION = 0; // ID notifica, alarm principale, apertura app
+    public static final int SLOT_SNOOZE_ACTION = 1; // Pulsante "5 min"
+    public static final int SLOT_COMPLETE_ACTION = 2; // Pulsante "Fatto"
+    public static final int SLOT_FULL_SCREEN = 3; // Full-screen intent della sveglia
+    public static final int SLOT_ALARM_STOP = 4; // "Fatto" della sveglia
+    public static final int SLOT_ALARM_SNOOZE = 5; // "5 min" della sveglia
+
+    // Prossimo base libero, salvato in sync_state
+    private static final String KEY_NEXT_BASE = "next_notification_base";
+
+    // Parametri per query IN (SQLite ne accetta almeno 999)
+    private static final int MAX_QUERY_ARGS = 500;
+
+    private static final IdBlockCache cache = new IdBlockCache();
+    private static int nextBase = -1;
+
+    /**
+     * ID base del promemoria; lo alloca e lo salva al primo utilizzo
+     */
+    public static int get(Context context, String reminderId) {
+        if (reminderId == null) {
+            // Nessun promemoria associato: ID transitorio fuori dai blocchi
+            return (int) (System.currentTimeMillis() % 1000000);
+        }
+
+        int base = cache.get(reminderId);
+        if (base != -1) return base;
+
+        SQLiteDatabase db = ReminderStore.getInstance(context).getWritableDatabase();
+        Map<String, Integer> allocated;
+        db.beginTransaction();
+        try {
+            allocated = allocateAll(db, Collections.singletonList(reminderId));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        remember(allocated);
+        return allocated.get(reminderId);
+    }
+
+    /**
+     * ID base di molti promemoria dentro la transazione (di scrittura) del chiamante:
+     * una lettura per quelli non in cache e gli inserimenti dei nuovi, un solo fsync al commit.
+     * Dopo il commit il chiamante passa il risultato a remember().
+     */
+    static Map<String, Integer> allocateAll(SQLiteDatabase db, Collection<String> reminderIds) {
+        Map<String, Integer> bases = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String reminderId : reminderIds) {
+            if (reminderId == null) continue;
+            int base = cache.get(reminderId);
+            if (base != -1) {
+                bases.put(reminderId, base);
+            } else {
+                missing.add(reminderId);
+            }
+        }
+        if (missing.isEmpty()) return bases;
+
+        synchronized (NotificationIds.class) {
+            bases.putAll(lookup(db, new ArrayList<>(missing)));
+            missing.removeAll(bases.keySet());
+            if (missing.isEmpty()) return bases;
+
+            if (nextBase == -1) {
+                nextBase = loadNextBase(db);
+            }
+            try (SQLiteStatement insert = db.compileStatement("INSERT INTO " + ReminderStore.TABLE_NOTIFICATION_IDS
+                    + " (" + ReminderStore.COL_REMINDER_ID + ", " + ReminderStore.COL_BASE + ") VALUES (?, ?)")) {
+                for (String reminderId : missing) {
+                    insert.bindString(1, reminderId);
+                    insert.bindLong(2, nextBase);
+                    insert.executeInsert();
+                    bases.put(reminderId, nextBase);
+                    nextBase += BLOCK_SIZE;
+                }
+            }
+            // I blocchi liberati non si riusano: il prossimo base sopravvive anche alle delete
+            ContentValues values = new ContentValues();
+            values.put(ReminderStore.COL_KEY, KEY_NEXT_BASE);
+            values.put(ReminderStore.COL_VALUE, nextBase);
+            db.insertWithOnConflict(ReminderStore.TABLE_SYNC_STATE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            Log.d(TAG, "Allocated " + missing.size() + " id blocks");
+        }
+        return bases;
+    }
+
+    /**
+     * Mette in cache gli ID assegnati da allocateAll, a transazione confermata
+     */
+    static void remember(Map<String, Integer> bases) {
+        cache.putAll(bases);
+    }
+
+    /**
+     * Libera i blocchi dei promemoria eliminati, dentro la transazione del chiamante.
+     * Dopo il commit il chiamante passa il risultato a forget().
+     */
+    static Map<String, Integer> releaseAll(SQLiteDatabase db, Collection<String> reminderIds) {
+        List<String> ids = new ArrayList<>(reminderIds);
+        Map<String, Integer> released = lookup(db, ids);
+        for (String reminderId : released.keySet()) {
+            db.delete(ReminderStore.TABLE_NOTIFICATION_IDS,
+                ReminderStore.COL_REMINDER_ID + " = ?", new String[]{reminderId});
+        }
+        return released;
+    }
+
+    /**
+     * Blocchi di promemoria che non esistono più e non hanno scatti in coda (es. quelli di test),
+     * dentro la transazione del chiamante; come releaseAll
+     */
+    static Map<String, Integer> releaseOrphans(SQLiteDatabase db) {
+        List<String> orphans = new ArrayList<>();
+        try (Cursor c = db.rawQuery("SELECT " + ReminderStore.COL_REMINDER_ID
+                + " FROM " + ReminderStore.TABLE_NOTIFICATION_IDS
+                + " WHERE " + ReminderStore.COL_REMINDER_ID + " NOT IN (SELECT " + ReminderStore.COL_ID
+                + " FROM " + ReminderStore.TABLE_REMINDERS + ")"
+                + " AND " + ReminderStore.COL_REMINDER_ID + " NOT IN (SELECT " + ReminderStore.COL_REMINDER_ID
+                + " FROM " + ReminderStore.TABLE_ALARM_QUEUE + ")", null)) {
+            while (c.moveToNext()) {
+                orphans.add(c.getString(0));
+            }
+        }
+        return orphans.isEmpty() ? Collections.emptyMap() : releaseAll(db, orphans);
+    }
+
+    /**
+     * Toglie dalla cache i blocchi liberati e chiude le loro notifiche ancora visibili
+     */
+    static void forget(Context context, Map<String, Integer> released) {
+        for (Map.Entry<String, Integer> entry : released.entrySet()) {
+            cache.remove(entry.getKey());
+        }
+        // Una sola lettura delle notifiche attive per tutto il blocco
+        NotificationDispatcher.cancelAll(context, released.values());
+        if (!released.isEmpty()) {
+            Log.d(TAG, "Released " + released.size() + " id blocks");
+        }
+    }
+
+    // Base già salvati, a gruppi per restare sotto il limite di parametri di SQLite
+    private static Map<String, Integer> lookup(SQLiteDatabase db, List<String> reminderIds) {
+        Map<String, Integer> found = new HashMap<>();
+        for (int from = 0; from < reminderIds.size(); from += MAX_QUERY_ARGS) {
+            List<String> chunk = reminderIds.subList(from, Math.min(reminderIds.size(), from + MAX_QUERY_ARGS));
+            StringBuilder placeholders = new StringBuilder("?");
+            for (int i = 1; i < chunk.size(); i++) {
+                placeholders.append(",?");
+            }
+            try (Cursor c = db.query(ReminderStore.TABLE_NOTIFICATION_IDS,
+                    new String[]{ReminderStore.COL_REMINDER_ID, ReminderStore.COL_BASE},
+                    ReminderStore.COL_REMINDER_ID + " IN (" + placeholders + ")",
+                    chunk.toArray(new String[0]), null, null, null)) {
+                while (c.moveToNext()) {
+                    found.put(c.getString(0), c.getInt(1));
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * ID base già assegnato, oppure -1 se il promemoria non ne ha mai avuto uno
+     */
+    public static int find(Context context, String reminderId) {
+        if (reminderId == null) return -1;
+
+        int base = cache.get(reminderId);
+        if (base != -1) return base;
+
+        SQLiteDatabase db = ReminderStore.getInstance(context).getReadableDatabase();
+        try (Cursor c = db.query(ReminderStore.TABLE_NOTIFICATION_IDS,
+                new String[]{ReminderStore.COL_BASE},
+                ReminderStore.COL_REMINDER_ID + " = ?", new String[]{reminderId},
+                null, null, null)) {
+            if (c.moveToFirst()) {
+                int found = c.getInt(0);
+                cache.put(reminderId, found);
+                return found;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Request code di uno slot del blocco
+     */
+    public static int requestCode(int base, int slot) {
+        return base + slot;
+    }
+
+    /**
+     * Vecchio ID derivato dall'hash, usato prima dell'allocatore
+     */
+    static int legacyId(String reminderId) {
+        return Math.abs(reminderId.hashCode()) % 1000000;
+    }
+
+    private static int loadNextBase(SQLiteDatabase db) {
+        int next = FIRST_BASE;
+        try (Cursor c = db.rawQuery("SELECT MAX(" + ReminderStore.COL_BASE + ") FROM "
+                + ReminderStore.TABLE_NOTIFICATION_IDS, null)) {
+            if (c.moveToFirst() && !c.isNull(0)) {
+                next = c.getInt(0) + BLOCK_SIZE;
+            }
+        }
+        try (Cursor c = db.query(ReminderStore.TABLE_SYNC_STATE, new String[]{ReminderStore.COL_VALUE},
+                ReminderStore.COL_KEY + " = ?", new String[]{KEY_NEXT_BASE}, null, null, null)) {
+            if (c.moveToFirst()) {
+                next = Math.max(next, c.getInt(0));
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Solo per i test: dimentica i blocchi in cache e rilegge il prossimo base dallo store
+     */
+    static synchronized void resetForTest() {
+        cache.clear();
+        nextBase = -1;
+    }
+}
@@ -0,0 +1,100 @@
+package com.promemoria.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Impostazioni notifiche tipizzate, lette una volta e tenute in cache per tutto il processo.
+ * La cache si aggiorna da sola quando la WebView riscrive "notification-settings" o "user-name".
+ */
+public final class NotificationSettings {
+
+    private static final String TAG = "NotificationSettings";
+    private static final String PREFS_NAME = "CapacitorStorage";
+    static final String KEY_SETTINGS = "notification-settings";
+    static final String KEY_USER_NAME = "user-name";
+    static final String DEFAULT_RINGTONE = SettingsJson.DEFAULT_RINGTONE;
+
+    public final boolean alarmMode;
+    public final boolean vibrationEnabled;
+    public final String ringtone;
+    public final String userName;
+
+    private static volatile NotificationSettings cached;
+
+    // SharedPreferences tiene i listener con riferimento debole: serve un riferimento forte
+    private static SharedPreferences.OnSharedPreferenceChangeListener listener;
+
+    NotificationSettings(boolean alarmMode, boolean vibrationEnabled, String ringtone, String userName) {
+        this.alarmMode = alarmMode;
+        this.vibrationEnabled = vibrationEnabled;
+        this.ringtone = ringtone;
+        this.userName = userName;
+    }
+
+    /**
+     * Impostazioni correnti; il parsing avviene solo al primo accesso o dopo una modifica
+     */
+    public static NotificationSettings get(Context context) {
+        NotificationSettings settings = cached;
+        if (settings != null) return settings;
+
+        synchronized (NotificationSettings.class) {
+            if (cached == null) {
+                SharedPreferences prefs = context.getApplicationContext()
+                    .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+                if (listener == null) {
+                    listener = (p, key) -> {
+                        // key == null quando le preferenze vengono svuotate
+                        if (key == null || KEY_SETTINGS.equals(key) || KEY_USER_NAME.equals(key)) {
+                            cached = load(p);
+                            Log.d(TAG, "Settings reloaded");
+                        }
+                    };
+                    prefs.registerOnSharedPreferenceChangeListener(listener);
+                }
+                cached = load(prefs);
+            }
+            return cached;
+        }
+    }
+
+    private static NotificationSettings load(SharedPreferences prefs) {
+        long start = MetricsRegistry.beginSection("settings_parse");
+        try {
+            return parse(prefs.getString(KEY_SETTINGS, "{}"), prefs.getString(KEY_USER_NAME, ""));
+        } finally {
+            MetricsRegistry.endSection(
+                MetricsRegistry.histogram("settings.parse", TimeUnit.MICROSECONDS), start);
+        }
+    }
+
+    static NotificationSettings parse(String settingsJson, String userName) {
+        boolean alarmMode = false;
+        boolean vibrationEnabled = false;
+        String ringtone = DEFAULT_RINGTONE;
+
+        try {
+            SettingsJson json = SettingsJson.parse(settingsJson);
+            alarmMode = json.alarmMode;
+            vibrationEnabled = json.vibrationEnabled;
+            ringtone = json.ringtone;
+        } catch (Exception e) {
+            Log.e(TAG, "Error parsing notification settings", e);
+        }
+
+        return new NotificationSettings(alarmMode, vibrationEnabled, ringtone,
+            userName != null ? userName : "");
+    }
+
+    /**
+     * Solo per i test: si rilegge e si registra il listener sulle preferenze dell'Application corrente
+     */
+    static synchronized void resetForTest() {
+        cached = null;
+        listener = null;
+    }
+}
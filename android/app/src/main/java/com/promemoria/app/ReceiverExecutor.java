@@ -0,0 +1,112 @@
+package com.promemoria.app;
+
+import android.content.BroadcastReceiver;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Esecuzione in background del lavoro dei receiver: goAsync() più un pool piccolo e limitato.
+ * I task oltre la soglia ANR dei broadcast vengono segnalati; per ogni azione MetricsRegistry
+ * registra attesa in coda e durata di esecuzione (anche come sezione Trace).
+ */
+public final class ReceiverExecutor {
+
+    private static final String TAG = "ReceiverExecutor";
+
+    private static final int POOL_SIZE = 2;
+    private static final int QUEUE_CAPACITY = 64;
+    private static final int OVERFLOW_CAPACITY = 64;
+
+    // goAsync concede circa 10 secondi: oltre questa soglia il task viene solo segnalato.
+    // Il broadcast resta aperto finché il lavoro non termina, per non far declassare il processo
+    // a metà di una scrittura su DB o AlarmManager
+    private static final long TASK_TIMEOUT_MS = 8_000;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    // Priorità normale: qui partono notifiche e sveglie, che non devono cedere al lavoro in background.
+    // Coda piena: il task viene rifiutato e passato al thread di riserva
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+        runnable -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+            runnable.run();
+        }, "ReceiverWorker-" + threadCount.incrementAndGet()),
+        new ThreadPoolExecutor.AbortPolicy());
+
+    // Riserva per le raffiche oltre la coda, anch'essa limitata: piena anche questa,
+    // il task gira sul thread del receiver (contropressione, niente scatti persi)
+    private static final ThreadPoolExecutor overflow = new ThreadPoolExecutor(
+        1, 1, 30, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(OVERFLOW_CAPACITY),
+        runnable -> new Thread(runnable, "ReceiverOverflow"),
+        new ThreadPoolExecutor.AbortPolicy());
+
+    private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+        runnable -> new Thread(runnable, "ReceiverWatchdog"));
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+        overflow.allowCoreThreadTimeOut(true);
+    }
+
+    private ReceiverExecutor() {}
+
+    /**
+     * Da chiamare dentro onReceive: tiene vivo il broadcast con goAsync() ed esegue il task nel pool
+     */
+    public static void run(BroadcastReceiver receiver, String name, Runnable task) {
+        String action = name != null ? name : "unknown";
+        BroadcastReceiver.PendingResult result = receiver.goAsync();
+        long submittedAt = SystemClock.elapsedRealtimeNanos();
+
+        // Solo segnalazione: il broadcast si chiude quando il task finisce davvero
+        ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+            MetricsRegistry.counter("receiver." + action + ".timeouts").inc();
+            Log.w(TAG, action + " still running after " + TASK_TIMEOUT_MS + " ms");
+        }, TASK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        Runnable work = () -> {
+            long startedAt = MetricsRegistry.beginSection("receiver:" + action);
+            MetricsRegistry.histogram("receiver." + action + ".wait").recordNanos(startedAt - submittedAt);
+            try {
+                task.run();
+            } catch (Exception e) {
+                MetricsRegistry.counter("receiver." + action + ".failures").inc();
+                Log.e(TAG, "Error running " + action, e);
+            } finally {
+                timeout.cancel(false);
+                MetricsRegistry.endSection(MetricsRegistry.histogram("receiver." + action + ".run"), startedAt);
+                Log.d(TAG, action + ": wait " + TimeUnit.NANOSECONDS.toMillis(startedAt - submittedAt) + " ms, run "
+                    + TimeUnit.NANOSECONDS.toMillis(SystemClock.elapsedRealtimeNanos() - startedAt) + " ms");
+                result.finish();
+            }
+        };
+
+        try {
+            executor.execute(work);
+            return;
+        } catch (RejectedExecutionException e) {
+            MetricsRegistry.counter("receiver." + action + ".overflow").inc();
+            Log.w(TAG, "Pool saturated, " + action + " handed off to the overflow thread");
+        }
+        try {
+            overflow.execute(work);
+        } catch (RejectedExecutionException e) {
+            MetricsRegistry.counter("receiver." + action + ".inline").inc();
+            Log.w(TAG, "Overflow saturated, running " + action + " on the receiver thread");
+            work.run();
+        }
+    }
+}
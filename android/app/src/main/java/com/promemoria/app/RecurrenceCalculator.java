@@ -0,0 +1,121 @@
+package com.promemoria.app;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Calcolo delle occorrenze dei promemoria ricorrenti (giornaliero, settimanale, mensile, annuale).
+ * L'occorrenza k è sempre calcolata dall'ancora (data + ora originali), non dalla precedente:
+ * un mensile del 31 cade il 30 aprile e torna al 31 maggio. L'ora locale resta fissa anche
+ * attraverso i cambi d'ora legale (nel buco di primavera slitta in avanti come java.time).
+ */
+public final class RecurrenceCalculator {
+
+    private RecurrenceCalculator() {}
+
+    /**
+     * Regola di ricorrenza di un promemoria
+     */
+    public static final class Rule {
+        final ChronoUnit unit;
+        final LocalDateTime anchor;
+        final long leadMillis;
+        final LocalDate endDay;
+        final ZoneId zone;
+
+        Rule(ChronoUnit unit, LocalDateTime anchor, long leadMillis, LocalDate endDay, ZoneId zone) {
+            this.unit = unit;
+            this.anchor = anchor;
+            this.leadMillis = leadMillis;
+            this.endDay = endDay;
+            this.zone = zone;
+        }
+    }
+
+    /**
+     * Regola dai campi del promemoria; null se non è ricorrente o la data non è valida
+     */
+    public static Rule rule(String recurrence, String date, String time, int minutesBefore,
+                            String endDate, ZoneId zone) {
+        ChronoUnit unit = unitOf(recurrence);
+        if (unit == null) return null;
+
+        LocalDateTime anchor = ReminderTimes.localDue(date, time, zone);
+        if (anchor == null) return null;
+
+        LocalDate endDay = endDate == null || endDate.isEmpty() ? null : ReminderTimes.localDay(endDate, zone);
+        return new Rule(unit, anchor, minutesBefore * 60_000L, endDay, zone);
+    }
+
+    /**
+     * Primo scatto (epoch millis, già anticipato) strettamente successivo ad after, oppure -1 se la serie è finita
+     */
+    public static long nextTrigger(Rule rule, long after) {
+        long k = firstIndexAfter(rule, after);
+        return k < 0 ? -1 : triggerAt(rule, k);
+    }
+
+    /**
+     * Riempie out con i prossimi scatti successivi ad after e restituisce quanti ne ha scritti
+     */
+    public static int nextTriggers(Rule rule, long after, long[] out) {
+        long k = firstIndexAfter(rule, after);
+        if (k < 0) return 0;
+
+        int count = 0;
+        while (count < out.length && isWithinEnd(rule, k)) {
+            out[count++] = triggerAt(rule, k);
+            k++;
+        }
+        return count;
+    }
+
+    static ChronoUnit unitOf(String recurrence) {
+        if (recurrence == null) return null;
+        switch (recurrence) {
+            case "daily":
+                return ChronoUnit.DAYS;
+            case "weekly":
+                return ChronoUnit.WEEKS;
+            case "monthly":
+                return ChronoUnit.MONTHS;
+            case "yearly":
+                return ChronoUnit.YEARS;
+            default:
+                return null;
+        }
+    }
+
+    // Indice della prima occorrenza con scatto > after, oppure -1 se oltre la data di fine
+    private static long firstIndexAfter(Rule rule, long after) {
+        // Stima diretta di k (niente iterazione dall'ancora), poi correzione verificata:
+        // gli scatti crescono con k, quindi bastano di solito uno o due passi
+        LocalDateTime target = Instant.ofEpochMilli(after + rule.leadMillis)
+            .atZone(rule.zone).toLocalDateTime();
+        long k = Math.max(0, rule.unit.between(rule.anchor, target) - 1);
+
+        while (k > 0 && triggerAt(rule, k - 1) > after) k--;
+        while (isWithinEnd(rule, k)) {
+            if (triggerAt(rule, k) > after) return k;
+            k++;
+        }
+        return -1;
+    }
+
+    private static long triggerAt(Rule rule, long k) {
+        return occurrence(rule, k).atZone(rule.zone).toInstant().toEpochMilli() - rule.leadMillis;
+    }
+
+    private static LocalDateTime occurrence(Rule rule, long k) {
+        // plus() dall'ancora: per mesi/anni il giorno viene adattato a fine mese senza derive
+        return k == 0 ? rule.anchor : rule.anchor.plus(k, rule.unit);
+    }
+
+    // Come toggleReminderComplete lato JS: le ripetizioni devono cadere prima della data di fine
+    private static boolean isWithinEnd(Rule rule, long k) {
+        return k == 0 || rule.endDay == null || occurrence(rule, k).toLocalDate().isBefore(rule.endDay);
+    }
+}
@@ -3,10 +3,12 @@ package com.promemoria.app;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Build;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Receiver per avviare l'AlarmService quando scatta l'alarm
  */
@@ -16,19 +18,132 @@ public class ReminderAlarmReceiver extends BroadcastReceiver {
     
     @Override
     public void onReceive(Context context, Intent intent) {
+        if (AlarmQueue.ACTION_FIRE_DUE.equals(intent.getAction())) {
+            long receivedAt = System.currentTimeMillis();
+            long requestedAt = intent.getLongExtra(AlarmQueue.EXTRA_TRIGGER_AT, -1);
+            int api = intent.getIntExtra(AlarmQueue.EXTRA_DELIVERY_API, -1);
+            ReceiverExecutor.run(this, "fire_due", () -> {
+                if (requestedAt > 0) {
+                    DeliveryPolicy.recordDelivery(context, api, receivedAt - requestedAt);
+                }
+                fireDue(context, receivedAt, api);
+            });
+            return;
+        }
+        
+        // Alarm per-promemoria registrati prima della coda unica
         int notificationId = intent.getIntExtra(NotificationActionReceiver.EXTRA_NOTIFICATION_ID, 0);
         String reminderId = intent.getStringExtra(NotificationActionReceiver.EXTRA_REMINDER_ID);
         String title = intent.getStringExtra(NotificationActionReceiver.EXTRA_TITLE);
         String body = intent.getStringExtra(NotificationActionReceiver.EXTRA_BODY);
         
-        Log.d(TAG, "Alarm triggered for: " + title);
+        ReceiverExecutor.run(this, "fire_legacy", () -> {
+            long now = System.currentTimeMillis();
+            AlarmQueue.Entry entry = new AlarmQueue.Entry(reminderId, AlarmQueue.KIND_REMINDER, now, title, body);
+            try {
+                // Gli alarm per-promemoria erano esatti
+                fireSafely(context, entry, notificationId, DeliveryPolicy.API_EXACT);
+            } finally {
+                if (reminderId != null) {
+                    List<AlarmQueue.Entry> fired = new ArrayList<>(1);
+                    fired.add(entry);
+                    ReminderAlarms.rescheduleRecurring(context, fired, now);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Esegue tutti gli elementi scaduti della coda e riarma la nuova testa
+     */
+    private void fireDue(Context context, long receivedAt, int api) {
+        long now = System.currentTimeMillis();
+        AlarmQueue.invalidateArmed();
+        List<AlarmQueue.Entry> due = new ArrayList<>();
+        try {
+            due = AlarmQueue.popDue(context, now);
+            Log.d(TAG, "Head alarm fired, due items: " + due.size());
+            
+            MetricsRegistry.Histogram lateness = MetricsRegistry.histogram("alarm.fire_lateness");
+            for (AlarmQueue.Entry entry : due) {
+                // Orario richiesto contro arrivo del broadcast
+                lateness.record(receivedAt - entry.triggerAt);
+                fireSafely(context, entry, -1, api);
+            }
+        } finally {
+            // Anche se qualcosa è fallito: i ricorrenti tornano in coda e la testa va riarmata,
+            // altrimenti si fermano tutti gli alarm futuri fino al prossimo sync o riavvio
+            try {
+                ReminderAlarms.rescheduleRecurring(context, due, now);
+            } catch (Exception e) {
+                Log.e(TAG, "Error rescheduling recurring reminders", e);
+            } finally {
+                AlarmQueue.rearm(context);
+                warmForHead(context, now);
+                MetricsRegistry.dumpThrottled(context);
+            }
+        }
+    }
+    
+    // Prossimo scatto entro WARM_LEAD_MS in modalità sveglia: suoneria pronta prima che arrivi.
+    // Solo qui, dove arrivano gli alarm esatti; negli altri casi vale il rilascio per inattività
+    private static void warmForHead(Context context, long now) {
+        long head = AlarmQueue.armedAt();
+        if (head == -1 || head - now > AlarmAudioEngine.WARM_LEAD_MS) return;
+        NotificationSettings settings = NotificationSettings.get(context);
+        if (settings.alarmMode) {
+            AlarmAudioEngine.warm(context, settings.ringtone);
+        }
+    }
+    
+    /**
+     * Esegue un elemento isolando gli errori: gli altri scaduti partono comunque.
+     * Se lo scatto fallisce si prova almeno la notifica semplice, per non perdere il promemoria.
+     */
+    private static void fireSafely(Context context, AlarmQueue.Entry entry, int knownNotificationId, int api) {
+        int notificationId = knownNotificationId;
+        try {
+            if (notificationId == -1) {
+                notificationId = NotificationIds.get(context, entry.reminderId);
+            }
+            if (entry.kind == AlarmQueue.KIND_SNOOZE) {
+                SnoozeAlarmReceiver.fire(context, entry.reminderId, entry.title, entry.body, notificationId, api);
+            } else {
+                fire(context, notificationId, entry.reminderId, entry.title, entry.body, api);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error firing " + entry.reminderId + ", falling back to a plain notification", e);
+            MetricsRegistry.counter("alarm.fire_errors").inc();
+            try {
+                NotificationHelper.showReminderNotification(
+                    context,
+                    notificationId != -1 ? notificationId : NotificationIds.get(context, null),
+                    entry.reminderId != null ? entry.reminderId : "",
+                    entry.title != null ? entry.title : "Promemoria",
+                    entry.body != null ? entry.body : ""
+                );
+            } catch (Exception fallbackError) {
+                Log.e(TAG, "Fallback notification failed for " + entry.reminderId, fallbackError);
+            }
+        }
+    }
+    
+    static void fire(Context context, int notificationId, String reminderId, String title, String body, int api) {
+        // Completato (es. Fatto dalla notifica) o eliminato dopo che lo scatto era in coda
+        if (!ReminderStore.isActive(context, reminderId)) {
+            Log.d(TAG, "Reminder completed or deleted, skipping: " + reminderId);
+            return;
+        }
         
-        // Leggi se alarmMode è attivo
-        SharedPreferences prefs = context.getSharedPreferences("CapacitorStorage", Context.MODE_PRIVATE);
-        String settingsJson = prefs.getString("notification-settings", "{}");
-        boolean alarmMode = settingsJson.contains("\"alarmMode\":true");
+        Log.d(TAG, "Alarm triggered for: " + title);
+        NativeEventBus.publish(NativeEventBus.TYPE_FIRED, reminderId);
         
-        if (alarmMode) {
+        // Leggi se alarmMode è attivo (impostazioni in cache)
+        NotificationSettings settings = NotificationSettings.get(context);
+        if (settings.alarmMode && DeliveryPolicy.allowsForegroundStart(context, api)) {
+            // Prepara la suoneria mentre il servizio parte
+            AlarmAudioEngine.warm(context, settings.ringtone);
+            
             // Avvia il servizio sveglia con suono in loop
             Intent serviceIntent = new Intent(context, AlarmService.class);
             serviceIntent.setAction(AlarmService.ACTION_START);
@@ -43,6 +158,9 @@ public class ReminderAlarmReceiver extends BroadcastReceiver {
                 context.startService(serviceIntent);
             }
         } else {
+            if (settings.alarmMode) {
+                Log.w(TAG, "Delivered via " + DeliveryPolicy.name(api) + ", alarm service not allowed: plain notification");
+            }
             // Notifica semplice
             NotificationHelper.showReminderNotification(
                 context,
@@ -54,4 +172,3 @@ public class ReminderAlarmReceiver extends BroadcastReceiver {
         }
     }
 }
-
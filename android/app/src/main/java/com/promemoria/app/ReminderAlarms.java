@@ -0,0 +1,146 @@
+package com.promemoria.app;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Programmazione e cancellazione degli alarm dei promemoria.
+ * Condiviso dalle chiamate singole e da quelle batch del plugin.
+ */
+public class ReminderAlarms {
+
+    private static final String TAG = "ReminderAlarms";
+
+    /**
+     * Mette in coda lo scatto del promemoria e restituisce l'ID della notifica.
+     * Solo la testa della coda viene registrata in AlarmManager (vedi AlarmQueue).
+     */
+    public static int schedule(Context context, String id, String title, String body, long timestamp) {
+        AlarmQueue.Entry entry = new AlarmQueue.Entry(id, AlarmQueue.KIND_REMINDER, timestamp, title, body);
+        AlarmQueue.enqueue(context, advanceIfPast(context, entry, System.currentTimeMillis()));
+        // Già assegnato dalla transazione della coda
+        return NotificationIds.get(context, id);
+    }
+
+    /**
+     * Mette in coda molti scatti con una sola transazione e un solo riarmo
+     */
+    public static void scheduleAll(Context context, List<AlarmQueue.Entry> entries) {
+        long now = System.currentTimeMillis();
+        List<AlarmQueue.Entry> queued = new ArrayList<>(entries.size());
+        for (AlarmQueue.Entry entry : entries) {
+            queued.add(advanceIfPast(context, entry, now));
+        }
+        AlarmQueue.enqueueAll(context, queued);
+    }
+
+    /**
+     * Rimette in coda la prossima occorrenza dei promemoria ricorrenti appena scattati
+     */
+    public static void rescheduleRecurring(Context context, List<AlarmQueue.Entry> fired, long now) {
+        ReminderStore store = ReminderStore.getInstance(context);
+        ZoneId zone = ZoneId.systemDefault();
+        List<AlarmQueue.Entry> next = new ArrayList<>();
+
+        for (AlarmQueue.Entry entry : fired) {
+            if (entry.kind != AlarmQueue.KIND_REMINDER || entry.reminderId == null) continue;
+
+            RecurrenceCalculator.Rule rule = store.getRecurrenceRule(entry.reminderId, zone);
+            if (rule == null) continue;
+
+            // Dopo lo scatto appena eseguito, anche se era in anticipo entro la tolleranza della coda
+            long triggerAt = RecurrenceCalculator.nextTrigger(rule, Math.max(now, entry.triggerAt));
+            if (triggerAt == -1) continue;
+
+            next.add(new AlarmQueue.Entry(entry.reminderId, AlarmQueue.KIND_REMINDER, triggerAt,
+                entry.title, entry.body));
+            Log.d(TAG, "Next occurrence of " + entry.reminderId + " at " + triggerAt);
+        }
+
+        if (!next.isEmpty()) {
+            AlarmQueue.enqueueAll(context, next);
+        }
+    }
+
+    /**
+     * Cancella alarm principale, eventuali snooze e la notifica già mostrata
+     */
+    public static void cancel(Context context, AlarmManager alarmManager, String id) {
+        AlarmQueue.remove(context, id);
+        NotificationDispatcher.cancelAll(context, cancelLegacy(context, alarmManager, id, new ArrayList<>(2)));
+    }
+
+    /**
+     * Cancella molti promemoria con una sola transazione sulla coda, un solo riarmo
+     * e una sola lettura delle notifiche attive
+     */
+    public static void cancelAll(Context context, AlarmManager alarmManager, List<String> ids) {
+        AlarmQueue.removeAll(context, ids);
+        List<Integer> notificationIds = new ArrayList<>(ids.size() * 2);
+        for (String id : ids) {
+            cancelLegacy(context, alarmManager, id, notificationIds);
+        }
+        NotificationDispatcher.cancelAll(context, notificationIds);
+    }
+
+    // Un ricorrente con data già passata parte dalla prossima occorrenza invece di scattare subito
+    private static AlarmQueue.Entry advanceIfPast(Context context, AlarmQueue.Entry entry, long now) {
+        if (entry.triggerAt > now || entry.reminderId == null) return entry;
+
+        RecurrenceCalculator.Rule rule = ReminderStore.getInstance(context)
+            .getRecurrenceRule(entry.reminderId, ZoneId.systemDefault());
+        if (rule == null) return entry;
+
+        long triggerAt = RecurrenceCalculator.nextTrigger(rule, now);
+        if (triggerAt == -1) return entry;
+        return new AlarmQueue.Entry(entry.reminderId, entry.kind, triggerAt, entry.title, entry.body);
+    }
+
+    // Aggiunge a notificationIds le notifiche da chiudere, cancellate poi in blocco dal chiamante
+    private static List<Integer> cancelLegacy(Context context, AlarmManager alarmManager, String id,
+                                              List<Integer> notificationIds) {
+        int notificationId = NotificationIds.find(context, id);
+        if (notificationId != -1) {
+            cancelAlarms(context, alarmManager, notificationId);
+            notificationIds.add(notificationId);
+        }
+
+        // Alarm programmati prima dell'allocatore di ID
+        int legacyId = NotificationIds.legacyId(id);
+        cancelAlarms(context, alarmManager, legacyId);
+        notificationIds.add(legacyId);
+        return notificationIds;
+    }
+
+    // Alarm per-promemoria delle versioni precedenti alla coda unica
+    private static void cancelAlarms(Context context, AlarmManager alarmManager, int notificationId) {
+        if (alarmManager != null) {
+            // Cancella l'alarm principale
+            Intent intent = new Intent(context, ReminderAlarmReceiver.class);
+            PendingIntent pendingIntent = PendingIntent.getBroadcast(
+                context,
+                notificationId,
+                intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+            );
+            alarmManager.cancel(pendingIntent);
+
+            // Cancella anche eventuali alarm di snooze
+            Intent snoozeIntent = new Intent(context, SnoozeAlarmReceiver.class);
+            PendingIntent snoozePending = PendingIntent.getBroadcast(
+                context,
+                notificationId,
+                snoozeIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+            );
+            alarmManager.cancel(snoozePending);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.promemoria.app;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Indice invertito in memoria per la ricerca dei promemoria: titolo, descrizione, tag e nome categoria.
+ * I termini sono normalizzati (minuscole, senza accenti: "perché" trova "perche") e stanno in un TreeMap,
+ * così una parola parziale è un range di termini. Si carica dallo store alla prima ricerca e
+ * poi segue upsert e delete dello store senza ricostruzioni.
+ */
+public final class ReminderSearchIndex {
+
+    private static final String TAG = "ReminderSearchIndex";
+
+    // Peso di un termine per campo in cui compare
+    private static final int WEIGHT_TITLE = 8;
+    private static final int WEIGHT_TAG = 4;
+    private static final int WEIGHT_CATEGORY = 2;
+    private static final int WEIGHT_DESCRIPTION = 1;
+
+    // Parola cercata uguale al termine, non solo suo prefisso
+    private static final int EXACT_MULTIPLIER = 2;
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private final ReminderStore store;
+
+    // Stato protetto dal lock dell'istanza
+    private boolean loaded = false;
+    private final TreeMap<String, HashMap<String, Integer>> postings = new TreeMap<>();
+    private final HashMap<String, Doc> docs = new HashMap<>();
+    private final HashMap<String, String> categoryNames = new HashMap<>();
+    private final HashMap<String, Set<String>> byCategory = new HashMap<>();
+
+    /**
+     * Promemoria indicizzato: i campi per il ranking e i termini per poterlo togliere
+     */
+    private static final class Doc {
+        final String id;
+        final String title;
+        final String description;
+        final String tags;
+        final String categoryId;
+        final String when;
+        boolean completed;
+        Map<String, Integer> terms = Collections.emptyMap();
+
+        Doc(String id, String title, String description, String tags, String categoryId,
+            String when, boolean completed) {
+            this.id = id;
+            this.title = title;
+            this.description = description;
+            this.tags = tags;
+            this.categoryId = categoryId;
+            this.when = when;
+            this.completed = completed;
+        }
+    }
+
+    /**
+     * Una pagina di risultati: id in ordine di rilevanza e numero totale di corrispondenze
+     */
+    public static final class Result {
+        public final int total;
+        public final List<String> ids;
+
+        Result(int total, List<String> ids) {
+            this.total = total;
+            this.ids = ids;
+        }
+    }
+
+    ReminderSearchIndex(ReminderStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Promemoria che contengono tutte le parole della query (anche solo come inizio di parola).
+     * Ordine: punteggio, poi aperti prima dei completati, poi data e ora.
+     */
+    public synchronized Result search(String query, int offset, int limit) {
+        ensureLoaded();
+
+        Set<String> words = new LinkedHashSet<>(tokenize(fold(query)));
+        if (words.isEmpty() || limit <= 0) return new Result(0, Collections.emptyList());
+
+        // Dalla parola più selettiva: l'intersezione parte dall'insieme più piccolo
+        List<Map<String, Integer>> perWord = new ArrayList<>(words.size());
+        for (String word : words) {
+            Map<String, Integer> matches = matches(word);
+            if (matches.isEmpty()) return new Result(0, Collections.emptyList());
+            perWord.add(matches);
+        }
+        perWord.sort(Comparator.comparingInt(Map::size));
+
+        HashMap<String, Integer> scores = new HashMap<>(perWord.get(0));
+        for (int i = 1; i < perWord.size() && !scores.isEmpty(); i++) {
+            Map<String, Integer> next = perWord.get(i);
+            scores.keySet().retainAll(next.keySet());
+            for (Map.Entry<String, Integer> entry : scores.entrySet()) {
+                entry.setValue(entry.getValue() + next.get(entry.getKey()));
+            }
+        }
+
+        // Solo i primi offset + limit: niente ordinamento completo a ogni tasto
+        Comparator<String> ranking = rankingBy(scores);
+        int keep = offset + limit;
+        PriorityQueue<String> top = new PriorityQueue<>(Math.min(keep, scores.size()) + 1, ranking.reversed());
+        for (String id : scores.keySet()) {
+            top.add(id);
+            if (top.size() > keep) top.poll();
+        }
+        List<String> ranked = new ArrayList<>(top);
+        ranked.sort(ranking);
+
+        List<String> page = offset < ranked.size()
+            ? new ArrayList<>(ranked.subList(offset, ranked.size()))
+            : Collections.emptyList();
+        return new Result(scores.size(), page);
+    }
+
+    private Comparator<String> rankingBy(Map<String, Integer> scores) {
+        return (a, b) -> {
+            int byScore = Integer.compare(scores.get(b), scores.get(a));
+            if (byScore != 0) return byScore;
+            Doc da = docs.get(a);
+            Doc db = docs.get(b);
+            if (da.completed != db.completed) return da.completed ? 1 : -1;
+            int byWhen = da.when.compareTo(db.when);
+            return byWhen != 0 ? byWhen : a.compareTo(b);
+        };
+    }
+
+    // Miglior peso per promemoria tra tutti i termini che iniziano con la parola
+    private Map<String, Integer> matches(String word) {
+        HashMap<String, Integer> best = new HashMap<>();
+        for (Map.Entry<String, HashMap<String, Integer>> term
+                : postings.subMap(word, true, word + Character.MAX_VALUE, false).entrySet()) {
+            int multiplier = term.getKey().length() == word.length() ? EXACT_MULTIPLIER : 1;
+            for (Map.Entry<String, Integer> posting : term.getValue().entrySet()) {
+                best.merge(posting.getKey(), posting.getValue() * multiplier, Math::max);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Dopo un sync completo: si ricarica dallo store alla prossima ricerca
+     */
+    synchronized void invalidate() {
+        loaded = false;
+        postings.clear();
+        docs.clear();
+        categoryNames.clear();
+        byCategory.clear();
+    }
+
+    /**
+     * Stesse modifiche applicate allo store da applyDelta, nello stesso ordine
+     */
+    synchronized void applyDelta(JSONArray upserts, JSONArray deletes,
+                                 JSONArray categoryUpserts, JSONArray categoryDeletes) {
+        if (!loaded) return;
+
+        for (int i = 0; i < deletes.length(); i++) {
+            removeDoc(deletes.optString(i));
+        }
+        for (int i = 0; i < upserts.length(); i++) {
+            JSONObject r = upserts.optJSONObject(i);
+            if (r != null && !r.optString("id", "").isEmpty()) putDoc(fromJson(r));
+        }
+        for (int i = 0; i < categoryDeletes.length(); i++) {
+            renameCategory(categoryDeletes.optString(i), null);
+        }
+        for (int i = 0; i < categoryUpserts.length(); i++) {
+            JSONObject c = categoryUpserts.optJSONObject(i);
+            if (c != null && !c.optString("id", "").isEmpty()) {
+                renameCategory(c.optString("id"), c.optString("name", ""));
+            }
+        }
+    }
+
+    synchronized void put(JSONObject reminder) {
+        if (loaded) putDoc(fromJson(reminder));
+    }
+
+    synchronized void remove(String reminderId) {
+        if (loaded) removeDoc(reminderId);
+    }
+
+    synchronized void setCompleted(String reminderId, boolean completed) {
+        if (!loaded) return;
+        Doc doc = docs.get(reminderId);
+        if (doc != null) doc.completed = completed;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+
+        long start = MetricsRegistry.beginSection("search_load");
+        try {
+            SQLiteDatabase db = store.getReadableDatabase();
+            try (Cursor c = db.query(ReminderStore.TABLE_CATEGORIES,
+                    new String[]{ReminderStore.COL_ID, ReminderStore.COL_NAME}, null, null, null, null, null)) {
+                while (c.moveToNext()) {
+                    categoryNames.put(c.getString(0), c.isNull(1) ? "" : c.getString(1));
+                }
+            }
+            try (Cursor c = db.query(ReminderStore.TABLE_REMINDERS, new String[]{
+                    ReminderStore.COL_ID, ReminderStore.COL_TITLE, ReminderStore.COL_DESCRIPTION,
+                    ReminderStore.COL_TAGS, ReminderStore.COL_CATEGORY_ID, ReminderStore.COL_DATE,
+                    ReminderStore.COL_TIME, ReminderStore.COL_COMPLETED}, null, null, null, null, null)) {
+                while (c.moveToNext()) {
+                    putDoc(new Doc(c.getString(0), text(c, 1), text(c, 2), text(c, 3), text(c, 4),
+                        text(c, 5) + text(c, 6), c.getInt(7) != 0));
+                }
+            }
+            loaded = true;
+            Log.d(TAG, "Index loaded: " + docs.size() + " reminders, " + postings.size() + " terms");
+        } finally {
+            MetricsRegistry.endSection(MetricsRegistry.histogram("search.load"), start);
+        }
+    }
+
+    private static String text(Cursor c, int column) {
+        return c.isNull(column) ? "" : c.getString(column);
+    }
+
+    private static Doc fromJson(JSONObject r) {
+        return new Doc(r.optString("id"), r.optString("title", ""), r.optString("description", ""),
+            ReminderStore.joinTags(r.optJSONArray("tags")), r.optString("categoryId", ""),
+            r.optString("date", "") + r.optString("time", ""), r.optBoolean("isCompleted", false));
+    }
+
+    private void putDoc(Doc doc) {
+        removeDoc(doc.id);
+
+        HashMap<String, Integer> terms = new HashMap<>();
+        addTerms(terms, doc.title, WEIGHT_TITLE);
+        addTerms(terms, doc.tags, WEIGHT_TAG);
+        addTerms(terms, categoryNames.get(doc.categoryId), WEIGHT_CATEGORY);
+        addTerms(terms, doc.description, WEIGHT_DESCRIPTION);
+        doc.terms = terms;
+
+        for (Map.Entry<String, Integer> term : terms.entrySet()) {
+            postings.computeIfAbsent(term.getKey(), k -> new HashMap<>()).put(doc.id, term.getValue());
+        }
+        docs.put(doc.id, doc);
+        byCategory.computeIfAbsent(doc.categoryId, k -> new HashSet<>()).add(doc.id);
+    }
+
+    private void removeDoc(String reminderId) {
+        Doc doc = docs.remove(reminderId);
+        if (doc == null) return;
+
+        for (String term : doc.terms.keySet()) {
+            HashMap<String, Integer> ids = postings.get(term);
+            if (ids == null) continue;
+            ids.remove(reminderId);
+            if (ids.isEmpty()) postings.remove(term);
+        }
+        Set<String> members = byCategory.get(doc.categoryId);
+        if (members != null) {
+            members.remove(reminderId);
+            if (members.isEmpty()) byCategory.remove(doc.categoryId);
+        }
+    }
+
+    // Nome categoria cambiato (null = eliminata): si reindicizzano solo i suoi promemoria
+    private void renameCategory(String categoryId, String name) {
+        if (name == null) {
+            categoryNames.remove(categoryId);
+        } else {
+            categoryNames.put(categoryId, name);
+        }
+        Set<String> members = byCategory.get(categoryId);
+        if (members == null) return;
+        for (String id : new ArrayList<>(members)) {
+            putDoc(docs.get(id));
+        }
+    }
+
+    // Pesi sommati per campo: un termine nel titolo e nei tag conta per entrambi
+    private static void addTerms(Map<String, Integer> terms, String text, int weight) {
+        for (String term : new HashSet<>(tokenize(fold(text)))) {
+            terms.merge(term, weight, Integer::sum);
+        }
+    }
+
+    /**
+     * Minuscole senza segni diacritici: "Caffè" e "CAFFE" diventano "caffe"
+     */
+    static String fold(String text) {
+        if (text == null || text.isEmpty()) return "";
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Parole di lettere e cifre; l'apostrofo separa ("dell'auto" -> "dell", "auto")
+     */
+    static List<String> tokenize(String folded) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean wordChar = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (wordChar && start == -1) {
+                start = i;
+            } else if (!wordChar && start != -1) {
+                tokens.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,514 @@
+package com.promemoria.app;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Store nativo indicizzato dei promemoria (SQLite).
+ * I receiver interrogano questo store per id invece di ri-parsare
+ * il blob JSON "reminders" di CapacitorStorage a ogni azione.
+ */
+public class ReminderStore extends SQLiteOpenHelper {
+
+    private static final String TAG = "ReminderStore";
+    private static final String DB_NAME = "promemoria.db";
+    private static final int DB_VERSION = 6;
+
+    static final String TABLE_REMINDERS = "reminders";
+    static final String TABLE_CATEGORIES = "categories";
+    static final String TABLE_NOTIFICATION_IDS = "notification_ids";
+    static final String TABLE_ALARM_QUEUE = "alarm_queue";
+    static final String TABLE_SYNC_STATE = "sync_state";
+
+    static final String COL_ID = "id";
+    static final String COL_CATEGORY_ID = "category_id";
+    static final String COL_TITLE = "title";
+    static final String COL_DESCRIPTION = "description";
+    static final String COL_DATE = "date";
+    static final String COL_TIME = "time";
+    static final String COL_ALARM_ENABLED = "is_alarm_enabled";
+    static final String COL_ALARM_MINUTES_BEFORE = "alarm_minutes_before";
+    static final String COL_COMPLETED = "is_completed";
+    static final String COL_PRIORITY = "priority";
+    static final String COL_RECURRENCE = "recurrence";
+    static final String COL_RECURRENCE_END = "recurrence_end_date";
+    static final String COL_TAGS = "tags";
+
+    static final String COL_NAME = "name";
+    static final String COL_ICON = "icon";
+
+    static final String COL_REMINDER_ID = "reminder_id";
+    static final String COL_BASE = "base";
+    static final String COL_KIND = "kind";
+    static final String COL_TRIGGER_AT = "trigger_at";
+    static final String COL_BODY = "body";
+
+    static final String COL_KEY = "key";
+    static final String COL_VALUE = "value";
+
+    // Versione dell'ultimo sync dalla WebView, salvata nella stessa transazione dei dati
+    private static final String KEY_SYNC_VERSION = "sync_version";
+
+    // Esito delle lookup per id
+    public static final int STATE_MISSING = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_COMPLETED = 2;
+
+    // Promemoria delle notifiche di prova (WebView e plugin): non esistono nello store
+    static final String TEST_ID_PREFIX = "test-";
+
+    private static volatile ReminderStore instance;
+
+    private final Context appContext;
+    private SQLiteStatement stateStatement;
+    private final ReminderSearchIndex searchIndex = new ReminderSearchIndex(this);
+    private final StatsAggregates stats = new StatsAggregates(this);
+    private final AgendaIndex agenda = new AgendaIndex(this);
+
+    public static ReminderStore getInstance(Context context) {
+        if (instance == null) {
+            synchronized (ReminderStore.class) {
+                if (instance == null) {
+                    instance = new ReminderStore(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private ReminderStore(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+        this.appContext = context;
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        createReminderTables(db);
+        createNotificationIdTable(db);
+        createAlarmQueueTable(db);
+        createUpcomingIndex(db);
+        createSyncStateTable(db);
+
+        // Primo avvio: importa i dati già sincronizzati dalla WebView
+        seedFromPreferences(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createNotificationIdTable(db);
+        }
+        if (oldVersion < 3) {
+            createAlarmQueueTable(db);
+        }
+        if (oldVersion < 4) {
+            createUpcomingIndex(db);
+        }
+        if (oldVersion < 5) {
+            createSyncStateTable(db);
+        }
+        if (oldVersion < 6) {
+            db.execSQL("ALTER TABLE " + TABLE_REMINDERS + " ADD COLUMN " + COL_TAGS + " TEXT");
+        }
+    }
+
+    private static void createReminderTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_REMINDERS + " ("
+            + COL_ID + " TEXT PRIMARY KEY NOT NULL, "
+            + COL_CATEGORY_ID + " TEXT, "
+            + COL_TITLE + " TEXT, "
+            + COL_DESCRIPTION + " TEXT, "
+            + COL_DATE + " TEXT, "
+            + COL_TIME + " TEXT, "
+            + COL_ALARM_ENABLED + " INTEGER NOT NULL DEFAULT 0, "
+            + COL_ALARM_MINUTES_BEFORE + " INTEGER NOT NULL DEFAULT 0, "
+            + COL_COMPLETED + " INTEGER NOT NULL DEFAULT 0, "
+            + COL_PRIORITY + " TEXT, "
+            + COL_RECURRENCE + " TEXT, "
+            + COL_RECURRENCE_END + " TEXT, "
+            + COL_TAGS + " TEXT)");
+        db.execSQL("CREATE INDEX idx_reminders_completed ON " + TABLE_REMINDERS
+            + " (" + COL_COMPLETED + ")");
+        db.execSQL("CREATE TABLE " + TABLE_CATEGORIES + " ("
+            + COL_ID + " TEXT PRIMARY KEY NOT NULL, "
+            + COL_NAME + " TEXT, "
+            + COL_ICON + " TEXT)");
+    }
+
+    // Blocchi di ID per notifiche/request code (vedi NotificationIds): mai cancellati dai sync
+    private static void createNotificationIdTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_NOTIFICATION_IDS + " ("
+            + COL_REMINDER_ID + " TEXT PRIMARY KEY NOT NULL, "
+            + COL_BASE + " INTEGER NOT NULL UNIQUE)");
+    }
+
+    // Coda degli scatti pendenti (vedi AlarmQueue): l'indice su trigger_at dà la testa in O(log n)
+    private static void createAlarmQueueTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ALARM_QUEUE + " ("
+            + COL_REMINDER_ID + " TEXT NOT NULL, "
+            + COL_KIND + " INTEGER NOT NULL, "
+            + COL_TRIGGER_AT + " INTEGER NOT NULL, "
+            + COL_TITLE + " TEXT, "
+            + COL_BODY + " TEXT, "
+            + "PRIMARY KEY (" + COL_REMINDER_ID + ", " + COL_KIND + "))");
+        db.execSQL("CREATE INDEX idx_alarm_queue_trigger ON " + TABLE_ALARM_QUEUE
+            + " (" + COL_TRIGGER_AT + ")");
+    }
+
+    // Aperti ordinati per data e ora: le pagine del widget a lista sono range scan sull'indice
+    private static void createUpcomingIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX idx_reminders_upcoming ON " + TABLE_REMINDERS
+            + " (" + COL_COMPLETED + ", " + COL_DATE + ", " + COL_TIME + ")");
+    }
+
+    private static void createSyncStateTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_STATE + " ("
+            + COL_KEY + " TEXT PRIMARY KEY NOT NULL, "
+            + COL_VALUE + " INTEGER NOT NULL)");
+    }
+
+    /**
+     * Una pagina dell'agenda in [fromMillis, toMillis), in ordine di scadenza.
+     * Righe {id, icona, titolo, data, ora}.
+     */
+    public List<String[]> getAgendaRows(long fromMillis, long toMillis, int offset, int limit) {
+        return getRows(agenda.range(fromMillis, toMillis, offset, limit));
+    }
+
+    /**
+     * Righe {id, icona, titolo, data, ora} dei promemoria indicati, nello stesso ordine
+     * (gli id non più presenti vengono saltati)
+     */
+    public List<String[]> getRows(List<String> ids) {
+        if (ids.isEmpty()) return Collections.emptyList();
+
+        StringBuilder placeholders = new StringBuilder("?");
+        for (int i = 1; i < ids.size(); i++) {
+            placeholders.append(",?");
+        }
+        Map<String, String[]> byId = new HashMap<>(ids.size() * 2);
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT r." + COL_ID + ", c." + COL_ICON + ", r." + COL_TITLE + ", r." + COL_DATE + ", r." + COL_TIME
+                + " FROM " + TABLE_REMINDERS + " r LEFT JOIN " + TABLE_CATEGORIES + " c"
+                + " ON c." + COL_ID + " = r." + COL_CATEGORY_ID
+                + " WHERE r." + COL_ID + " IN (" + placeholders + ")",
+                ids.toArray(new String[0]))) {
+            while (c.moveToNext()) {
+                byId.put(c.getString(0), new String[]{
+                    c.getString(0),
+                    c.isNull(1) ? "📝" : c.getString(1),
+                    c.getString(2),
+                    c.getString(3),
+                    c.getString(4)
+                });
+            }
+        }
+
+        List<String[]> rows = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            String[] row = byId.get(id);
+            if (row != null) rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Stato di un promemoria: STATE_MISSING, STATE_OPEN o STATE_COMPLETED.
+     * Lookup sulla primary key, nessun parsing JSON.
+     */
+    public synchronized int getState(String reminderId) {
+        if (stateStatement == null) {
+            stateStatement = getReadableDatabase().compileStatement(
+                "SELECT " + COL_COMPLETED + " FROM " + TABLE_REMINDERS + " WHERE " + COL_ID + " = ?");
+        }
+        stateStatement.bindString(1, reminderId);
+        try {
+            return stateStatement.simpleQueryForLong() != 0 ? STATE_COMPLETED : STATE_OPEN;
+        } catch (SQLiteDoneException e) {
+            return STATE_MISSING;
+        } finally {
+            stateStatement.clearBindings();
+        }
+    }
+
+    /**
+     * true per l'id di una notifica di prova: niente journal né controlli sullo store
+     */
+    static boolean isTestId(String reminderId) {
+        return reminderId != null && reminderId.startsWith(TEST_ID_PREFIX);
+    }
+
+    /**
+     * Verifica se il promemoria esiste ancora e non è completato.
+     * Stessa semantica della vecchia scansione del localStorage.
+     */
+    public static boolean isActive(Context context, String reminderId) {
+        if (reminderId == null || reminderId.isEmpty() || isTestId(reminderId)) {
+            return true; // Permetti test notifications
+        }
+
+        try {
+            return getInstance(context).getState(reminderId) == STATE_OPEN;
+        } catch (Exception e) {
+            Log.e(TAG, "Error checking reminder existence", e);
+            return true; // In caso di errore, permetti la notifica
+        }
+    }
+
+    /**
+     * Regola di ricorrenza di un promemoria aperto con allarme attivo, oppure null
+     */
+    public RecurrenceCalculator.Rule getRecurrenceRule(String reminderId, ZoneId zone) {
+        try (Cursor c = getReadableDatabase().query(TABLE_REMINDERS,
+                new String[]{COL_RECURRENCE, COL_DATE, COL_TIME, COL_ALARM_MINUTES_BEFORE, COL_RECURRENCE_END},
+                COL_ID + " = ? AND " + COL_COMPLETED + " = 0 AND " + COL_ALARM_ENABLED + " = 1",
+                new String[]{reminderId}, null, null, null)) {
+            if (!c.moveToFirst()) return null;
+            return RecurrenceCalculator.rule(c.getString(0), c.getString(1), c.getString(2),
+                c.getInt(3), c.getString(4), zone);
+        }
+    }
+
+    /**
+     * Versione dell'ultimo sync applicato (0 se mai sincronizzato)
+     */
+    public long getSyncVersion() {
+        try {
+            return DatabaseUtils.longForQuery(getReadableDatabase(),
+                "SELECT " + COL_VALUE + " FROM " + TABLE_SYNC_STATE + " WHERE " + COL_KEY + " = ?",
+                new String[]{KEY_SYNC_VERSION});
+        } catch (SQLiteDoneException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Sostituisce tutto il contenuto con i dati sincronizzati dalla WebView.
+     * La versione (se >= 0) diventa la nuova base per i delta, anche se più bassa della precedente.
+     */
+    public void replaceAll(JSONArray reminders, JSONArray categories, long version) {
+        SQLiteDatabase db = getWritableDatabase();
+        Map<String, Integer> released;
+        db.beginTransaction();
+        try {
+            writeAll(db, reminders, categories);
+            if (version >= 0) {
+                writeSyncVersion(db, version);
+            }
+            // ID notifica dei promemoria spariti (eliminati o di test)
+            released = NotificationIds.releaseOrphans(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        NotificationIds.forget(appContext, released);
+        searchIndex.invalidate();
+        stats.invalidate();
+        agenda.invalidate();
+        Log.d(TAG, "Store synced: " + reminders.length() + " reminders, " + categories.length() + " categories");
+    }
+
+    /**
+     * Applica un delta della WebView in una sola transazione.
+     * Restituisce false (senza toccare nulla) se la versione non è più recente dell'ultima applicata.
+     */
+    public boolean applyDelta(long version, JSONArray upserts, JSONArray deletes,
+                              JSONArray categoryUpserts, JSONArray categoryDeletes) {
+        SQLiteDatabase db = getWritableDatabase();
+        Map<String, Integer> released;
+        db.beginTransaction();
+        try {
+            if (version <= getSyncVersion()) return false;
+
+            List<String> deletedIds = new ArrayList<>(deletes.length());
+            for (int i = 0; i < deletes.length(); i++) {
+                db.delete(TABLE_REMINDERS, COL_ID + " = ?", new String[]{deletes.optString(i)});
+                deletedIds.add(deletes.optString(i));
+            }
+            released = NotificationIds.releaseAll(db, deletedIds);
+            for (int i = 0; i < upserts.length(); i++) {
+                JSONObject r = upserts.optJSONObject(i);
+                if (r == null || r.optString("id", "").isEmpty()) continue;
+                db.insertWithOnConflict(TABLE_REMINDERS, null, toValues(r), SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            for (int i = 0; i < categoryDeletes.length(); i++) {
+                db.delete(TABLE_CATEGORIES, COL_ID + " = ?", new String[]{categoryDeletes.optString(i)});
+            }
+            for (int i = 0; i < categoryUpserts.length(); i++) {
+                JSONObject c = categoryUpserts.optJSONObject(i);
+                if (c == null || c.optString("id", "").isEmpty()) continue;
+                db.insertWithOnConflict(TABLE_CATEGORIES, null, toCategoryValues(c), SQLiteDatabase.CONFLICT_REPLACE);
+            }
+
+            writeSyncVersion(db, version);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        NotificationIds.forget(appContext, released);
+        searchIndex.applyDelta(upserts, deletes, categoryUpserts, categoryDeletes);
+        stats.applyDelta(upserts, deletes);
+        agenda.applyDelta(upserts, deletes);
+        Log.d(TAG, "Delta " + version + " applied: " + upserts.length() + " upserts, " + deletes.length()
+            + " deletes, " + categoryUpserts.length() + " category upserts, " + categoryDeletes.length() + " category deletes");
+        return true;
+    }
+
+    private static void writeSyncVersion(SQLiteDatabase db, long version) {
+        ContentValues values = new ContentValues();
+        values.put(COL_KEY, KEY_SYNC_VERSION);
+        values.put(COL_VALUE, version);
+        db.insertWithOnConflict(TABLE_SYNC_STATE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    public void upsertReminder(JSONObject reminder) {
+        getWritableDatabase().insertWithOnConflict(TABLE_REMINDERS, null,
+            toValues(reminder), SQLiteDatabase.CONFLICT_REPLACE);
+        searchIndex.put(reminder);
+        stats.put(reminder);
+        agenda.put(reminder);
+    }
+
+    public void deleteReminder(String reminderId) {
+        SQLiteDatabase db = getWritableDatabase();
+        Map<String, Integer> released;
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_REMINDERS, COL_ID + " = ?", new String[]{reminderId});
+            released = NotificationIds.releaseAll(db, Collections.singletonList(reminderId));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        NotificationIds.forget(appContext, released);
+        searchIndex.remove(reminderId);
+        stats.remove(reminderId);
+        agenda.remove(reminderId);
+    }
+
+    public void setCompleted(String reminderId, boolean completed) {
+        ContentValues values = new ContentValues();
+        values.put(COL_COMPLETED, completed ? 1 : 0);
+        getWritableDatabase().update(TABLE_REMINDERS, values, COL_ID + " = ?", new String[]{reminderId});
+        searchIndex.setCompleted(reminderId, completed);
+        stats.setCompleted(reminderId, completed);
+        agenda.setCompleted(reminderId, completed);
+    }
+
+    /**
+     * Indice di ricerca full-text, tenuto allineato dalle scritture di questo store
+     */
+    public ReminderSearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Contatori aggregati (widget e StatsCard), tenuti allineati come l'indice di ricerca
+     */
+    public StatsAggregates getStats() {
+        return stats;
+    }
+
+    /**
+     * Agenda dei promemoria aperti per scadenza (widget, getAgenda e coda allarmi)
+     */
+    public AgendaIndex getAgenda() {
+        return agenda;
+    }
+
+    private void seedFromPreferences(SQLiteDatabase db) {
+        try {
+            SharedPreferences prefs = appContext.getSharedPreferences("CapacitorStorage", Context.MODE_PRIVATE);
+            JSONArray reminders = new JSONArray(prefs.getString("reminders", "[]"));
+            JSONArray categories = new JSONArray(prefs.getString("categories", "[]"));
+            writeAll(db, reminders, categories);
+            Log.d(TAG, "Store seeded from CapacitorStorage: " + reminders.length() + " reminders");
+        } catch (Exception e) {
+            Log.e(TAG, "Error seeding store", e);
+        }
+    }
+
+    private static void writeAll(SQLiteDatabase db, JSONArray reminders, JSONArray categories) {
+        db.delete(TABLE_REMINDERS, null, null);
+        db.delete(TABLE_CATEGORIES, null, null);
+
+        for (int i = 0; i < reminders.length(); i++) {
+            JSONObject r = reminders.optJSONObject(i);
+            if (r == null || r.optString("id", "").isEmpty()) continue;
+            db.insertWithOnConflict(TABLE_REMINDERS, null, toValues(r), SQLiteDatabase.CONFLICT_REPLACE);
+        }
+
+        for (int i = 0; i < categories.length(); i++) {
+            JSONObject c = categories.optJSONObject(i);
+            if (c == null || c.optString("id", "").isEmpty()) continue;
+            db.insertWithOnConflict(TABLE_CATEGORIES, null, toCategoryValues(c), SQLiteDatabase.CONFLICT_REPLACE);
+        }
+    }
+
+    private static ContentValues toCategoryValues(JSONObject c) {
+        ContentValues values = new ContentValues();
+        values.put(COL_ID, c.optString("id"));
+        values.put(COL_NAME, c.optString("name", ""));
+        values.put(COL_ICON, c.optString("icon", "📝"));
+        return values;
+    }
+
+    private static ContentValues toValues(JSONObject r) {
+        ContentValues values = new ContentValues();
+        values.put(COL_ID, r.optString("id"));
+        values.put(COL_CATEGORY_ID, r.optString("categoryId", ""));
+        values.put(COL_TITLE, r.optString("title", ""));
+        values.put(COL_DESCRIPTION, r.optString("description", ""));
+        values.put(COL_DATE, r.optString("date", ""));
+        values.put(COL_TIME, r.optString("time", ""));
+        values.put(COL_ALARM_ENABLED, r.optBoolean("isAlarmEnabled", false) ? 1 : 0);
+        values.put(COL_ALARM_MINUTES_BEFORE, r.optInt("alarmMinutesBefore", 0));
+        values.put(COL_COMPLETED, r.optBoolean("isCompleted", false) ? 1 : 0);
+        values.put(COL_PRIORITY, r.optString("priority", "medium"));
+        values.put(COL_RECURRENCE, r.optString("recurrence", "none"));
+        values.put(COL_RECURRENCE_END, r.optString("recurrenceEndDate", ""));
+        values.put(COL_TAGS, joinTags(r.optJSONArray("tags")));
+        return values;
+    }
+
+    /**
+     * Tag su una riga ciascuno: nessun tag contiene un a capo
+     */
+    static String joinTags(JSONArray tags) {
+        if (tags == null) return "";
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < tags.length(); i++) {
+            String tag = tags.optString(i, "");
+            if (tag.isEmpty()) continue;
+            if (joined.length() > 0) joined.append('\n');
+            joined.append(tag);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * Solo per i test: il prossimo getInstance() apre lo store sul Context corrente
+     */
+    static synchronized void resetForTest() {
+        instance = null;
+    }
+}
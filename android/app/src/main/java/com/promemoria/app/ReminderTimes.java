@@ -0,0 +1,83 @@
+package com.promemoria.app;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Calcolo dell'istante di notifica di un promemoria, identico a buildNotification() lato JS:
+ * giorno locale della data ISO, ora "HH:mm" se presente, meno alarmMinutesBefore.
+ */
+public final class ReminderTimes {
+
+    private ReminderTimes() {}
+
+    /**
+     * Istante (epoch millis) in cui notificare, oppure -1 se la data non è valida
+     */
+    public static long triggerAt(String date, String time, int minutesBefore, ZoneId zone) {
+        long dueAt = dueAt(date, time, zone);
+        if (dueAt == -1) return -1;
+        return dueAt - minutesBefore * 60_000L;
+    }
+
+    /**
+     * Istante di scadenza del promemoria (senza anticipo), oppure -1 se la data non è valida
+     */
+    public static long dueAt(String date, String time, ZoneId zone) {
+        LocalDateTime due = localDue(date, time, zone);
+        if (due == null) return -1;
+        return due.atZone(zone).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Scadenza come data e ora locali nel fuso indicato, oppure null se la data non è valida
+     */
+    static LocalDateTime localDue(String date, String time, ZoneId zone) {
+        if (date == null || date.isEmpty()) return null;
+
+        try {
+            LocalTime localTime = parseTime(time);
+            if (date.length() > 10) {
+                ZonedDateTime instant = Instant.parse(date).atZone(zone);
+                // Senza orario JS usa l'istante della data così com'è
+                if (localTime == null) return instant.toLocalDateTime();
+                return instant.toLocalDate().atTime(localTime);
+            }
+
+            LocalDate day = LocalDate.parse(date);
+            return day.atTime(localTime != null ? localTime : LocalTime.MIDNIGHT);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Giorno locale di una data ISO, oppure null se non valida
+     */
+    static LocalDate localDay(String date, ZoneId zone) {
+        LocalDateTime due = localDue(date, null, zone);
+        return due != null ? due.toLocalDate() : null;
+    }
+
+    /**
+     * Ora "HH:mm"; null se assente o non valida
+     */
+    static LocalTime parseTime(String time) {
+        if (time == null || time.length() < 3) return null;
+        int colon = time.indexOf(':');
+        if (colon < 1 || colon == time.length() - 1) return null;
+        try {
+            int hours = Integer.parseInt(time.substring(0, colon));
+            int minutes = Integer.parseInt(time.substring(colon + 1, Math.min(colon + 3, time.length())));
+            if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) return null;
+            return LocalTime.of(hours, minutes);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -3,188 +3,139 @@ package com.promemoria.app;
 import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProvider;
-import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
 import android.view.View;
 import android.widget.RemoteViews;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 /**
- * Widget semplice stile Samsung Glass
+ * Widget stile Samsung Glass: lista scorrevole, o tre righe fisse sui launcher in blocklist
  */
 public class ReminderWidgetProvider extends AppWidgetProvider {
     
     private static final String TAG = "ReminderWidget";
+    public static final String ACTION_REFRESH = "com.promemoria.app.WIDGET_REFRESH";
     
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
         Log.d(TAG, "onUpdate");
-        for (int id : appWidgetIds) {
-            updateWidget(context, appWidgetManager, id);
-        }
+        // Raccolto con gli altri refresh vicini: un solo calcolo e un solo bind per tutte le istanze
+        WidgetRefreshPipeline.request(this, context);
     }
     
     @Override
     public void onReceive(Context context, Intent intent) {
-        super.onReceive(context, intent);
-        if ("com.promemoria.app.WIDGET_REFRESH".equals(intent.getAction())) {
-            AppWidgetManager mgr = AppWidgetManager.getInstance(context);
-            int[] ids = mgr.getAppWidgetIds(new ComponentName(context, ReminderWidgetProvider.class));
-            onUpdate(context, mgr, ids);
+        if (ACTION_REFRESH.equals(intent.getAction())) {
+            WidgetRefreshPipeline.request(this, context);
+            return;
         }
+        super.onReceive(context, intent);
     }
     
-    private void updateWidget(Context context, AppWidgetManager mgr, int widgetId) {
-        try {
-            RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_layout);
-            
-            List<String[]> items = getReminders(context);
-            int total = getTotalCount(context);
-            
-            views.setTextViewText(R.id.widget_count, String.valueOf(total));
-            views.setTextViewText(R.id.widget_subtitle, 
-                new SimpleDateFormat("EEEE d MMM", Locale.getDefault()).format(new Date()));
-            
-            views.setViewVisibility(R.id.widget_item_1, View.GONE);
-            views.setViewVisibility(R.id.widget_item_2, View.GONE);
-            views.setViewVisibility(R.id.widget_item_3, View.GONE);
-            views.setViewVisibility(R.id.widget_empty, items.isEmpty() ? View.VISIBLE : View.GONE);
-            
-            int[] itemIds = {R.id.widget_item_1, R.id.widget_item_2, R.id.widget_item_3};
-            int[] iconIds = {R.id.widget_icon_1, R.id.widget_icon_2, R.id.widget_icon_3};
-            int[] titleIds = {R.id.widget_title_1, R.id.widget_title_2, R.id.widget_title_3};
-            int[] timeIds = {R.id.widget_time_1, R.id.widget_time_2, R.id.widget_time_3};
-            
-            for (int i = 0; i < Math.min(items.size(), 3); i++) {
-                String[] item = items.get(i);
-                views.setViewVisibility(itemIds[i], View.VISIBLE);
-                views.setTextViewText(iconIds[i], item[0]);
-                views.setTextViewText(titleIds[i], item[1]);
-                views.setTextViewText(timeIds[i], item[2]);
-            }
-            
-            // Click handlers
-            Intent main = new Intent(context, MainActivity.class);
-            main.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            views.setOnClickPendingIntent(R.id.widget_container, 
-                PendingIntent.getActivity(context, widgetId, main, 
-                    PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE));
-            
-            Intent add = new Intent(context, MainActivity.class);
-            add.putExtra("action", "add");
-            add.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            views.setOnClickPendingIntent(R.id.widget_add_button,
-                PendingIntent.getActivity(context, widgetId + 1000, add,
-                    PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE));
-            
-            mgr.updateAppWidget(widgetId, views);
-            Log.d(TAG, "Widget updated: " + items.size() + " items");
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Error", e);
-        }
+    // Launcher che gestiscono male i widget a collezione: per loro resta il layout statico a tre righe
+    private static final Set<String> STATIC_ONLY_LAUNCHERS = new HashSet<>(Arrays.asList(
+        "com.sec.android.app.launcher",
+        "com.sec.android.app.easylauncher"
+    ));
+    
+    /**
+     * true se il launcher predefinito può mostrare il widget a lista
+     */
+    static boolean useCollection(Context context) {
+        Intent home = new Intent(Intent.ACTION_MAIN).addCategory(Intent.CATEGORY_HOME);
+        ResolveInfo launcher = context.getPackageManager()
+            .resolveActivity(home, PackageManager.MATCH_DEFAULT_ONLY);
+        if (launcher == null || launcher.activityInfo == null) return false;
+        return !STATIC_ONLY_LAUNCHERS.contains(launcher.activityInfo.packageName);
     }
     
-    private int getTotalCount(Context context) {
-        try {
-            SharedPreferences p = context.getSharedPreferences("CapacitorStorage", Context.MODE_PRIVATE);
-            JSONArray arr = new JSONArray(p.getString("reminders", "[]"));
-            int c = 0;
-            for (int i = 0; i < arr.length(); i++) {
-                if (!arr.getJSONObject(i).optBoolean("isCompleted", false)) c++;
-            }
-            return c;
-        } catch (Exception e) {
-            return 0;
+    /**
+     * Layout statico dallo snapshot (le sue tre righe già formattate); uguale per tutte le istanze
+     */
+    static RemoteViews buildStaticViews(Context context, WidgetReminderReader.Result data) {
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_layout);
+        List<String[]> items = data.items;
+        
+        views.setTextViewText(R.id.widget_count, String.valueOf(data.openCount));
+        views.setTextViewText(R.id.widget_subtitle, 
+            new SimpleDateFormat("EEEE d MMM", Locale.getDefault()).format(new Date()));
+        
+        views.setViewVisibility(R.id.widget_item_1, View.GONE);
+        views.setViewVisibility(R.id.widget_item_2, View.GONE);
+        views.setViewVisibility(R.id.widget_item_3, View.GONE);
+        views.setViewVisibility(R.id.widget_empty, items.isEmpty() ? View.VISIBLE : View.GONE);
+        
+        int[] itemIds = {R.id.widget_item_1, R.id.widget_item_2, R.id.widget_item_3};
+        int[] iconIds = {R.id.widget_icon_1, R.id.widget_icon_2, R.id.widget_icon_3};
+        int[] titleIds = {R.id.widget_title_1, R.id.widget_title_2, R.id.widget_title_3};
+        int[] timeIds = {R.id.widget_time_1, R.id.widget_time_2, R.id.widget_time_3};
+        
+        for (int i = 0; i < Math.min(items.size(), 3); i++) {
+            String[] item = items.get(i);
+            views.setViewVisibility(itemIds[i], View.VISIBLE);
+            views.setTextViewText(iconIds[i], item[0]);
+            views.setTextViewText(titleIds[i], item[1]);
+            views.setTextViewText(timeIds[i], item[2]);
         }
+        
+        bindClicks(context, views);
+        return views;
     }
     
-    private List<String[]> getReminders(Context context) {
-        List<String[]> list = new ArrayList<>();
-        try {
-            SharedPreferences p = context.getSharedPreferences("CapacitorStorage", Context.MODE_PRIVATE);
-            JSONArray cats = new JSONArray(p.getString("categories", "[]"));
-            JSONArray rems = new JSONArray(p.getString("reminders", "[]"));
-            
-            HashMap<String, String> icons = new HashMap<>();
-            for (int i = 0; i < cats.length(); i++) {
-                JSONObject c = cats.getJSONObject(i);
-                icons.put(c.getString("id"), c.optString("icon", "📝"));
-            }
-            
-            Calendar today = Calendar.getInstance();
-            today.set(Calendar.HOUR_OF_DAY, 0);
-            today.set(Calendar.MINUTE, 0);
-            today.set(Calendar.SECOND, 0);
-            
-            Calendar week = (Calendar) today.clone();
-            week.add(Calendar.DAY_OF_YEAR, 7);
-            
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
-            
-            List<JSONObject> valid = new ArrayList<>();
-            for (int i = 0; i < rems.length(); i++) {
-                JSONObject r = rems.getJSONObject(i);
-                if (r.optBoolean("isCompleted", false)) continue;
-                String d = r.optString("date", "");
-                if (d.isEmpty()) continue;
-                try {
-                    Date dt = sdf.parse(d);
-                    if (dt != null && !dt.before(today.getTime()) && !dt.after(week.getTime())) {
-                        valid.add(r);
-                    }
-                } catch (Exception ignored) {}
-            }
-            
-            valid.sort((a, b) -> {
-                String da = a.optString("date", "") + a.optString("time", "");
-                String db = b.optString("date", "") + b.optString("time", "");
-                return da.compareTo(db);
-            });
-            
-            Calendar tomorrow = (Calendar) today.clone();
-            tomorrow.add(Calendar.DAY_OF_YEAR, 1);
-            
-            for (int i = 0; i < Math.min(valid.size(), 3); i++) {
-                JSONObject r = valid.get(i);
-                String icon = icons.getOrDefault(r.optString("categoryId", ""), "📝");
-                String title = r.optString("title", "");
-                String time = r.optString("time", "");
-                String dateStr = r.optString("date", "");
-                
-                String display;
-                try {
-                    Date dt = sdf.parse(dateStr);
-                    if (dt != null && dt.before(tomorrow.getTime())) {
-                        display = time.isEmpty() ? "Oggi" : time;
-                    } else if (dt != null && dt.before(new Date(tomorrow.getTimeInMillis() + 86400000))) {
-                        display = time.isEmpty() ? "Domani" : "Domani " + time;
-                    } else {
-                        display = new SimpleDateFormat("EEE", Locale.getDefault()).format(dt) + 
-                            (time.isEmpty() ? "" : " " + time);
-                    }
-                } catch (Exception e) {
-                    display = time;
-                }
-                
-                list.add(new String[]{icon, title, display});
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting reminders", e);
-        }
-        return list;
+    /**
+     * Lista scorrevole di una istanza: le righe arrivano a pagine da WidgetListService
+     */
+    static RemoteViews buildListViews(Context context, WidgetReminderReader.Result data, int appWidgetId) {
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_list_layout);
+        
+        views.setTextViewText(R.id.widget_count, String.valueOf(data.openCount));
+        views.setTextViewText(R.id.widget_subtitle, 
+            new SimpleDateFormat("EEEE d MMM", Locale.getDefault()).format(new Date()));
+        
+        // Un intent diverso per ogni istanza: alcuni launcher (Samsung) riusano l'adapter
+        // di un altro widget se gli intent coincidono, e la lista resta vuota o non si aggiorna
+        Intent adapter = new Intent(context, WidgetListService.class);
+        adapter.putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
+        adapter.setData(Uri.parse(adapter.toUri(Intent.URI_INTENT_SCHEME)));
+        views.setRemoteAdapter(R.id.widget_list, adapter);
+        views.setEmptyView(R.id.widget_list, R.id.widget_empty);
+        
+        // Le righe completano questo intent con l'id del promemoria
+        Intent open = new Intent(context, MainActivity.class);
+        open.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        views.setPendingIntentTemplate(R.id.widget_list,
+            PendingIntent.getActivity(context, 2000, open,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_MUTABLE));
+        
+        bindClicks(context, views);
+        return views;
+    }
+    
+    // Click handlers (stessi intent per ogni istanza)
+    private static void bindClicks(Context context, RemoteViews views) {
+        Intent main = new Intent(context, MainActivity.class);
+        main.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        views.setOnClickPendingIntent(R.id.widget_container, 
+            PendingIntent.getActivity(context, 0, main, 
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE));
+        
+        Intent add = new Intent(context, MainActivity.class);
+        add.putExtra("action", "add");
+        add.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        views.setOnClickPendingIntent(R.id.widget_add_button,
+            PendingIntent.getActivity(context, 1000, add,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE));
     }
 }
@@ -0,0 +1,30 @@
+package com.promemoria.app;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Campi di "notification-settings" usati dal lato nativo, letti dal JSON della WebView.
+ * Nessuna dipendenza Android (la misurano anche i benchmark JMH); il caching e il fallback
+ * sugli errori restano in NotificationSettings.
+ */
+final class SettingsJson {
+
+    static final String DEFAULT_RINGTONE = "chime";
+
+    final boolean alarmMode;
+    final boolean vibrationEnabled;
+    final String ringtone;
+
+    private SettingsJson(boolean alarmMode, boolean vibrationEnabled, String ringtone) {
+        this.alarmMode = alarmMode;
+        this.vibrationEnabled = vibrationEnabled;
+        this.ringtone = ringtone;
+    }
+
+    static SettingsJson parse(String settingsJson) throws JSONException {
+        JSONObject json = new JSONObject(settingsJson);
+        return new SettingsJson(json.optBoolean("alarmMode", false),
+            json.optBoolean("vibrationEnabled", false), json.optString("ringtone", DEFAULT_RINGTONE));
+    }
+}
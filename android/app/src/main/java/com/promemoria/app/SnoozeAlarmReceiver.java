@@ -6,15 +6,11 @@ import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Build;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 /**
  * Receiver per mostrare la notifica snoozata dopo 5 minuti
  */
@@ -28,25 +24,33 @@ public class SnoozeAlarmReceiver extends BroadcastReceiver {
         String reminderId = intent.getStringExtra(NotificationActionReceiver.EXTRA_REMINDER_ID);
         String title = intent.getStringExtra(NotificationActionReceiver.EXTRA_TITLE);
         String body = intent.getStringExtra(NotificationActionReceiver.EXTRA_BODY);
-        int notificationId = intent.getIntExtra(NotificationActionReceiver.EXTRA_NOTIFICATION_ID, 
-            getConsistentId(reminderId));
+        int extraId = intent.getIntExtra(NotificationActionReceiver.EXTRA_NOTIFICATION_ID, -1);
         
+        ReceiverExecutor.run(this, "snooze_fire", () -> {
+            int notificationId = extraId != -1 ? extraId : NotificationIds.get(context, reminderId);
+            // Gli snooze per-promemoria erano alarm esatti
+            fire(context, reminderId, title, body, notificationId, DeliveryPolicy.API_EXACT);
+        });
+    }
+    
+    static void fire(Context context, String reminderId, String title, String body, int notificationId, int api) {
         Log.d(TAG, "Snooze alarm triggered for: " + reminderId);
         
         // Verifica se il promemoria esiste ancora
-        if (!reminderExists(context, reminderId)) {
+        if (!ReminderStore.isActive(context, reminderId)) {
             Log.d(TAG, "Reminder no longer exists, skipping notification: " + reminderId);
             return;
         }
         
         Log.d(TAG, "Showing snoozed notification: " + title);
+        NativeEventBus.publish(NativeEventBus.TYPE_FIRED, reminderId);
         
-        // Leggi se alarmMode è attivo
-        SharedPreferences prefs = context.getSharedPreferences("CapacitorStorage", Context.MODE_PRIVATE);
-        String settingsJson = prefs.getString("notification-settings", "{}");
-        boolean alarmMode = settingsJson.contains("\"alarmMode\":true");
-        
-        if (alarmMode) {
+        // Leggi se alarmMode è attivo (impostazioni in cache)
+        NotificationSettings settings = NotificationSettings.get(context);
+        if (settings.alarmMode && DeliveryPolicy.allowsForegroundStart(context, api)) {
+            // Prepara la suoneria mentre il servizio parte
+            AlarmAudioEngine.warm(context, settings.ringtone);
+            
             // Avvia il servizio sveglia con suono in loop
             Intent serviceIntent = new Intent(context, AlarmService.class);
             serviceIntent.setAction(AlarmService.ACTION_START);
@@ -61,17 +65,20 @@ public class SnoozeAlarmReceiver extends BroadcastReceiver {
                 context.startService(serviceIntent);
             }
         } else {
+            if (settings.alarmMode) {
+                Log.w(TAG, "Delivered via " + DeliveryPolicy.name(api) + ", alarm service not allowed: plain notification");
+            }
             // Notifica semplice
             showSimpleNotification(context, reminderId, title, body, notificationId);
         }
     }
     
-    private void showSimpleNotification(Context context, String reminderId, String title, String body, int notificationId) {
+    private static void showSimpleNotification(Context context, String reminderId, String title, String body, int notificationId) {
         // Crea canale se necessario
         createNotificationChannel(context);
         
-        // Usa ID consistente per evitare duplicati
-        int consistentId = getConsistentId(reminderId);
+        // Usa ID stabile dall'allocatore per evitare duplicati
+        int consistentId = NotificationIds.get(context, reminderId);
         
         // Crea intents per le azioni
         Intent snoozeIntent = new Intent(context, NotificationActionReceiver.class);
@@ -80,14 +87,16 @@ public class SnoozeAlarmReceiver extends BroadcastReceiver {
         snoozeIntent.putExtra(NotificationActionReceiver.EXTRA_REMINDER_ID, reminderId);
         snoozeIntent.putExtra(NotificationActionReceiver.EXTRA_TITLE, title);
         snoozeIntent.putExtra(NotificationActionReceiver.EXTRA_BODY, body);
-        PendingIntent snoozePending = PendingIntent.getBroadcast(context, consistentId + 1, 
+        PendingIntent snoozePending = PendingIntent.getBroadcast(context, 
+            NotificationIds.requestCode(consistentId, NotificationIds.SLOT_SNOOZE_ACTION), 
             snoozeIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
         
         Intent completeIntent = new Intent(context, NotificationActionReceiver.class);
         completeIntent.setAction(NotificationActionReceiver.ACTION_COMPLETE);
         completeIntent.putExtra(NotificationActionReceiver.EXTRA_NOTIFICATION_ID, consistentId);
         completeIntent.putExtra(NotificationActionReceiver.EXTRA_REMINDER_ID, reminderId);
-        PendingIntent completePending = PendingIntent.getBroadcast(context, consistentId + 2, 
+        PendingIntent completePending = PendingIntent.getBroadcast(context, 
+            NotificationIds.requestCode(consistentId, NotificationIds.SLOT_COMPLETE_ACTION), 
             completeIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
         
         // Intent per aprire l'app quando si tocca la notifica
@@ -111,51 +120,11 @@ public class SnoozeAlarmReceiver extends BroadcastReceiver {
             .addAction(0, "⏰ 5 min", snoozePending);
         
         // Mostra notifica (usando ID consistente sovrascrive la precedente)
-        NotificationManager notificationManager = 
-            (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-        if (notificationManager != null) {
-            notificationManager.notify(consistentId, builder.build());
-            Log.d(TAG, "Notification shown with id: " + consistentId);
-        }
-    }
-    
-    /**
-     * Verifica se il promemoria esiste ancora nel localStorage
-     */
-    private boolean reminderExists(Context context, String reminderId) {
-        if (reminderId == null || reminderId.isEmpty() || reminderId.startsWith("test-")) {
-            return true; // Permetti test notifications
-        }
-        
-        try {
-            SharedPreferences prefs = context.getSharedPreferences("CapacitorStorage", Context.MODE_PRIVATE);
-            String remindersJson = prefs.getString("reminders", "[]");
-            JSONArray reminders = new JSONArray(remindersJson);
-            
-            for (int i = 0; i < reminders.length(); i++) {
-                JSONObject r = reminders.getJSONObject(i);
-                if (reminderId.equals(r.optString("id", ""))) {
-                    // Controlla anche che non sia completato
-                    return !r.optBoolean("isCompleted", false);
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error checking reminder existence", e);
-            return true; // In caso di errore, permetti la notifica
-        }
-        
-        return false;
-    }
-    
-    /**
-     * Genera un ID consistente basato sul reminderId
-     */
-    private int getConsistentId(String reminderId) {
-        if (reminderId == null) return (int) System.currentTimeMillis() % 1000000;
-        return Math.abs(reminderId.hashCode()) % 1000000;
+        NotificationDispatcher.post(context, consistentId, builder);
+        Log.d(TAG, "Notification queued with id: " + consistentId);
     }
     
-    private void createNotificationChannel(Context context) {
+    private static void createNotificationChannel(Context context) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationChannel channel = new NotificationChannel(
                 CHANNEL_ID,
@@ -0,0 +1,263 @@
+package com.promemoria.app;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Statistiche dei promemoria tenute aggiornate a ogni scrittura dello store: aperti/completati,
+ * per categoria, per priorità, in ritardo, oggi, settimana e mese. Ogni modifica costa O(1)
+ * (più la lookup del giorno); al cambio di data si ricalcolano solo le finestre temporali
+ * dall'istogramma per giorno, senza rileggere i promemoria.
+ */
+public final class StatsAggregates {
+
+    private static final String TAG = "StatsAggregates";
+
+    // Indici nei contatori {aperti, completati}
+    private static final int OPEN = 0;
+    private static final int COMPLETED = 1;
+
+    // Giorno non valido: conta nei totali ma in nessuna finestra
+    private static final long NO_DAY = Long.MIN_VALUE;
+
+    private final ReminderStore store;
+
+    // Stato protetto dal lock dell'istanza
+    private boolean loaded = false;
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    private final int[] totals = new int[2];
+    private final HashMap<String, int[]> byCategory = new HashMap<>();
+    private final HashMap<String, int[]> byPriority = new HashMap<>();
+    private final TreeMap<Long, int[]> byDay = new TreeMap<>();
+
+    // Finestre calcolate per questo giorno e fuso
+    private ZoneId zone;
+    private long today = NO_DAY;
+    private long weekStart;
+    private long weekEnd;
+    private long monthStart;
+    private long monthEnd;
+    private int overdue;
+    private final int[] todayCounts = new int[2];
+    private final int[] weekCounts = new int[2];
+    private final int[] monthCounts = new int[2];
+
+    /**
+     * Contributo di un promemoria: serve per toglierlo quando cambia
+     */
+    private static final class Entry {
+        final String categoryId;
+        final String priority;
+        final long day;
+        final boolean completed;
+
+        Entry(String categoryId, String priority, long day, boolean completed) {
+            this.categoryId = categoryId;
+            this.priority = priority;
+            this.day = day;
+            this.completed = completed;
+        }
+    }
+
+    StatsAggregates(ReminderStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Promemoria aperti (conteggio del widget)
+     */
+    public synchronized int openCount() {
+        ensureCurrent();
+        return totals[OPEN];
+    }
+
+    /**
+     * Tutti i contatori; i nomi delle finestre sono quelli di ReminderStats lato JS
+     */
+    public synchronized JSONObject toJson() throws JSONException {
+        ensureCurrent();
+
+        JSONObject json = new JSONObject();
+        json.put("totalReminders", totals[OPEN] + totals[COMPLETED]);
+        json.put("open", totals[OPEN]);
+        json.put("completed", totals[COMPLETED]);
+        json.put("overdueCount", overdue);
+        json.put("pendingToday", todayCounts[OPEN]);
+        json.put("completedToday", todayCounts[COMPLETED]);
+        json.put("pendingThisWeek", weekCounts[OPEN]);
+        json.put("completedThisWeek", weekCounts[COMPLETED]);
+        json.put("completedThisMonth", monthCounts[COMPLETED]);
+        json.put("byCategory", countsJson(byCategory));
+        json.put("byPriority", countsJson(byPriority));
+        return json;
+    }
+
+    private static JSONObject countsJson(Map<String, int[]> counts) throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            json.put(entry.getKey(), new JSONObject()
+                .put("open", entry.getValue()[OPEN])
+                .put("completed", entry.getValue()[COMPLETED]));
+        }
+        return json;
+    }
+
+    /**
+     * Dopo un sync completo: si ricarica dallo store alla prossima lettura
+     */
+    synchronized void invalidate() {
+        loaded = false;
+        entries.clear();
+        totals[OPEN] = totals[COMPLETED] = 0;
+        byCategory.clear();
+        byPriority.clear();
+        byDay.clear();
+        today = NO_DAY;
+    }
+
+    /**
+     * Stesse modifiche applicate allo store da applyDelta (le categorie non cambiano i contatori)
+     */
+    synchronized void applyDelta(JSONArray upserts, JSONArray deletes) {
+        if (!loaded) return;
+
+        for (int i = 0; i < deletes.length(); i++) {
+            remove(deletes.optString(i));
+        }
+        for (int i = 0; i < upserts.length(); i++) {
+            JSONObject r = upserts.optJSONObject(i);
+            if (r != null && !r.optString("id", "").isEmpty()) put(r);
+        }
+    }
+
+    synchronized void put(JSONObject reminder) {
+        if (!loaded) return;
+        String id = reminder.optString("id");
+        apply(entries.get(id), -1);
+        Entry entry = new Entry(reminder.optString("categoryId", ""), reminder.optString("priority", "medium"),
+            dayOf(reminder.optString("date", "")), reminder.optBoolean("isCompleted", false));
+        entries.put(id, entry);
+        apply(entry, 1);
+    }
+
+    synchronized void remove(String reminderId) {
+        if (!loaded) return;
+        apply(entries.remove(reminderId), -1);
+    }
+
+    synchronized void setCompleted(String reminderId, boolean completed) {
+        if (!loaded) return;
+        Entry old = entries.get(reminderId);
+        if (old == null || old.completed == completed) return;
+        Entry entry = new Entry(old.categoryId, old.priority, old.day, completed);
+        apply(old, -1);
+        entries.put(reminderId, entry);
+        apply(entry, 1);
+    }
+
+    // Aggiunge (sign = 1) o toglie (sign = -1) un promemoria da tutti i contatori
+    private void apply(Entry entry, int sign) {
+        if (entry == null) return;
+        int slot = entry.completed ? COMPLETED : OPEN;
+
+        totals[slot] += sign;
+        bump(byCategory, entry.categoryId, slot, sign);
+        bump(byPriority, entry.priority, slot, sign);
+        if (entry.day == NO_DAY) return;
+
+        int[] day = byDay.computeIfAbsent(entry.day, k -> new int[2]);
+        day[slot] += sign;
+        if (day[OPEN] == 0 && day[COMPLETED] == 0) byDay.remove(entry.day);
+
+        if (slot == OPEN && entry.day < today) overdue += sign;
+        if (entry.day == today) todayCounts[slot] += sign;
+        if (entry.day >= weekStart && entry.day <= weekEnd) weekCounts[slot] += sign;
+        if (entry.day >= monthStart && entry.day <= monthEnd) monthCounts[slot] += sign;
+    }
+
+    private static void bump(Map<String, int[]> counts, String key, int slot, int sign) {
+        int[] value = counts.computeIfAbsent(key, k -> new int[2]);
+        value[slot] += sign;
+        if (value[OPEN] == 0 && value[COMPLETED] == 0) counts.remove(key);
+    }
+
+    private long dayOf(String date) {
+        LocalDate day = ReminderTimes.localDay(date, zone);
+        return day != null ? day.toEpochDay() : NO_DAY;
+    }
+
+    // Carica se serve e sposta le finestre se è cambiato il giorno
+    private void ensureCurrent() {
+        ZoneId current = ZoneId.systemDefault();
+        if (loaded && !current.equals(zone)) {
+            // Cambio fuso: cambiano i giorni locali di tutti i promemoria
+            invalidate();
+        }
+        if (!loaded) {
+            zone = current;
+            load();
+        }
+
+        long now = LocalDate.now(zone).toEpochDay();
+        if (now != today) rollover(now);
+    }
+
+    private void load() {
+        long start = MetricsRegistry.beginSection("stats_load");
+        try {
+            SQLiteDatabase db = store.getReadableDatabase();
+            try (Cursor c = db.query(ReminderStore.TABLE_REMINDERS, new String[]{
+                    ReminderStore.COL_ID, ReminderStore.COL_CATEGORY_ID, ReminderStore.COL_PRIORITY,
+                    ReminderStore.COL_DATE, ReminderStore.COL_COMPLETED}, null, null, null, null, null)) {
+                while (c.moveToNext()) {
+                    Entry entry = new Entry(c.isNull(1) ? "" : c.getString(1), c.isNull(2) ? "medium" : c.getString(2),
+                        dayOf(c.getString(3)), c.getInt(4) != 0);
+                    entries.put(c.getString(0), entry);
+                    apply(entry, 1);
+                }
+            }
+            loaded = true;
+            Log.d(TAG, "Stats loaded: " + entries.size() + " reminders over " + byDay.size() + " days");
+        } finally {
+            MetricsRegistry.endSection(MetricsRegistry.histogram("stats.load"), start);
+        }
+    }
+
+    // Finestre del nuovo giorno dall'istogramma: O(giorni distinti), non O(promemoria)
+    private void rollover(long day) {
+        LocalDate date = LocalDate.ofEpochDay(day);
+        today = day;
+        weekStart = date.with(DayOfWeek.MONDAY).toEpochDay();
+        weekEnd = weekStart + 6;
+        monthStart = date.withDayOfMonth(1).toEpochDay();
+        monthEnd = date.withDayOfMonth(date.lengthOfMonth()).toEpochDay();
+
+        overdue = 0;
+        for (int[] counts : byDay.headMap(today, false).values()) {
+            overdue += counts[OPEN];
+        }
+        sum(todayCounts, today, today);
+        sum(weekCounts, weekStart, weekEnd);
+        sum(monthCounts, monthStart, monthEnd);
+    }
+
+    private void sum(int[] into, long from, long to) {
+        into[OPEN] = into[COMPLETED] = 0;
+        for (int[] counts : byDay.subMap(from, true, to, true).values()) {
+            into[OPEN] += counts[OPEN];
+            into[COMPLETED] += counts[COMPLETED];
+        }
+    }
+}
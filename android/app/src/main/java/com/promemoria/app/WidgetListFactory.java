@@ -0,0 +1,147 @@
+package com.promemoria.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+import android.widget.RemoteViews;
+import android.widget.RemoteViewsService;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Righe del widget a lista, lette dallo store a pagine man mano che scorrono in vista.
+ * Si tengono in memoria solo le ultime MAX_PAGES pagine usate, quindi anche con centinaia
+ * di promemoria il processo del widget non carica mai la lista intera.
+ */
+public class WidgetListFactory implements RemoteViewsService.RemoteViewsFactory {
+
+    private static final String TAG = "WidgetListFactory";
+
+    static final String EXTRA_REMINDER_ID = "reminderId";
+
+    private static final int PAGE_SIZE = 25;
+    private static final int MAX_PAGES = 4;
+
+    private final Context context;
+
+    // getViewAt e onDataSetChanged arrivano dal thread binder del servizio
+    private final Map<Integer, List<String[]>> pages = Collections.synchronizedMap(
+        new LinkedHashMap<Integer, List<String[]>>(MAX_PAGES + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<String[]>> eldest) {
+                return size() > MAX_PAGES;
+            }
+        });
+
+    private volatile int count = 0;
+    private volatile ZoneId zone = ZoneId.systemDefault();
+    private volatile LocalDate today = LocalDate.now();
+    private volatile long from = 0;
+
+    WidgetListFactory(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void onCreate() {}
+
+    @Override
+    public void onDataSetChanged() {
+        // Solo il conteggio (due ricerche binarie sull'agenda): le righe si leggono quando servono
+        pages.clear();
+        try {
+            AgendaIndex agenda = ReminderStore.getInstance(context).getAgenda();
+            zone = agenda.zone();
+            today = LocalDate.now(zone);
+            from = today.atStartOfDay(zone).toInstant().toEpochMilli();
+            count = agenda.count(from, Long.MAX_VALUE);
+        } catch (Exception e) {
+            Log.e(TAG, "Error counting upcoming reminders", e);
+            count = 0;
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        pages.clear();
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public RemoteViews getViewAt(int position) {
+        RemoteViews row = new RemoteViews(context.getPackageName(), R.layout.widget_list_row);
+        String[] item = rowAt(position);
+        if (item == null) return row;
+
+        row.setTextViewText(R.id.widget_row_icon, item[1]);
+        row.setTextViewText(R.id.widget_row_title, item[2]);
+        row.setTextViewText(R.id.widget_row_time, formatWhen(item[0], item[4]));
+
+        Intent fillIn = new Intent();
+        fillIn.putExtra(EXTRA_REMINDER_ID, item[0]);
+        row.setOnClickFillInIntent(R.id.widget_row, fillIn);
+        return row;
+    }
+
+    @Override
+    public RemoteViews getLoadingView() {
+        return null;
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return 1;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        String[] item = rowAt(position);
+        return item != null ? item[0].hashCode() : position;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    private String[] rowAt(int position) {
+        if (position < 0 || position >= count) return null;
+
+        int page = position / PAGE_SIZE;
+        List<String[]> rows = pages.get(page);
+        if (rows == null) {
+            try {
+                rows = ReminderStore.getInstance(context).getAgendaRows(from, Long.MAX_VALUE, page * PAGE_SIZE, PAGE_SIZE);
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading page " + page, e);
+                return null;
+            }
+            pages.put(page, rows);
+        }
+
+        int index = position % PAGE_SIZE;
+        return index < rows.size() ? rows.get(index) : null;
+    }
+
+    // Come il widget statico; oltre la settimana serve anche la data
+    private String formatWhen(String reminderId, String time) {
+        long dueAt = ReminderStore.getInstance(context).getAgenda().dueAt(reminderId);
+        LocalDate day = WidgetReminderReader.dayOf(dueAt, zone);
+        if (day == null || !day.isAfter(today.plusDays(7))) {
+            return WidgetReminderReader.formatWhen(dueAt, time, zone, today);
+        }
+        return day.format(DateTimeFormatter.ofPattern("d MMM", Locale.getDefault()))
+            + (time == null || time.isEmpty() ? "" : " " + time);
+    }
+}
@@ -0,0 +1,15 @@
+package com.promemoria.app;
+
+import android.content.Intent;
+import android.widget.RemoteViewsService;
+
+/**
+ * Servizio delle righe del widget a lista (vedi WidgetListFactory)
+ */
+public class WidgetListService extends RemoteViewsService {
+
+    @Override
+    public RemoteViewsFactory onGetViewFactory(Intent intent) {
+        return new WidgetListFactory(getApplicationContext());
+    }
+}
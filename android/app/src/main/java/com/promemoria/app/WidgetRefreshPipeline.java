@@ -0,0 +1,136 @@
+package com.promemoria.app;
+
+import android.appwidget.AppWidgetManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unico punto di aggiornamento dei widget.
+ * Le richieste che arrivano a raffica (un sync dopo l'altro, più broadcast di refresh)
+ * vengono raccolte per DEBOUNCE_MS; poi il modello si calcola una volta sola e
+ * la vista (lista o layout statico) viene applicata a tutte le istanze, su un thread dedicato.
+ */
+public final class WidgetRefreshPipeline {
+
+    private static final String TAG = "WidgetRefreshPipeline";
+
+    private static final long DEBOUNCE_MS = 300;
+
+    // Una raffica continua non può rimandare oltre: i broadcast trattenuti hanno circa 10 secondi
+    private static final long MAX_DELAY_MS = 2_000;
+
+    private static Handler handler;
+
+    // Stato toccato solo dal thread dell'handler
+    private static Context appContext;
+    private static final List<BroadcastReceiver.PendingResult> held = new ArrayList<>();
+    private static boolean dataChanged = false;
+    private static long firstRequestAt = -1;
+    private static int requests = 0;
+
+    private WidgetRefreshPipeline() {}
+
+    /**
+     * Dai dati cambiati (sync, azione da notifica): lo snapshot va ricalcolato
+     */
+    public static void invalidate(Context context) {
+        enqueue(context, null, true);
+    }
+
+    /**
+     * Da onReceive del widget: il broadcast resta vivo (goAsync) fino al bind
+     */
+    public static void request(BroadcastReceiver receiver, Context context) {
+        enqueue(context, receiver.goAsync(), false);
+    }
+
+    private static void enqueue(Context context, BroadcastReceiver.PendingResult result, boolean changed) {
+        Context app = context.getApplicationContext();
+        handler().post(() -> {
+            appContext = app;
+            if (result != null) held.add(result);
+            dataChanged |= changed;
+            requests++;
+
+            long now = SystemClock.elapsedRealtime();
+            if (firstRequestAt == -1) firstRequestAt = now;
+            long delay = Math.min(DEBOUNCE_MS, firstRequestAt + MAX_DELAY_MS - now);
+
+            handler.removeCallbacks(refresh);
+            handler.postDelayed(refresh, Math.max(0, delay));
+        });
+    }
+
+    private static synchronized Handler handler() {
+        if (handler == null) {
+            HandlerThread thread = new HandlerThread("WidgetRefresh", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler;
+    }
+
+    private static final Runnable refresh = () -> {
+        long startedAt = SystemClock.elapsedRealtime();
+        boolean changed = dataChanged;
+        int merged = requests;
+        dataChanged = false;
+        firstRequestAt = -1;
+        requests = 0;
+
+        try {
+            // Una sola lettura per tutte le istanze
+            WidgetReminderReader.Result data = changed
+                ? WidgetSnapshot.rebuild(appContext)
+                : WidgetSnapshot.load(appContext);
+
+            AppWidgetManager mgr = AppWidgetManager.getInstance(appContext);
+            int[] ids = mgr.getAppWidgetIds(new ComponentName(appContext, ReminderWidgetProvider.class));
+            if (ids.length > 0 && ReminderWidgetProvider.useCollection(appContext)) {
+                for (int id : ids) {
+                    mgr.updateAppWidget(id, ReminderWidgetProvider.buildListViews(appContext, data, id));
+                }
+                // Le righe si rileggono dallo store solo quando la lista è visibile
+                mgr.notifyAppWidgetViewDataChanged(ids, R.id.widget_list);
+            } else if (ids.length > 0) {
+                // Launcher in blocklist: le tre righe dello snapshot, stessa vista per tutte le istanze
+                mgr.updateAppWidget(ids, ReminderWidgetProvider.buildStaticViews(appContext, data));
+            }
+
+            Log.d(TAG, "Refreshed " + ids.length + " widgets for " + merged + " requests in "
+                + (SystemClock.elapsedRealtime() - startedAt) + " ms");
+        } catch (Exception e) {
+            Log.e(TAG, "Error refreshing widgets", e);
+        } finally {
+            for (BroadcastReceiver.PendingResult result : held) {
+                result.finish();
+            }
+            held.clear();
+        }
+    };
+
+    /**
+     * Solo per i test: un nuovo thread e nessuna richiesta in attesa
+     */
+    static synchronized void resetForTest() {
+        // Il thread del test precedente si ferma senza eseguire i refresh ancora in coda
+        if (handler != null) {
+            handler.removeCallbacksAndMessages(null);
+            handler.getLooper().quit();
+            handler = null;
+        }
+        held.clear();
+        dataChanged = false;
+        firstRequestAt = -1;
+        requests = 0;
+    }
+}
@@ -0,0 +1,84 @@
+package com.promemoria.app;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Modello del widget letto dallo store nativo (aggiornato a delta dalla WebView):
+ * conteggio dei promemoria aperti e i primi K in scadenza nei prossimi 7 giorni,
+ * presi già ordinati dall'agenda nativa.
+ */
+public class WidgetReminderReader {
+
+    private static final String TAG = "WidgetReminderReader";
+
+    /**
+     * Risultato della lettura: numero di aperti e righe già pronte {icona, titolo, orario}
+     */
+    public static class Result {
+        public final int openCount;
+        public final List<String[]> items;
+
+        Result(int openCount, List<String[]> items) {
+            this.openCount = openCount;
+            this.items = items;
+        }
+    }
+
+    public static Result read(Context context, int limit) {
+        try {
+            ReminderStore store = ReminderStore.getInstance(context);
+            // Contatore aggregato: niente scansione della tabella a ogni refresh
+            int open = store.getStats().openCount();
+
+            // Oggi e i 7 giorni seguenti: un range sull'agenda, righe già in ordine di scadenza
+            AgendaIndex agenda = store.getAgenda();
+            ZoneId zone = agenda.zone();
+            LocalDate today = LocalDate.now(zone);
+            long from = today.atStartOfDay(zone).toInstant().toEpochMilli();
+            long to = today.plusDays(8).atStartOfDay(zone).toInstant().toEpochMilli();
+
+            List<String[]> items = new ArrayList<>(limit);
+            for (String[] row : store.getAgendaRows(from, to, 0, limit)) {
+                items.add(new String[]{row[1], row[2], formatWhen(agenda.dueAt(row[0]), row[4], zone, today)});
+            }
+            return new Result(open, items);
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading reminders", e);
+            return new Result(0, Collections.emptyList());
+        }
+    }
+
+    /**
+     * Giorno locale di una scadenza dell'agenda (epoch millis), oppure null se sconosciuta
+     */
+    static LocalDate dayOf(long dueAt, ZoneId zone) {
+        return dueAt == -1 ? null : Instant.ofEpochMilli(dueAt).atZone(zone).toLocalDate();
+    }
+
+    /**
+     * Etichetta "Oggi" / "Domani" / giorno della settimana, calcolata solo per le righe mostrate
+     */
+    static String formatWhen(long dueAt, String time, ZoneId zone, LocalDate today) {
+        String clock = time == null ? "" : time;
+        LocalDate day = dayOf(dueAt, zone);
+        if (day == null) return clock;
+        if (day.equals(today)) {
+            return clock.isEmpty() ? "Oggi" : clock;
+        }
+        if (day.equals(today.plusDays(1))) {
+            return clock.isEmpty() ? "Domani" : "Domani " + clock;
+        }
+        return day.format(DateTimeFormatter.ofPattern("EEE", Locale.getDefault()))
+            + (clock.isEmpty() ? "" : " " + clock);
+    }
+}
@@ -0,0 +1,86 @@
+package com.promemoria.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Snapshot già pronto per il widget: conteggio aperti + righe formattate.
+ * Ricostruito solo quando i dati cambiano (sync dalla WebView) o cambia il giorno;
+ * il widget si limita a leggerlo e a fare il bind.
+ */
+public class WidgetSnapshot {
+
+    private static final String TAG = "WidgetSnapshot";
+    private static final String PREFS_NAME = "WidgetSnapshot";
+    public static final int MAX_ITEMS = 3;
+
+    private static final String KEY_DAY = "day";
+    private static final String KEY_OPEN_COUNT = "open_count";
+    private static final String KEY_ITEM_COUNT = "item_count";
+
+    /**
+     * Ricalcola lo snapshot dai dati sincronizzati e lo salva
+     */
+    public static WidgetReminderReader.Result rebuild(Context context) {
+        WidgetReminderReader.Result data = WidgetReminderReader.read(context, MAX_ITEMS);
+
+        SharedPreferences.Editor editor = prefs(context).edit()
+            .clear()
+            .putString(KEY_DAY, today())
+            .putInt(KEY_OPEN_COUNT, data.openCount)
+            .putInt(KEY_ITEM_COUNT, data.items.size());
+        for (int i = 0; i < data.items.size(); i++) {
+            String[] item = data.items.get(i);
+            editor.putString("icon_" + i, item[0])
+                .putString("title_" + i, item[1])
+                .putString("when_" + i, item[2]);
+        }
+        editor.apply();
+
+        Log.d(TAG, "Snapshot rebuilt: " + data.openCount + " open, " + data.items.size() + " items");
+        return data;
+    }
+
+    /**
+     * Legge lo snapshot; se manca o è di un altro giorno ("Oggi"/"Domani" scaduti) lo ricostruisce
+     */
+    public static WidgetReminderReader.Result load(Context context) {
+        SharedPreferences p = prefs(context);
+        if (!today().equals(p.getString(KEY_DAY, ""))) {
+            return rebuild(context);
+        }
+
+        int count = p.getInt(KEY_ITEM_COUNT, 0);
+        List<String[]> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(new String[]{
+                p.getString("icon_" + i, ""),
+                p.getString("title_" + i, ""),
+                p.getString("when_" + i, "")
+            });
+        }
+        return new WidgetReminderReader.Result(p.getInt(KEY_OPEN_COUNT, 0), items);
+    }
+
+    /**
+     * Segna i dati come cambiati: snapshot e widget vengono ricalcolati una volta per raffica
+     */
+    public static void publish(Context context) {
+        WidgetRefreshPipeline.invalidate(context);
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static String today() {
+        return new SimpleDateFormat("yyyy-MM-dd", Locale.US).format(new Date());
+    }
+}
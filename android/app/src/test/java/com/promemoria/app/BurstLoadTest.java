@@ -0,0 +1,390 @@
+package com.promemoria.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.AlarmManager;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.shadows.ShadowAlarmManager;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Load test della pipeline nativa: raffiche di scatti nello stesso minuto, tap ripetuti
+ * su Fatto/5 min, sessioni sveglia affollate e tempeste di refresh del widget.
+ * Ogni scenario stampa throughput, percentili di latenza per intent e notifiche perse/doppie
+ * (vedi LoadHarness); le asserzioni fissano gli invarianti, non i tempi.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BurstLoadTest {
+
+    private static final long TIMEOUT_MS = 60_000;
+
+    // Tempo finto concesso al dispatcher per smaltire l'arretrato (4 notify/s)
+    private static final long DRAIN_MS = 10 * 60_000;
+
+    private Context context;
+    private LoadHarness harness;
+    private NotificationManager notificationManager;
+    private AlarmManager alarmManager;
+    private final Random random = new Random(42);
+
+    @Before
+    public void setUp() {
+        LoadHarness.resetNativeState();
+        context = RuntimeEnvironment.getApplication();
+        harness = new LoadHarness(context);
+        notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        ShadowAlarmManager.setCanScheduleExactAlarms(true);
+    }
+
+    @After
+    public void tearDown() {
+        // Niente debounce o flush a metà per il test successivo
+        harness.advance(5_000);
+    }
+
+    @Test
+    public void queuedBurstInTheSameMinute() throws Exception {
+        runQueuedBurst("queued burst x200", 200);
+    }
+
+    @Test
+    public void queuedBurstOverDispatchBacklog() throws Exception {
+        runQueuedBurst("queued burst x1000", 1000);
+    }
+
+    private void runQueuedBurst(String name, int size) throws Exception {
+        List<String> ids = harness.seedReminders(size);
+        long now = System.currentTimeMillis();
+        List<AlarmQueue.Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new AlarmQueue.Entry(ids.get(i), AlarmQueue.KIND_REMINDER,
+                now - (i % 60) * 1000L, "Promemoria " + i, ""));
+        }
+        AlarmQueue.enqueueAll(context, entries);
+        assertEquals(1, shadowOf(alarmManager).getScheduledAlarms().size());
+
+        long postedBefore = LoadHarness.counter("notify.posted");
+        long foldedBefore = LoadHarness.counter("notify.folded");
+
+        // Il sistema può consegnare più volte lo stesso alarm di testa
+        LoadHarness.Run run = new LoadHarness.Run(name);
+        for (int i = 0; i < 20; i++) {
+            Intent fire = new Intent(context, ReminderAlarmReceiver.class)
+                .setAction(AlarmQueue.ACTION_FIRE_DUE)
+                .putExtra(AlarmQueue.EXTRA_TRIGGER_AT, now)
+                .putExtra(AlarmQueue.EXTRA_DELIVERY_API, DeliveryPolicy.API_ALARM_CLOCK);
+            harness.deliver(run, new ReminderAlarmReceiver(), fire);
+        }
+        assertEquals(0, harness.await(run, 0, TIMEOUT_MS));
+
+        Map<String, Integer> fired = LoadHarness.drainEvents(NativeEventBus.TYPE_FIRED, null);
+        assertTrue(harness.advanceUntil(() -> LoadHarness.counter("notify.posted") - postedBefore
+            + LoadHarness.counter("notify.folded") - foldedBefore >= fired.size(), DRAIN_MS));
+
+        long posted = LoadHarness.counter("notify.posted") - postedBefore;
+        long folded = LoadHarness.counter("notify.folded") - foldedBefore;
+        int visible = ids.size() - missingNotifications(ids);
+        int lost = lostNotifications(ids);
+        int duplicated = LoadHarness.extra(fired) + (int) Math.max(0, posted - visible);
+        run.report(lost, duplicated, "visible=" + visible + " folded=" + folded);
+
+        assertEquals(size, fired.size());
+        assertEquals(0, duplicated);
+        // Oltre il tetto di notifiche visibili i promemoria finiscono nel riepilogo, nessuno si perde
+        assertEquals(0, lost);
+        assertEquals(0, queueSize());
+        assertEquals(0, shadowOf(alarmManager).getScheduledAlarms().size());
+    }
+
+    @Test
+    public void directIntentsCoalescePerReminder() throws Exception {
+        List<String> ids = harness.seedReminders(100);
+        List<Intent> intents = new ArrayList<>();
+        for (String id : ids) {
+            int notificationId = NotificationIds.get(context, id);
+            for (int copy = 0; copy < 2; copy++) {
+                intents.add(actionIntent(new Intent(context, ReminderAlarmReceiver.class), id, notificationId));
+                intents.add(actionIntent(new Intent(context, SnoozeAlarmReceiver.class), id, notificationId));
+            }
+        }
+        Collections.shuffle(intents, random);
+
+        long postedBefore = LoadHarness.counter("notify.posted");
+        long foldedBefore = LoadHarness.counter("notify.folded");
+        LoadHarness.Run run = new LoadHarness.Run("direct alarm+snooze");
+        for (Intent intent : intents) {
+            boolean snooze = SnoozeAlarmReceiver.class.getName().equals(intent.getComponent().getClassName());
+            harness.deliver(run, snooze ? new SnoozeAlarmReceiver() : new ReminderAlarmReceiver(), intent);
+        }
+        assertEquals(0, harness.await(run, 0, TIMEOUT_MS));
+
+        Map<String, Integer> fired = LoadHarness.drainEvents(NativeEventBus.TYPE_FIRED, null);
+        assertTrue(harness.advanceUntil(() -> LoadHarness.counter("notify.posted") - postedBefore
+            + LoadHarness.counter("notify.folded") - foldedBefore >= ids.size(), DRAIN_MS));
+        harness.advance(2_000);
+
+        long posted = LoadHarness.counter("notify.posted") - postedBefore;
+        int visible = ids.size() - missingNotifications(ids);
+        int lost = lostNotifications(ids);
+        // La prima notifica esce subito, fuori dalla finestra: i suoi scatti successivi la sostituiscono una volta
+        int duplicated = (int) Math.max(0, posted - visible - 1);
+        run.report(lost, duplicated);
+
+        // Quattro scatti per promemoria, una sola notify() (o riga del riepilogo) ciascuno
+        assertEquals(ids.size(), fired.size());
+        assertEquals(0, lost);
+        assertEquals(0, duplicated);
+    }
+
+    @Test
+    public void snoozeAndCompleteTapStorm() throws Exception {
+        List<String> ids = harness.seedReminders(300);
+        Map<String, Integer> notificationIds = new HashMap<>();
+        for (String id : ids) {
+            notificationIds.put(id, NotificationIds.get(context, id));
+        }
+
+        Set<String> completed = new HashSet<>();
+        Map<String, Integer> expectedSnoozes = new HashMap<>();
+        Map<String, Integer> snoozed = new HashMap<>();
+        LoadHarness.Run run = new LoadHarness.Run("snooze/complete taps");
+
+        for (int round = 0; round < 5; round++) {
+            List<String> order = new ArrayList<>(ids);
+            Collections.shuffle(order, random);
+            for (String id : order) {
+                String action = random.nextInt(4) == 0
+                    ? NotificationActionReceiver.ACTION_COMPLETE
+                    : NotificationActionReceiver.ACTION_SNOOZE;
+                // Doppio tap: due broadcast quasi insieme per lo stesso pulsante
+                int taps = random.nextInt(10) < 3 ? 2 : 1;
+                for (int t = 0; t < taps; t++) {
+                    if (action.equals(NotificationActionReceiver.ACTION_SNOOZE) && !completed.contains(id)) {
+                        expectedSnoozes.merge(id, 1, Integer::sum);
+                    }
+                    Intent intent = actionIntent(new Intent(context, NotificationActionReceiver.class),
+                        id, notificationIds.get(id)).setAction(action);
+                    harness.deliver(run, new NotificationActionReceiver(), intent);
+                }
+                if (action.equals(NotificationActionReceiver.ACTION_COMPLETE)) completed.add(id);
+            }
+            assertEquals(0, harness.await(run, 0, TIMEOUT_MS));
+            // Un giro alla volta: il buffer degli eventi tiene 1024 elementi
+            LoadHarness.drainEvents(NativeEventBus.TYPE_SNOOZED, null)
+                .forEach((id, count) -> snoozed.merge(id, count, Integer::sum));
+        }
+
+        ReminderStore store = ReminderStore.getInstance(context);
+        int lost = 0;
+        int duplicated = 0;
+        for (String id : ids) {
+            int snoozeRows = queueRows(id, AlarmQueue.KIND_SNOOZE);
+            if (completed.contains(id)) {
+                if (store.getState(id) != ReminderStore.STATE_COMPLETED || queueRows(id, -1) != 0) lost++;
+            } else if (snoozeRows == 0) {
+                lost++;
+            }
+            duplicated += Math.max(0, snoozeRows - 1);
+            duplicated += Math.max(0, snoozed.getOrDefault(id, 0) - expectedSnoozes.getOrDefault(id, 0));
+        }
+        run.report(lost, duplicated, "completed=" + completed.size());
+
+        assertEquals(0, lost);
+        assertEquals(0, duplicated);
+        assertTrue(shadowOf(alarmManager).getScheduledAlarms().size() <= 1);
+    }
+
+    @Test
+    public void alarmSessionUnderBurst() throws Exception {
+        context.getSharedPreferences("CapacitorStorage", Context.MODE_PRIVATE).edit()
+            .putString(NotificationSettings.KEY_SETTINGS,
+                "{\"alarmMode\":true,\"vibrationEnabled\":true,\"ringtone\":\"chime\"}")
+            .commit();
+        List<String> ids = harness.seedReminders(100);
+        ServiceController<AlarmService> controller = Robolectric.buildService(AlarmService.class).create();
+        AlarmService service = controller.get();
+
+        // 400 avvii su 100 promemoria: ogni promemoria arriva più volte mentre la sessione suona
+        Set<String> distinct = new HashSet<>();
+        LoadHarness.Run starts = new LoadHarness.Run("alarm session starts");
+        for (int i = 0; i < 400; i++) {
+            String id = ids.get(random.nextInt(ids.size()));
+            distinct.add(id);
+            Intent intent = actionIntent(new Intent(context, AlarmService.class), id, NotificationIds.get(context, id))
+                .setAction(AlarmService.ACTION_START);
+            harness.call(starts, () -> service.onStartCommand(intent, 0, 0));
+        }
+        harness.advance(1_000);
+
+        Notification session = shadowOf(service).getLastForegroundNotification();
+        int sessionItems = session != null ? session.number : 0;
+        int children = 0;
+        for (String id : distinct) {
+            if (shadowOf(notificationManager).getNotification(NotificationIds.find(context, id)) != null) children++;
+        }
+        starts.report(distinct.size() - children, Math.max(0, sessionItems - distinct.size()),
+            "session items=" + sessionItems);
+
+        assertEquals(distinct.size(), sessionItems);
+        assertEquals(distinct.size(), children);
+
+        // Fatto su tutti tranne uno, poi sull'ultimo: la sessione si chiude da sola
+        LoadHarness.Run dismisses = new LoadHarness.Run("alarm session dismiss");
+        for (String id : distinct) {
+            Intent intent = actionIntent(new Intent(context, AlarmService.class), id, NotificationIds.find(context, id))
+                .setAction(AlarmService.ACTION_DISMISS);
+            harness.call(dismisses, () -> service.onStartCommand(intent, 0, 0));
+        }
+        int leftovers = 0;
+        for (String id : ids) {
+            if (shadowOf(notificationManager).getNotification(NotificationIds.find(context, id)) != null) leftovers++;
+        }
+        dismisses.report(0, leftovers);
+
+        assertEquals(0, leftovers);
+        assertTrue(shadowOf(service).isStoppedBySelf());
+        assertEquals(0, LoadHarness.drainEvents(NativeEventBus.TYPE_DISMISSED, null).size());
+
+        // Nessuna risposta: dopo 60 secondi lo stop automatico chiude tutti come ignorati
+        for (int i = 0; i < 50; i++) {
+            String id = ids.get(i);
+            Intent intent = actionIntent(new Intent(context, AlarmService.class), id, NotificationIds.get(context, id))
+                .setAction(AlarmService.ACTION_START);
+            service.onStartCommand(intent, 0, 0);
+        }
+        harness.advance(61_000);
+        assertEquals(50, LoadHarness.drainEvents(NativeEventBus.TYPE_DISMISSED, null).size());
+        controller.destroy();
+    }
+
+    @Test
+    public void widgetRefreshStorm() throws Exception {
+        harness.seedReminders(500);
+        AppWidgetManager widgets = AppWidgetManager.getInstance(context);
+        shadowOf(widgets).setAllowedToBindAppWidgets(true);
+        ComponentName provider = new ComponentName(context, ReminderWidgetProvider.class);
+        int[] widgetIds = {1, 2, 3};
+        for (int id : widgetIds) {
+            widgets.bindAppWidgetIdIfAllowed(id, provider);
+        }
+
+        int logsBefore = ShadowLog.getLogsForTag("WidgetRefreshPipeline").size();
+
+        // 20 ondate a 100 ms l'una dall'altra: refresh espliciti, APPWIDGET_UPDATE e sync dei dati
+        LoadHarness.Run run = new LoadHarness.Run("widget refresh storm");
+        int invalidations = 0;
+        for (int wave = 0; wave < 20; wave++) {
+            for (int i = 0; i < 100; i++) {
+                Intent intent = i % 2 == 0
+                    ? new Intent(context, ReminderWidgetProvider.class).setAction(ReminderWidgetProvider.ACTION_REFRESH)
+                    : new Intent(context, ReminderWidgetProvider.class).setAction(AppWidgetManager.ACTION_APPWIDGET_UPDATE)
+                        .putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, widgetIds);
+                harness.deliver(run, new ReminderWidgetProvider(), intent);
+                if (i % 10 == 0) {
+                    WidgetSnapshot.publish(context);
+                    invalidations++;
+                }
+            }
+            harness.advance(100);
+        }
+        int unfinished = harness.await(run, 250, TIMEOUT_MS);
+
+        // Dal log di ogni refresh: "Refreshed <widget> widgets for <richieste> requests in ..."
+        int refreshes = 0;
+        int requests = 0;
+        List<ShadowLog.LogItem> logs = ShadowLog.getLogsForTag("WidgetRefreshPipeline");
+        for (ShadowLog.LogItem item : logs.subList(logsBefore, logs.size())) {
+            String[] words = item.msg.split(" ");
+            if (!"Refreshed".equals(words[0])) continue;
+            assertEquals(String.valueOf(widgetIds.length), words[1]);
+            requests += Integer.parseInt(words[4]);
+            refreshes++;
+        }
+        run.report(unfinished, 0, "requests=" + requests + " refreshes=" + refreshes);
+
+        // Ogni broadcast trattenuto viene rilasciato, tutte le istanze hanno la vista,
+        // e la raffica si chiude in pochi refresh
+        assertEquals(0, unfinished);
+        for (int id : widgetIds) {
+            assertNotNull(shadowOf(widgets).getViewFor(id));
+        }
+        assertEquals(run.sent() + invalidations, requests);
+        assertTrue(refreshes >= 1);
+        assertTrue(refreshes <= 5);
+    }
+
+    private static Intent actionIntent(Intent intent, String reminderId, int notificationId) {
+        return intent
+            .putExtra(NotificationActionReceiver.EXTRA_NOTIFICATION_ID, notificationId)
+            .putExtra(NotificationActionReceiver.EXTRA_REMINDER_ID, reminderId)
+            .putExtra(NotificationActionReceiver.EXTRA_TITLE, "Promemoria " + reminderId)
+            .putExtra(NotificationActionReceiver.EXTRA_BODY, "");
+    }
+
+    private int missingNotifications(List<String> ids) {
+        int missing = 0;
+        for (String id : ids) {
+            if (shadowOf(notificationManager).getNotification(NotificationIds.find(context, id)) == null) missing++;
+        }
+        return missing;
+    }
+
+    // Promemoria né visibili né contati nel riepilogo del gruppo
+    private int lostNotifications(List<String> ids) {
+        int missing = missingNotifications(ids);
+        int inSummary = 0;
+        for (Notification n : shadowOf(notificationManager).getAllNotifications()) {
+            if (NotificationDispatcher.GROUP_KEY.equals(n.getGroup()) && (n.flags & Notification.FLAG_GROUP_SUMMARY) != 0) {
+                // Il riepilogo conta le notifiche visibili più quelle raccolte
+                inSummary = n.number - (ids.size() - missing);
+            }
+        }
+        return missing - inSummary;
+    }
+
+    private long queueSize() {
+        SQLiteDatabase db = ReminderStore.getInstance(context).getReadableDatabase();
+        return DatabaseUtils.queryNumEntries(db, ReminderStore.TABLE_ALARM_QUEUE);
+    }
+
+    // kind -1: tutti gli scatti del promemoria
+    private int queueRows(String reminderId, int kind) {
+        SQLiteDatabase db = ReminderStore.getInstance(context).getReadableDatabase();
+        if (kind < 0) {
+            return (int) DatabaseUtils.queryNumEntries(db, ReminderStore.TABLE_ALARM_QUEUE,
+                ReminderStore.COL_REMINDER_ID + " = ?", new String[]{reminderId});
+        }
+        return (int) DatabaseUtils.queryNumEntries(db, ReminderStore.TABLE_ALARM_QUEUE,
+            ReminderStore.COL_REMINDER_ID + " = ? AND " + ReminderStore.COL_KIND + " = ?",
+            new String[]{reminderId, String.valueOf(kind)});
+    }
+}
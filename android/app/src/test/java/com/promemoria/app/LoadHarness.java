@@ -0,0 +1,300 @@
+package com.promemoria.app;
+
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowBroadcastPendingResult;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowSystemClock;
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Motore del load test: consegna intent sintetici ai receiver come farebbe il sistema
+ * (un'istanza per broadcast, PendingResult per goAsync), misura la latenza fino a finish()
+ * e tiene il conto degli eventi nativi per trovare notifiche perse o doppie.
+ * I tempi sono reali (System.nanoTime); SystemClock è l'orologio finto di Robolectric
+ * e avanza solo con advance(), che fa girare anche debounce, token bucket e timeout.
+ */
+final class LoadHarness {
+
+    private static final long POLL_NANOS = 50_000;
+    private static final long ADVANCE_STEP_MS = 250;
+
+    final Context context;
+
+    LoadHarness(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Una raffica di intent: latenze per intent e throughput
+     */
+    static final class Run {
+        final String name;
+        private final List<Future<?>> inFlight = new ArrayList<>();
+        private final List<Long> startedAt = new ArrayList<>();
+        private long[] latencies = new long[64];
+        private int finished;
+        private long firstStart = -1;
+        private long lastFinish = -1;
+
+        Run(String name) {
+            this.name = name;
+        }
+
+        int sent() {
+            return finished + inFlight.size();
+        }
+
+        int finished() {
+            return finished;
+        }
+
+        int pending() {
+            return inFlight.size();
+        }
+
+        private void record(long latency, long now) {
+            if (finished == latencies.length) latencies = Arrays.copyOf(latencies, finished * 2);
+            latencies[finished++] = latency;
+            lastFinish = now;
+        }
+
+        long percentileNanos(double p) {
+            if (finished == 0) return 0;
+            long[] sorted = Arrays.copyOf(latencies, finished);
+            Arrays.sort(sorted);
+            return sorted[Math.min(finished - 1, (int) Math.ceil(finished * p) - 1)];
+        }
+
+        double throughput() {
+            if (finished == 0 || lastFinish <= firstStart) return 0;
+            return finished * 1e9 / (lastFinish - firstStart);
+        }
+
+        /**
+         * Riga di riepilogo sullo standard output
+         */
+        void report(int lost, int duplicated) {
+            report(lost, duplicated, "");
+        }
+
+        void report(int lost, int duplicated, String note) {
+            System.out.println(String.format(Locale.ROOT,
+                "[load] %-22s intents=%5d  %8.0f/s  p50=%6.2f ms  p90=%6.2f ms  p99=%6.2f ms  max=%7.2f ms  lost=%d  duplicated=%d  %s",
+                name, finished, throughput(),
+                percentileNanos(0.50) / 1e6, percentileNanos(0.90) / 1e6,
+                percentileNanos(0.99) / 1e6, percentileNanos(1.0) / 1e6,
+                lost, duplicated, note));
+        }
+    }
+
+    /**
+     * Consegna un intent a una nuova istanza del receiver, con un PendingResult per goAsync
+     */
+    void deliver(Run run, BroadcastReceiver receiver, Intent intent) {
+        BroadcastReceiver.PendingResult result = ReflectionHelpers.callStaticMethod(
+            ShadowBroadcastPendingResult.class, "create",
+            ClassParameter.from(int.class, 0),
+            ClassParameter.from(String.class, null),
+            ClassParameter.from(Bundle.class, null),
+            ClassParameter.from(boolean.class, false));
+        ReflectionHelpers.callInstanceMethod(receiver, "setPendingResult",
+            ClassParameter.from(BroadcastReceiver.PendingResult.class, result));
+        Future<?> future = ReflectionHelpers.callInstanceMethod(Shadow.extract(result), "getFuture");
+
+        long start = System.nanoTime();
+        if (run.firstStart == -1) run.firstStart = start;
+        receiver.onReceive(context, intent);
+
+        // Receiver che non passano da goAsync: finiti al ritorno di onReceive
+        if (future.isDone() || !wentAsync(receiver)) {
+            long now = System.nanoTime();
+            run.record(now - start, now);
+        } else {
+            run.inFlight.add(future);
+            run.startedAt.add(start);
+        }
+    }
+
+    /**
+     * Chiamata sincrona (es. onStartCommand del servizio), misurata come un intent
+     */
+    void call(Run run, Runnable call) {
+        long start = System.nanoTime();
+        if (run.firstStart == -1) run.firstStart = start;
+        call.run();
+        long now = System.nanoTime();
+        run.record(now - start, now);
+    }
+
+    /**
+     * Aspetta che tutti gli intent della raffica abbiano chiamato finish(); l'orologio finto
+     * avanza di advanceMs per giro (0 = fermo). Restituisce quanti restano aperti allo scadere.
+     */
+    int await(Run run, long advanceMs, long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (!run.inFlight.isEmpty() && System.nanoTime() < deadline) {
+            collect(run);
+            if (run.inFlight.isEmpty()) break;
+            if (advanceMs > 0) {
+                advance(advanceMs);
+            } else {
+                LockSupport.parkNanos(POLL_NANOS);
+            }
+        }
+        collect(run);
+        return run.inFlight.size();
+    }
+
+    private static void collect(Run run) {
+        Iterator<Future<?>> futures = run.inFlight.iterator();
+        Iterator<Long> starts = run.startedAt.iterator();
+        long now = System.nanoTime();
+        while (futures.hasNext()) {
+            Future<?> future = futures.next();
+            long start = starts.next();
+            if (future.isDone()) {
+                run.record(now - start, now);
+                futures.remove();
+                starts.remove();
+            }
+        }
+    }
+
+    private static boolean wentAsync(BroadcastReceiver receiver) {
+        return shadowOf(receiver).wentAsync();
+    }
+
+    /**
+     * Avanza l'orologio finto a passi, eseguendo a ogni passo i task scaduti di tutti i looper
+     */
+    void advance(long ms) {
+        for (long done = 0; done < ms; done += ADVANCE_STEP_MS) {
+            ShadowSystemClock.advanceBy(Duration.ofMillis(Math.min(ADVANCE_STEP_MS, ms - done)));
+            idleLoopers();
+        }
+    }
+
+    /**
+     * Avanza finché la condizione non è vera (o fino a maxMs di orologio finto)
+     */
+    boolean advanceUntil(BooleanSupplier condition, long maxMs) {
+        long start = SystemClock.elapsedRealtime();
+        idleLoopers();
+        while (!condition.getAsBoolean()) {
+            if (SystemClock.elapsedRealtime() - start >= maxMs) return false;
+            advance(ADVANCE_STEP_MS);
+        }
+        return true;
+    }
+
+    static void idleLoopers() {
+        for (Looper looper : ShadowLooper.getAllLoopers()) {
+            if (looper != Looper.getMainLooper() && looper.getThread().isAlive()) {
+                shadowOf(looper).idle();
+            }
+        }
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    /**
+     * Eventi nativi pubblicati da un tipo, per promemoria
+     */
+    static Map<String, Integer> drainEvents(String type, int[] dropped) {
+        List<NativeEventBus.Event> events = new ArrayList<>();
+        int lost = NativeEventBus.drain(events);
+        if (dropped != null) dropped[0] += lost;
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (NativeEventBus.Event event : events) {
+            if (type.equals(event.type)) counts.merge(event.reminderId, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * Quante occorrenze oltre la prima
+     */
+    static int extra(Map<String, Integer> counts) {
+        int extra = 0;
+        for (int count : counts.values()) {
+            if (count > 1) extra += count - 1;
+        }
+        return extra;
+    }
+
+    static long counter(String name) {
+        return MetricsRegistry.counter(name).get();
+    }
+
+    /**
+     * count promemoria aperti con allarme, scadenza oggi; restituisce gli id
+     */
+    List<String> seedReminders(int count) throws Exception {
+        String today = LocalDate.now().toString();
+        JSONArray reminders = new JSONArray();
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String id = String.format(Locale.ROOT, "load-%05d", i);
+            ids.add(id);
+            reminders.put(new JSONObject()
+                .put("id", id)
+                .put("title", "Promemoria " + i)
+                .put("description", "")
+                .put("date", today + "T00:00:00.000Z")
+                .put("time", "09:00")
+                .put("categoryId", "cat-0")
+                .put("priority", i % 3 == 0 ? "high" : "medium")
+                .put("isCompleted", false)
+                .put("isAlarmEnabled", true)
+                .put("alarmMinutesBefore", 0)
+                .put("recurrence", "none"));
+        }
+        JSONArray categories = new JSONArray()
+            .put(new JSONObject().put("id", "cat-0").put("name", "Lavoro").put("icon", "💼"));
+        ReminderStore.getInstance(context).replaceAll(reminders, categories, 1);
+        return ids;
+    }
+
+    /**
+     * Azzera lo stato statico lasciato dal test precedente: store e cache legati al vecchio
+     * Application, e i thread con handler (Robolectric svuota le code dei looper tra un test e l'altro).
+     */
+    static void resetNativeState() {
+        ReminderStore.resetForTest();
+        NotificationIds.resetForTest();
+        NotificationSettings.resetForTest();
+        AlarmQueue.invalidateArmed();
+        NotificationDispatcher.resetForTest();
+        WidgetRefreshPipeline.resetForTest();
+        AlarmAudioEngine.resetForTest();
+
+        NativeEventBus.setListener(null);
+        NativeEventBus.drain(new ArrayList<>());
+    }
+}
@@ -0,0 +1,121 @@
+package com.promemoria.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Motore di ricorrenza nativo: cambi d'ora legale, fine mese, data di fine e anticipo.
+ * Solo java.time, nessun runtime Android.
+ */
+public class RecurrenceCalculatorTest {
+
+    private static final ZoneId ROME = ZoneId.of("Europe/Rome");
+
+    @Test
+    public void nonRecurringHasNoRule() {
+        assertNull(RecurrenceCalculator.rule("none", "2026-03-28", "09:00", 0, "", ROME));
+        assertNull(RecurrenceCalculator.rule("daily", "", "09:00", 0, "", ROME));
+    }
+
+    @Test
+    public void dailyKeepsLocalTimeAcrossDstChanges() {
+        // Primavera: 28 → 29 marzo sono 23 ore, ma resta alle 09:00 locali
+        RecurrenceCalculator.Rule spring = RecurrenceCalculator.rule("daily", "2026-03-28", "09:00", 0, "", ROME);
+        assertEquals(at(2026, 3, 29, 9, 0), RecurrenceCalculator.nextTrigger(spring, at(2026, 3, 28, 9, 0)));
+
+        // Autunno: 24 → 25 ottobre sono 25 ore
+        RecurrenceCalculator.Rule autumn = RecurrenceCalculator.rule("daily", "2026-10-24", "09:00", 0, "", ROME);
+        assertEquals(at(2026, 10, 25, 9, 0), RecurrenceCalculator.nextTrigger(autumn, at(2026, 10, 24, 9, 0)));
+    }
+
+    @Test
+    public void springGapShiftsForwardOnlyThatDay() {
+        // Le 02:30 del 29 marzo non esistono: slitta alle 03:30, il giorno dopo torna alle 02:30
+        RecurrenceCalculator.Rule rule = RecurrenceCalculator.rule("daily", "2026-03-28", "02:30", 0, "", ROME);
+        long[] out = new long[2];
+        assertEquals(2, RecurrenceCalculator.nextTriggers(rule, at(2026, 3, 28, 2, 30), out));
+        assertArrayEquals(new long[]{at(2026, 3, 29, 3, 30), at(2026, 3, 30, 2, 30)}, out);
+    }
+
+    @Test
+    public void monthlyFromAnchorDoesNotDriftAtMonthEnd() {
+        // Il 31 cade a fine febbraio e aprile ma torna al 31 nei mesi lunghi
+        RecurrenceCalculator.Rule rule = RecurrenceCalculator.rule("monthly", "2026-01-31", "10:00", 0, "", ROME);
+        long[] out = new long[4];
+        assertEquals(4, RecurrenceCalculator.nextTriggers(rule, at(2026, 1, 31, 10, 0), out));
+        assertArrayEquals(new long[]{
+            at(2026, 2, 28, 10, 0),
+            at(2026, 3, 31, 10, 0),
+            at(2026, 4, 30, 10, 0),
+            at(2026, 5, 31, 10, 0)}, out);
+    }
+
+    @Test
+    public void yearlyOnLeapDay() {
+        RecurrenceCalculator.Rule rule = RecurrenceCalculator.rule("yearly", "2028-02-29", "08:00", 0, "", ROME);
+        long[] out = new long[4];
+        assertEquals(4, RecurrenceCalculator.nextTriggers(rule, at(2028, 2, 29, 8, 0), out));
+        assertArrayEquals(new long[]{
+            at(2029, 2, 28, 8, 0),
+            at(2030, 2, 28, 8, 0),
+            at(2031, 2, 28, 8, 0),
+            at(2032, 2, 29, 8, 0)}, out);
+    }
+
+    @Test
+    public void endDateIsExclusive() {
+        // Come lato JS: le ripetizioni devono cadere prima della data di fine
+        RecurrenceCalculator.Rule rule = RecurrenceCalculator.rule("daily", "2026-06-01", "09:00", 0, "2026-06-04", ROME);
+        long[] out = new long[5];
+        assertEquals(2, RecurrenceCalculator.nextTriggers(rule, at(2026, 6, 1, 9, 0), out));
+        assertEquals(at(2026, 6, 2, 9, 0), out[0]);
+        assertEquals(at(2026, 6, 3, 9, 0), out[1]);
+        assertEquals(-1, RecurrenceCalculator.nextTrigger(rule, at(2026, 6, 3, 9, 0)));
+    }
+
+    @Test
+    public void triggersAreAnticipatedByLead() {
+        RecurrenceCalculator.Rule rule = RecurrenceCalculator.rule("weekly", "2026-06-01", "09:00", 15, "", ROME);
+        // Subito dopo lo scatto anticipato di questa settimana si passa alla prossima
+        assertEquals(at(2026, 6, 8, 8, 45), RecurrenceCalculator.nextTrigger(rule, at(2026, 6, 1, 8, 45)));
+        // Prima dello scatto si ottiene quello della settimana corrente
+        assertEquals(at(2026, 6, 1, 8, 45), RecurrenceCalculator.nextTrigger(rule, at(2026, 6, 1, 8, 44)));
+    }
+
+    @Test
+    public void farFutureUsesDirectEstimate() {
+        // Anni dopo l'ancora: stessa risposta senza iterare occorrenza per occorrenza
+        RecurrenceCalculator.Rule rule = RecurrenceCalculator.rule("daily", "2020-01-01", "07:30", 0, "", ROME);
+        assertEquals(at(2030, 7, 2, 7, 30), RecurrenceCalculator.nextTrigger(rule, at(2030, 7, 1, 12, 0)));
+    }
+
+    @Test
+    public void nextTriggerIsAlwaysAfterTheGivenInstant() {
+        // Ogni sei ore per tre anni: lo scatto restituito è sempre successivo e mai ne salta uno
+        RecurrenceCalculator.Rule rule = RecurrenceCalculator.rule("monthly", "2026-01-31", "23:30", 60, "", ROME);
+        long from = at(2026, 1, 1, 0, 0);
+        long previous = RecurrenceCalculator.nextTrigger(rule, from);
+        for (long after = from; after < at(2029, 1, 1, 0, 0); after += 6 * 3_600_000L) {
+            long next = RecurrenceCalculator.nextTrigger(rule, after);
+            assertTrue(next > after);
+            if (previous <= after) {
+                // Superato lo scatto precedente si passa esattamente al successivo
+                assertEquals(RecurrenceCalculator.nextTrigger(rule, previous), next);
+            } else {
+                assertEquals(previous, next);
+            }
+            previous = next;
+        }
+    }
+
+    private static long at(int year, int month, int day, int hour, int minute) {
+        return LocalDateTime.of(year, month, day, hour, minute).atZone(ROME).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,123 @@
+package com.promemoria.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Indice di ricerca sullo store SQLite di Robolectric: normalizzazione degli accenti,
+ * parole parziali e aggiornamenti a delta senza ricaricare l'indice.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ReminderSearchIndexTest {
+
+    private ReminderStore store;
+    private ReminderSearchIndex index;
+    private long version = 1;
+
+    @Before
+    public void setUp() throws Exception {
+        LoadHarness.resetNativeState();
+        store = ReminderStore.getInstance(RuntimeEnvironment.getApplication());
+        index = store.getSearchIndex();
+        store.replaceAll(new JSONArray()
+                .put(reminder("r1", "Caffè con Niccolò", "Prenotare al bar", "2026-10-20"))
+                .put(reminder("r2", "Appuntamento dentista", "Portare le lastre", "2026-10-18"))
+                .put(reminder("r3", "Gattopardo", "Rileggere il capitolo", "2026-10-17"))
+                .put(reminder("r4", "Gatto dal veterinario", "", "2026-10-19")),
+            new JSONArray()
+                .put(new JSONObject().put("id", "cat-0").put("name", "Personale")),
+            version);
+    }
+
+    @Test
+    public void accentsAndCaseAreFolded() {
+        assertEquals("perche", ReminderSearchIndex.fold("Perché"));
+        assertEquals(ids("r1"), search("caffe"));
+        assertEquals(ids("r1"), search("CAFFÈ"));
+        assertEquals(ids("r1"), search("niccolo"));
+    }
+
+    @Test
+    public void partialWordsMatchAsPrefixes() {
+        assertEquals(ids("r2"), search("appunt dent"));
+        // Ogni parola deve trovare qualcosa
+        assertEquals(Collections.emptyList(), search("appunt dentistax"));
+        // Il termine uguale alla parola pesa più di quello che la estende soltanto
+        assertEquals(ids("r4", "r3"), search("gatto"));
+        // Anche la descrizione e il nome della categoria, con peso minore del titolo
+        assertEquals(ids("r2"), search("lastre"));
+        assertEquals(4, index.search("personale", 0, 10).total);
+    }
+
+    @Test
+    public void deltasUpdateTheLoadedIndex() throws Exception {
+        // Prima ricerca: l'indice è caricato, da qui in poi segue solo i delta
+        assertEquals(ids("r1"), search("caffe"));
+
+        delta(new JSONArray()
+                .put(reminder("r1", "Tè con Niccolò", "Prenotare al bar", "2026-10-20"))
+                .put(reminder("r5", "Caffettiera nuova", "", "2026-10-21")),
+            new JSONArray().put("r2"),
+            new JSONArray().put(new JSONObject().put("id", "cat-0").put("name", "Casa")));
+
+        assertEquals(ids("r5"), search("caffe"));
+        assertEquals(ids("r1"), search("te niccolo"));
+        assertEquals(Collections.emptyList(), search("dentista"));
+        assertEquals(Collections.emptyList(), search("personale"));
+        assertEquals(4, index.search("casa", 0, 10).total);
+
+        store.upsertReminder(reminder("r6", "Gatto nero", "", "2026-10-16"));
+        store.deleteReminder("r5");
+        assertEquals(Collections.emptyList(), search("caffettiera"));
+        assertEquals(ids("r6", "r4", "r3"), search("gatto"));
+
+        // A parità di punteggio i completati scendono dopo gli aperti
+        store.setCompleted("r6", true);
+        assertEquals(ids("r4", "r6", "r3"), search("gatto"));
+    }
+
+    @Test
+    public void pagesFollowTheRanking() {
+        ReminderSearchIndex.Result first = index.search("gatto", 0, 1);
+        ReminderSearchIndex.Result second = index.search("gatto", 1, 1);
+        assertEquals(2, first.total);
+        assertEquals(ids("r4"), first.ids);
+        assertEquals(ids("r3"), second.ids);
+        assertTrue(index.search("gatto", 2, 1).ids.isEmpty());
+    }
+
+    private List<String> search(String query) {
+        return index.search(query, 0, 10).ids;
+    }
+
+    private void delta(JSONArray upserts, JSONArray deletes, JSONArray categoryUpserts) {
+        assertTrue(store.applyDelta(++version, upserts, deletes, categoryUpserts, new JSONArray()));
+    }
+
+    private static List<String> ids(String... ids) {
+        return Arrays.asList(ids);
+    }
+
+    private static JSONObject reminder(String id, String title, String description, String date) throws Exception {
+        return new JSONObject()
+            .put("id", id)
+            .put("title", title)
+            .put("description", description)
+            .put("date", date + "T00:00:00.000Z")
+            .put("time", "09:00")
+            .put("categoryId", "cat-0")
+            .put("isCompleted", false);
+    }
+}
@@ -0,0 +1,75 @@
+package com.promemoria.app;
+
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Dataset sintetici con la forma dei blob "reminders"/"categories" scritti dalla WebView.
+ * Seed fisso: stesse stringhe a ogni esecuzione, quindi risultati confrontabili tra commit.
+ */
+final class BenchmarkData {
+
+    static final int CATEGORY_COUNT = 12;
+
+    private static final String[] PRIORITIES = {"low", "medium", "high"};
+    private static final String[] RECURRENCES = {"none", "none", "none", "daily", "weekly", "monthly", "yearly"};
+    private static final String[] ICONS = {"📝", "💼", "🏠", "💊", "🎂", "🛒", "📞", "🏃", "💡", "📚", "🚗", "💰"};
+
+    final String remindersJson;
+    final String categoriesJson;
+    final String[] ids;
+    final LocalDate today;
+
+    private BenchmarkData(String remindersJson, String categoriesJson, String[] ids, LocalDate today) {
+        this.remindersJson = remindersJson;
+        this.categoriesJson = categoriesJson;
+        this.ids = ids;
+        this.today = today;
+    }
+
+    /**
+     * size promemoria con date tra 60 giorni fa e 60 giorni avanti, 30% completati
+     */
+    static BenchmarkData generate(int size) {
+        Random random = new Random(42);
+        LocalDate today = LocalDate.of(2026, 10, 16);
+
+        StringBuilder categories = new StringBuilder("[");
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            if (i > 0) categories.append(',');
+            categories.append("{\"id\":\"cat-").append(i)
+                .append("\",\"name\":\"Categoria ").append(i)
+                .append("\",\"icon\":\"").append(ICONS[i % ICONS.length])
+                .append("\",\"color\":\"blue\",\"createdAt\":\"2026-01-01T00:00:00.000Z\"}");
+        }
+        categories.append(']');
+
+        String[] ids = new String[size];
+        StringBuilder reminders = new StringBuilder(size * 360).append('[');
+        for (int i = 0; i < size; i++) {
+            ids[i] = String.format("%08x-%04x-4%03x-a%03x-%012x",
+                random.nextInt(), random.nextInt(0x10000), random.nextInt(0x1000),
+                random.nextInt(0x1000), random.nextLong() & 0xffffffffffffL);
+            LocalDate date = today.plusDays(random.nextInt(121) - 60);
+            String time = random.nextInt(5) == 0 ? ""
+                : String.format("%02d:%02d", random.nextInt(24), random.nextInt(4) * 15);
+
+            if (i > 0) reminders.append(',');
+            reminders.append("{\"id\":\"").append(ids[i])
+                .append("\",\"title\":\"Promemoria numero ").append(i)
+                .append("\",\"description\":\"Descrizione di prova per il promemoria ").append(i)
+                .append("\",\"date\":\"").append(date).append("T00:00:00.000Z")
+                .append("\",\"time\":\"").append(time)
+                .append("\",\"categoryId\":\"cat-").append(random.nextInt(CATEGORY_COUNT))
+                .append("\",\"priority\":\"").append(PRIORITIES[random.nextInt(PRIORITIES.length)])
+                .append("\",\"isCompleted\":").append(random.nextInt(10) < 3)
+                .append(",\"isAlarmEnabled\":").append(random.nextBoolean())
+                .append(",\"alarmMinutesBefore\":").append(random.nextInt(4) * 5)
+                .append(",\"recurrence\":\"").append(RECURRENCES[random.nextInt(RECURRENCES.length)])
+                .append("\",\"createdAt\":\"2026-01-01T00:00:00.000Z\"}");
+        }
+        reminders.append(']');
+
+        return new BenchmarkData(reminders.toString(), categories.toString(), ids, today);
+    }
+}
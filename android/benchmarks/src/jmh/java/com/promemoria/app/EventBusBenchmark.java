@@ -0,0 +1,40 @@
+package com.promemoria.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NativeEventBus dell'app: tre produttori (i receiver) contro il consumatore del plugin.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventBusBenchmark {
+
+    private final List<NativeEventBus.Event> out = new ArrayList<>(1024);
+
+    @Benchmark
+    @Group("bus")
+    @GroupThreads(3)
+    public void publish() {
+        NativeEventBus.publish(NativeEventBus.TYPE_FIRED, "reminder");
+    }
+
+    @Benchmark
+    @Group("bus")
+    @GroupThreads(1)
+    public int drain() {
+        out.clear();
+        return NativeEventBus.drain(out);
+    }
+}
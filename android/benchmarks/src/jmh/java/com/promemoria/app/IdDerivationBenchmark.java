@@ -0,0 +1,58 @@
+package com.promemoria.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ID notifica dal promemoria: vecchio hash % 1000000 (stessa espressione di NotificationIds.legacyId)
+ * contro il blocco già allocato letto dall'IdBlockCache dell'app.
+ * La lettura SQLite al primo accesso non è misurata qui.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IdDerivationBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int size;
+
+    private String[] ids;
+    private final IdBlockCache cache = new IdBlockCache();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ids = BenchmarkData.generate(size).ids;
+        // Come NotificationIds: blocchi di 8 a partire da 1 << 20
+        int base = 1 << 20;
+        for (String id : ids) {
+            cache.put(id, base);
+            base += 8;
+        }
+    }
+
+    private String nextId() {
+        String id = ids[next];
+        next = next + 1 == ids.length ? 0 : next + 1;
+        return id;
+    }
+
+    @Benchmark
+    public int legacyHash() {
+        return Math.abs(nextId().hashCode()) % 1000000;
+    }
+
+    @Benchmark
+    public int cachedBlock() {
+        return cache.get(nextId());
+    }
+}
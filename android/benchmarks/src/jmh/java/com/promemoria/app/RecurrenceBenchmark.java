@@ -0,0 +1,54 @@
+package com.promemoria.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RecurrenceCalculator dell'app: costruzione della regola e prossimi scatti
+ * per una serie iniziata molto tempo fa (salto diretto, nessun ciclo sulle occorrenze passate).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RecurrenceBenchmark {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Rome");
+
+    @Param({"daily", "weekly", "monthly", "yearly"})
+    public String recurrence;
+
+    private RecurrenceCalculator.Rule rule;
+    private long now;
+    private final long[] out = new long[8];
+
+    @Setup
+    public void setup() {
+        rule = RecurrenceCalculator.rule(recurrence, "2016-01-31T00:00:00.000Z", "08:30", 15, null, ZONE);
+        now = ZonedDateTime.of(2026, 10, 16, 12, 0, 0, 0, ZONE).toInstant().toEpochMilli();
+    }
+
+    @Benchmark
+    public RecurrenceCalculator.Rule buildRule() {
+        return RecurrenceCalculator.rule(recurrence, "2016-01-31T00:00:00.000Z", "08:30", 15, null, ZONE);
+    }
+
+    @Benchmark
+    public long nextTrigger() {
+        return RecurrenceCalculator.nextTrigger(rule, now);
+    }
+
+    @Benchmark
+    public int nextTriggers() {
+        return RecurrenceCalculator.nextTriggers(rule, now, out);
+    }
+}
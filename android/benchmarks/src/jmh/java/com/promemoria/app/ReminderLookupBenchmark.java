@@ -0,0 +1,123 @@
+package com.promemoria.app;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * reminderExists(): è ancora aperto il promemoria di una notifica?
+ * Sono tutti modelli. historical*: copia del vecchio parse completo del blob, rimosso dall'app,
+ * solo come termine di confronto, non un percorso attuale. streamingScan è la lettura in streaming,
+ * keyedLookup una HashMap al posto della lookup sulla primary key di ReminderStore.getState(),
+ * che richiede SQLite Android.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReminderLookupBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int size;
+
+    private BenchmarkData data;
+    private Map<String, Boolean> completedById;
+
+    // Id cercati a rotazione (niente setup per invocazione, troppo costoso per il lookup)
+    private final String[] targets = new String[1024];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        data = BenchmarkData.generate(size);
+        completedById = new HashMap<>(size * 2);
+        try (JsonReader reader = new JsonReader(new StringReader(data.remindersJson))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String id = null;
+                boolean completed = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if ("id".equals(name)) id = reader.nextString();
+                    else if ("isCompleted".equals(name)) completed = reader.nextBoolean();
+                    else reader.skipValue();
+                }
+                reader.endObject();
+                completedById.put(id, completed);
+            }
+            reader.endArray();
+        }
+
+        Random random = new Random(7);
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = data.ids[random.nextInt(size)];
+        }
+    }
+
+    private String nextTarget() {
+        return targets[next++ & (targets.length - 1)];
+    }
+
+    @Benchmark
+    public boolean historicalJsonScan() throws Exception {
+        String target = nextTarget();
+        JSONArray reminders = new JSONArray(data.remindersJson);
+        for (int i = 0; i < reminders.length(); i++) {
+            JSONObject r = reminders.getJSONObject(i);
+            if (target.equals(r.optString("id", ""))) {
+                return !r.optBoolean("isCompleted", false);
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean streamingScan() throws IOException {
+        String target = nextTarget();
+        try (JsonReader reader = new JsonReader(new StringReader(data.remindersJson))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                boolean match = false;
+                boolean completed = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if ("id".equals(name) && reader.peek() == JsonToken.STRING) {
+                        match = target.equals(reader.nextString());
+                    } else if ("isCompleted".equals(name) && reader.peek() == JsonToken.BOOLEAN) {
+                        completed = reader.nextBoolean();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (match) return !completed;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean keyedLookup() {
+        Boolean completed = completedById.get(nextTarget());
+        return completed != null && !completed;
+    }
+}
@@ -0,0 +1,57 @@
+package com.promemoria.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Impostazioni lette in AlarmService.startAlarm(). historical*: copia della vecchia scansione
+ * con indexOf a ogni sveglia, rimossa dall'app e tenuta solo come termine di confronto.
+ * jsonParse usa SettingsJson dell'app (il cuore di NotificationSettings.parse), cachedRead
+ * legge un campo volatile come NotificationSettings.cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SettingsParseBenchmark {
+
+    private static final String SETTINGS_JSON = "{\"enabled\":true,\"defaultMinutesBefore\":15,"
+        + "\"soundEnabled\":true,\"vibrationEnabled\":true,\"alarmMode\":false,"
+        + "\"ringtone\":\"bell\",\"quietHoursEnabled\":false,\"quietHoursStart\":\"22:00\","
+        + "\"quietHoursEnd\":\"07:00\"}";
+
+    // Come NotificationSettings.cached: invalidato solo quando cambiano le preferenze
+    private volatile SettingsJson cached = SettingsJson.parse(SETTINGS_JSON);
+
+    @Benchmark
+    public void historicalIndexOf(Blackhole bh) {
+        String settingsJson = SETTINGS_JSON;
+        boolean vibrationEnabled = settingsJson.contains("\"vibrationEnabled\":true");
+        String ringtone = "chime";
+        int ringtoneStart = settingsJson.indexOf("\"ringtone\":\"");
+        if (ringtoneStart != -1) {
+            int ringtoneEnd = settingsJson.indexOf("\"", ringtoneStart + 12);
+            if (ringtoneEnd != -1) {
+                ringtone = settingsJson.substring(ringtoneStart + 12, ringtoneEnd);
+            }
+        }
+        bh.consume(vibrationEnabled);
+        bh.consume(ringtone);
+    }
+
+    @Benchmark
+    public SettingsJson jsonParse() {
+        return SettingsJson.parse(SETTINGS_JSON);
+    }
+
+    @Benchmark
+    public SettingsJson cachedRead() {
+        return cached;
+    }
+}
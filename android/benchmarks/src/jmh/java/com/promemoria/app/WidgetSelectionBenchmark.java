@@ -0,0 +1,240 @@
+package com.promemoria.app;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selezione del widget: conteggio aperti + primi 3 in scadenza nei prossimi 7 giorni.
+ * historical*: copia dei vecchi getTotalCount()/getReminders(), rimossi dall'app e tenuti
+ * solo come termine di confronto, non un percorso attuale;
+ * streamingTopK è un modello della lettura in streaming con heap limitato.
+ * indexedRange usa l'AgendaOrder dell'app con le scadenze di ReminderTimes; le righe
+ * {icona, titolo, ora} vengono da una mappa al posto della query di ReminderStore.getRows().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WidgetSelectionBenchmark {
+
+    private static final int LIMIT = 3;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int size;
+
+    private BenchmarkData data;
+    private String today;
+    private String week;
+
+    private final AgendaOrder agenda = new AgendaOrder();
+    private Map<String, String[]> rows;
+    private long from;
+    private long to;
+    private int openCount;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        data = BenchmarkData.generate(size);
+        today = data.today.toString();
+        week = data.today.plusDays(7).toString();
+
+        // Fuso del dataset: le date sono mezzanotte UTC
+        ZoneId zone = ZoneOffset.UTC;
+        from = data.today.atStartOfDay(zone).toInstant().toEpochMilli();
+        to = data.today.plusDays(8).atStartOfDay(zone).toInstant().toEpochMilli();
+
+        rows = new HashMap<>();
+        Map<String, Long> minutes = new HashMap<>();
+        List<String> open = new ArrayList<>();
+        Map<String, String> icons = readIcons(data.categoriesJson);
+        try (JsonReader reader = new JsonReader(new StringReader(data.remindersJson))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Map<String, String> r = new HashMap<>();
+                boolean completed = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (reader.peek() == JsonToken.STRING) r.put(name, reader.nextString());
+                    else if ("isCompleted".equals(name)) completed = reader.nextBoolean();
+                    else reader.skipValue();
+                }
+                reader.endObject();
+                if (completed) continue;
+                openCount++;
+                long dueAt = ReminderTimes.dueAt(r.get("date"), r.get("time"), zone);
+                if (dueAt == -1) continue;
+                String id = r.get("id");
+                open.add(id);
+                minutes.put(id, Math.floorDiv(dueAt, 60_000L));
+                rows.put(id, new String[]{icons.getOrDefault(r.get("categoryId"), "📝"), r.get("title"), r.get("time")});
+            }
+            reader.endArray();
+        }
+        agenda.load(open, minutes::get);
+    }
+
+    @Benchmark
+    public void historicalFullParse(Blackhole bh) throws Exception {
+        // getTotalCount()
+        JSONArray all = new JSONArray(data.remindersJson);
+        int count = 0;
+        for (int i = 0; i < all.length(); i++) {
+            if (!all.getJSONObject(i).optBoolean("isCompleted", false)) count++;
+        }
+        bh.consume(count);
+
+        // getReminders()
+        JSONArray cats = new JSONArray(data.categoriesJson);
+        JSONArray rems = new JSONArray(data.remindersJson);
+        HashMap<String, String> icons = new HashMap<>();
+        for (int i = 0; i < cats.length(); i++) {
+            JSONObject c = cats.getJSONObject(i);
+            icons.put(c.getString("id"), c.optString("icon", "📝"));
+        }
+
+        Calendar start = todayCalendar();
+        Calendar end = (Calendar) start.clone();
+        end.add(Calendar.DAY_OF_YEAR, 7);
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        List<JSONObject> valid = new ArrayList<>();
+        for (int i = 0; i < rems.length(); i++) {
+            JSONObject r = rems.getJSONObject(i);
+            if (r.optBoolean("isCompleted", false)) continue;
+            String d = r.optString("date", "");
+            if (d.isEmpty()) continue;
+            Date dt = sdf.parse(d);
+            if (dt != null && !dt.before(start.getTime()) && !dt.after(end.getTime())) {
+                valid.add(r);
+            }
+        }
+        valid.sort((a, b) -> (a.optString("date", "") + a.optString("time", ""))
+            .compareTo(b.optString("date", "") + b.optString("time", "")));
+
+        for (int i = 0; i < Math.min(valid.size(), LIMIT); i++) {
+            JSONObject r = valid.get(i);
+            bh.consume(new String[]{icons.getOrDefault(r.optString("categoryId", ""), "📝"),
+                r.optString("title", ""), r.optString("time", "")});
+        }
+    }
+
+    @Benchmark
+    public void streamingTopK(Blackhole bh) throws IOException {
+        PriorityQueue<String[]> top = new PriorityQueue<>(LIMIT + 1, (a, b) -> b[0].compareTo(a[0]));
+        int open = 0;
+
+        try (JsonReader reader = new JsonReader(new StringReader(data.remindersJson))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String date = "";
+                String time = "";
+                String title = "";
+                String categoryId = "";
+                boolean completed = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "isCompleted": completed = reader.nextBoolean(); break;
+                        case "date": date = reader.nextString(); break;
+                        case "time": time = reader.nextString(); break;
+                        case "title": title = reader.nextString(); break;
+                        case "categoryId": categoryId = reader.nextString(); break;
+                        default: reader.skipValue(); break;
+                    }
+                }
+                reader.endObject();
+
+                if (completed) continue;
+                open++;
+                String day = date.length() >= 10 ? date.substring(0, 10) : "";
+                if (day.compareTo(today) < 0 || day.compareTo(week) > 0) continue;
+
+                String sortKey = date + time;
+                if (top.size() < LIMIT) {
+                    top.add(new String[]{sortKey, title, categoryId, time});
+                } else if (sortKey.compareTo(top.peek()[0]) < 0) {
+                    top.poll();
+                    top.add(new String[]{sortKey, title, categoryId, time});
+                }
+            }
+            reader.endArray();
+        }
+
+        List<String[]> sorted = new ArrayList<>(top);
+        Collections.sort(sorted, (a, b) -> a[0].compareTo(b[0]));
+        Map<String, String> icons = sorted.isEmpty() ? Collections.emptyMap() : readIcons(data.categoriesJson);
+        for (String[] c : sorted) {
+            bh.consume(new String[]{icons.getOrDefault(c[2], "📝"), c[1], c[3]});
+        }
+        bh.consume(open);
+    }
+
+    @Benchmark
+    public void indexedRange(Blackhole bh) {
+        for (String id : agenda.range(from, to, 0, LIMIT)) {
+            bh.consume(rows.get(id));
+        }
+        bh.consume(openCount);
+    }
+
+    private Calendar todayCalendar() {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        cal.clear();
+        cal.set(data.today.getYear(), data.today.getMonthValue() - 1, data.today.getDayOfMonth());
+        return cal;
+    }
+
+    private static Map<String, String> readIcons(String json) throws IOException {
+        Map<String, String> icons = new HashMap<>();
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String id = null;
+                String icon = "📝";
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "id": id = reader.nextString(); break;
+                        case "icon": icon = reader.nextString(); break;
+                        default: reader.skipValue(); break;
+                    }
+                }
+                reader.endObject();
+                if (id != null) icons.put(id, icon);
+            }
+            reader.endArray();
+        }
+        return icons;
+    }
+}
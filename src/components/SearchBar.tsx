@@ -1,4 +1,5 @@
-import { useState, useEffect, useRef } from 'react';
+import { useState, useEffect, useRef, useMemo, useCallback } from 'react';
+import { Capacitor } from '@capacitor/core';
 import { motion, AnimatePresence } from 'framer-motion';
 import { Search, X, Clock } from 'lucide-react';
 import { format } from 'date-fns';
@@ -6,26 +7,77 @@ import { it } from 'date-fns/locale';
 import { useReminders } from '@/contexts/ReminderContext';
 import { useNavigate } from 'react-router-dom';
 import { Reminder } from '@/types/reminder';
+import { NativeNotification } from '@/plugins/NativeNotification';
+
+// Risultati per pagina dalla ricerca nativa
+const PAGE_SIZE = 20;
 
 export function SearchBar() {
-  const { searchReminders, categories } = useReminders();
+  const { reminders, searchReminders, categories } = useReminders();
   const navigate = useNavigate();
   const [query, setQuery] = useState('');
-  const [results, setResults] = useState<Reminder[]>([]);
+  const [resultIds, setResultIds] = useState<string[]>([]);
+  const [total, setTotal] = useState(0);
+  const [nextOffset, setNextOffset] = useState(0);
   const [isOpen, setIsOpen] = useState(false);
   const inputRef = useRef<HTMLInputElement>(null);
   const containerRef = useRef<HTMLDivElement>(null);
+  // Scarta le risposte native arrivate dopo una query più recente
+  const requestRef = useRef(0);
+  // Ricerca in memoria aggiornata a ogni render: cambiare i promemoria non rilancia la query
+  const searchRef = useRef(searchReminders);
+  searchRef.current = searchReminders;
+
+  const remindersById = useMemo(() => new Map(reminders.map(r => [r.id, r])), [reminders]);
+
+  // Risolti al render: modifiche e completamenti si vedono senza ricaricare le pagine.
+  // Id non ancora nello stato React (sync in corso) o eliminati: saltati
+  const results = useMemo(
+    () => resultIds
+      .map(id => remindersById.get(id))
+      .filter((r): r is Reminder => r !== undefined),
+    [resultIds, remindersById]
+  );
+
+  const searchMemory = useCallback((text: string) => {
+    const found = searchRef.current(text);
+    setResultIds(found.map(r => r.id));
+    setTotal(found.length);
+    setNextOffset(found.length);
+  }, []);
+
+  const searchNative = useCallback(async (text: string, offset: number) => {
+    const request = ++requestRef.current;
+    try {
+      const page = await NativeNotification.search({ query: text, offset, limit: PAGE_SIZE });
+      if (request !== requestRef.current) return;
+
+      setResultIds(prev => (offset === 0 ? page.ids : [...prev, ...page.ids]));
+      setTotal(page.total);
+      setNextOffset(offset + page.ids.length);
+    } catch (error) {
+      if (request !== requestRef.current) return;
+      console.error('Native search failed, using in-memory search:', error);
+      searchMemory(text);
+    }
+  }, [searchMemory]);
 
   useEffect(() => {
     if (query.trim().length >= 2) {
-      const found = searchReminders(query);
-      setResults(found);
+      if (Capacitor.getPlatform() === 'android') {
+        searchNative(query, 0);
+      } else {
+        searchMemory(query);
+      }
       setIsOpen(true);
     } else {
-      setResults([]);
+      requestRef.current++;
+      setResultIds([]);
+      setTotal(0);
+      setNextOffset(0);
       setIsOpen(false);
     }
-  }, [query, searchReminders]);
+  }, [query, searchNative, searchMemory]);
 
   useEffect(() => {
     const handleClickOutside = (e: MouseEvent) => {
@@ -89,7 +141,7 @@ export function SearchBar() {
             ) : (
               <div className="space-y-1">
                 <p className="text-xs text-muted-foreground px-3 py-1">
-                  {results.length} risultat{results.length === 1 ? 'o' : 'i'}
+                  {total} risultat{total === 1 ? 'o' : 'i'}
                 </p>
                 {results.map((reminder) => {
                   const { name, icon } = getCategoryInfo(reminder.categoryId);
@@ -127,6 +179,14 @@ export function SearchBar() {
                     </motion.button>
                   );
                 })}
+                {nextOffset < total && (
+                  <button
+                    onClick={() => searchNative(query, nextOffset)}
+                    className="w-full p-2 rounded-xl text-xs text-primary hover:bg-muted/50 transition-colors"
+                  >
+                    Mostra altri
+                  </button>
+                )}
               </div>
             )}
           </motion.div>
@@ -1,10 +1,40 @@
+import { useEffect, useState } from 'react';
+import { Capacitor } from '@capacitor/core';
 import { motion } from 'framer-motion';
 import { TrendingUp, CheckCircle2, Clock, AlertTriangle, BarChart3 } from 'lucide-react';
 import { useReminders } from '@/contexts/ReminderContext';
+import { NativeNotification, NativeStats } from '@/plugins/NativeNotification';
+import { onNativeSynced } from '@/hooks/useWidgetSync';
 
 export function StatsCard() {
   const { getStats, reminders } = useReminders();
-  const stats = getStats();
+  const [nativeStats, setNativeStats] = useState<NativeStats | null>(null);
+
+  // Su Android i contatori arrivano già aggregati dallo store nativo, riletti dopo ogni sync
+  useEffect(() => {
+    if (Capacitor.getPlatform() !== 'android') return;
+
+    let active = true;
+    const refresh = () => {
+      NativeNotification.getStats()
+        .then(stats => {
+          if (active) setNativeStats(stats);
+        })
+        .catch(error => {
+          console.error('Errore lettura statistiche native:', error);
+          if (active) setNativeStats(null);
+        });
+    };
+
+    refresh();
+    const unsubscribe = onNativeSynced(refresh);
+    return () => {
+      active = false;
+      unsubscribe();
+    };
+  }, []);
+
+  const stats = nativeStats ?? getStats();
 
   // Calculate completion rate for the week
   const weeklyTotal = stats.completedThisWeek + stats.pendingThisWeek;
@@ -1,10 +1,50 @@
+import { useEffect, useMemo, useState } from 'react';
+import { Capacitor } from '@capacitor/core';
 import { motion } from 'framer-motion';
 import { Clock, AlertTriangle, CheckCircle2, ArrowRight } from 'lucide-react';
-import { format } from 'date-fns';
+import { format, addDays, startOfDay } from 'date-fns';
 import { it } from 'date-fns/locale';
 import { useReminders } from '@/contexts/ReminderContext';
 import { useNavigate } from 'react-router-dom';
 import { Reminder } from '@/types/reminder';
+import { NativeNotification } from '@/plugins/NativeNotification';
+import { onNativeSynced } from '@/hooks/useWidgetSync';
+
+// Promemoria mostrati per sezione e quanti sono in tutto
+interface Section {
+  items: Reminder[];
+  total: number;
+}
+
+interface AgendaIds {
+  overdue: { ids: string[]; total: number };
+  today: { ids: string[]; total: number };
+  tomorrow: { ids: string[]; total: number };
+}
+
+// Righe visibili per sezione: dal nativo si chiede solo quello che si mostra
+const OVERDUE_SHOWN = 3;
+const TODAY_SHOWN = 4;
+const TOMORROW_SHOWN = 2;
+
+// Tre range sull'agenda nativa (ricerca binaria), senza scorrere tutti i promemoria
+async function loadNativeAgenda(): Promise<AgendaIds> {
+  const todayStart = startOfDay(new Date());
+  const tomorrowStart = addDays(todayStart, 1);
+  const dayAfterStart = addDays(todayStart, 2);
+
+  const range = async (from: number | undefined, to: number, limit: number) => {
+    const { items, total } = await NativeNotification.getAgenda({ from, to, limit });
+    return { ids: items.map(item => item.id), total };
+  };
+
+  const [overdue, today, tomorrow] = await Promise.all([
+    range(undefined, todayStart.getTime(), OVERDUE_SHOWN),
+    range(todayStart.getTime(), tomorrowStart.getTime(), TODAY_SHOWN),
+    range(tomorrowStart.getTime(), dayAfterStart.getTime(), TOMORROW_SHOWN),
+  ]);
+  return { overdue, today, tomorrow };
+}
 
 const priorityColors: Record<string, string> = {
   low: 'bg-muted',
@@ -55,16 +95,51 @@ function MiniReminder({ reminder, categoryName, categoryIcon, onClick }: MiniRem
 export function TodayWidget() {
   const { 
     categories, 
+    reminders,
     getTodayReminders, 
     getTomorrowReminders, 
     getOverdueReminders,
     getStats 
   } = useReminders();
   const navigate = useNavigate();
+  const [agenda, setAgenda] = useState<AgendaIds | null>(null);
+
+  // Su Android le sezioni vengono dall'agenda nativa, riletta dopo ogni sync
+  useEffect(() => {
+    if (Capacitor.getPlatform() !== 'android') return;
+
+    let active = true;
+    const refresh = () => {
+      loadNativeAgenda()
+        .then(ids => {
+          if (active) setAgenda(ids);
+        })
+        .catch(error => {
+          console.error('Errore lettura agenda nativa:', error);
+          if (active) setAgenda(null);
+        });
+    };
+
+    refresh();
+    const unsubscribe = onNativeSynced(refresh);
+    return () => {
+      active = false;
+      unsubscribe();
+    };
+  }, []);
+
+  const remindersById = useMemo(() => new Map(reminders.map(r => [r.id, r])), [reminders]);
+
+  const toSection = (section: { ids: string[]; total: number }): Section => ({
+    // Id non ancora nello stato React (sync in corso): saltati
+    items: section.ids.map(id => remindersById.get(id)).filter((r): r is Reminder => r !== undefined),
+    total: section.total,
+  });
+  const fromList = (list: Reminder[]): Section => ({ items: list, total: list.length });
 
-  const todayReminders = getTodayReminders();
-  const tomorrowReminders = getTomorrowReminders();
-  const overdueReminders = getOverdueReminders();
+  const overdueReminders = agenda ? toSection(agenda.overdue) : fromList(getOverdueReminders());
+  const todayReminders = agenda ? toSection(agenda.today) : fromList(getTodayReminders());
+  const tomorrowReminders = agenda ? toSection(agenda.tomorrow) : fromList(getTomorrowReminders());
   const stats = getStats();
 
   const getCategoryInfo = (categoryId: string) => {
@@ -76,7 +151,7 @@ export function TodayWidget() {
     navigate(`/category/${reminder.categoryId}`);
   };
 
-  if (todayReminders.length === 0 && tomorrowReminders.length === 0 && overdueReminders.length === 0) {
+  if (todayReminders.total === 0 && tomorrowReminders.total === 0 && overdueReminders.total === 0) {
     return null;
   }
 
@@ -87,7 +162,7 @@ export function TodayWidget() {
       className="space-y-4 mb-6"
     >
       {/* Overdue Alert */}
-      {overdueReminders.length > 0 && (
+      {overdueReminders.total > 0 && (
         <motion.div
           initial={{ opacity: 0, scale: 0.95 }}
           animate={{ opacity: 1, scale: 1 }}
@@ -99,11 +174,11 @@ export function TodayWidget() {
             </div>
             <div>
               <h3 className="font-semibold text-destructive">In ritardo</h3>
-              <p className="text-xs text-muted-foreground">{overdueReminders.length} promemoria scaduti</p>
+              <p className="text-xs text-muted-foreground">{overdueReminders.total} promemoria scaduti</p>
             </div>
           </div>
           <div className="space-y-2">
-            {overdueReminders.slice(0, 3).map((reminder) => {
+            {overdueReminders.items.slice(0, OVERDUE_SHOWN).map((reminder) => {
               const { name, icon } = getCategoryInfo(reminder.categoryId);
               return (
                 <MiniReminder
@@ -115,9 +190,9 @@ export function TodayWidget() {
                 />
               );
             })}
-            {overdueReminders.length > 3 && (
+            {overdueReminders.total > OVERDUE_SHOWN && (
               <p className="text-xs text-center text-muted-foreground pt-2">
-                +{overdueReminders.length - 3} altri in ritardo
+                +{overdueReminders.total - OVERDUE_SHOWN} altri in ritardo
               </p>
             )}
           </div>
@@ -125,7 +200,7 @@ export function TodayWidget() {
       )}
 
       {/* Today's Reminders */}
-      {todayReminders.length > 0 && (
+      {todayReminders.total > 0 && (
         <motion.div
           initial={{ opacity: 0, scale: 0.95 }}
           animate={{ opacity: 1, scale: 1 }}
@@ -144,10 +219,10 @@ export function TodayWidget() {
                 </p>
               </div>
             </div>
-            <span className="text-sm font-medium text-primary">{todayReminders.length}</span>
+            <span className="text-sm font-medium text-primary">{todayReminders.total}</span>
           </div>
           <div className="space-y-2">
-            {todayReminders.slice(0, 4).map((reminder) => {
+            {todayReminders.items.slice(0, TODAY_SHOWN).map((reminder) => {
               const { name, icon } = getCategoryInfo(reminder.categoryId);
               return (
                 <MiniReminder
@@ -159,9 +234,9 @@ export function TodayWidget() {
                 />
               );
             })}
-            {todayReminders.length > 4 && (
+            {todayReminders.total > TODAY_SHOWN && (
               <p className="text-xs text-center text-muted-foreground pt-2">
-                +{todayReminders.length - 4} altri oggi
+                +{todayReminders.total - TODAY_SHOWN} altri oggi
               </p>
             )}
           </div>
@@ -169,7 +244,7 @@ export function TodayWidget() {
       )}
 
       {/* Tomorrow's Preview */}
-      {tomorrowReminders.length > 0 && (
+      {tomorrowReminders.total > 0 && (
         <motion.div
           initial={{ opacity: 0, scale: 0.95 }}
           animate={{ opacity: 1, scale: 1 }}
@@ -188,10 +263,10 @@ export function TodayWidget() {
                 </p>
               </div>
             </div>
-            <span className="text-sm text-muted-foreground">{tomorrowReminders.length}</span>
+            <span className="text-sm text-muted-foreground">{tomorrowReminders.total}</span>
           </div>
           <div className="space-y-2">
-            {tomorrowReminders.slice(0, 2).map((reminder) => {
+            {tomorrowReminders.items.slice(0, TOMORROW_SHOWN).map((reminder) => {
               const { name, icon } = getCategoryInfo(reminder.categoryId);
               return (
                 <MiniReminder
@@ -203,9 +278,9 @@ export function TodayWidget() {
                 />
               );
             })}
-            {tomorrowReminders.length > 2 && (
+            {tomorrowReminders.total > TOMORROW_SHOWN && (
               <p className="text-xs text-center text-muted-foreground pt-2">
-                +{tomorrowReminders.length - 2} altri domani
+                +{tomorrowReminders.total - TOMORROW_SHOWN} altri domani
               </p>
             )}
           </div>
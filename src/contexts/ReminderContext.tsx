@@ -4,6 +4,8 @@ import { Category, Reminder, ExportData, CategoryColor } from '@/types/reminder'
 import { useLocalStorage } from '@/hooks/useLocalStorage';
 import { useNativeNotifications } from '@/hooks/useNativeNotifications';
 import { syncDataToWidget } from '@/hooks/useWidgetSync';
+import { NativeNotification } from '@/plugins/NativeNotification';
+import { Capacitor, PluginListenerHandle } from '@capacitor/core';
 import { addDays, addWeeks, addMonths, addYears, startOfWeek, endOfWeek, startOfMonth, endOfMonth, isAfter, isBefore, isSameDay, startOfDay, endOfDay } from 'date-fns';
 
 interface ReminderStats {
@@ -46,6 +48,105 @@ interface ReminderContextType {
 
 const ReminderContext = createContext<ReminderContextType | undefined>(undefined);
 
+// Calcola orario e testo della notifica di un promemoria
+function buildNotification(reminder: Reminder, categoryName: string) {
+  const reminderDate = new Date(reminder.date);
+  
+  if (reminder.time) {
+    const [hours, minutes] = reminder.time.split(':').map(Number);
+    reminderDate.setHours(hours, minutes, 0, 0);
+  }
+  
+  // Calculate notification time (subtract alarm minutes before)
+  const scheduledAt = new Date(reminderDate.getTime() - (reminder.alarmMinutesBefore * 60 * 1000));
+  
+  return {
+    id: reminder.id,
+    title: `⏰ ${categoryName}: ${reminder.title}`,
+    body: reminder.description || 'Hai un promemoria!',
+    scheduledAt,
+  };
+}
+
+// Prossima occorrenza di un promemoria ricorrente (null se non ricorrente o oltre la data di fine).
+// Su Android la calcola RecurrenceCalculator, lo stesso motore che riarma gli allarmi nativi,
+// e tiene l'id del promemoria: è quello che il nativo ha già riarmato dopo lo scatto
+async function buildNextOccurrence(r: Reminder): Promise<Reminder | null> {
+  if (r.recurrence === 'none') return null;
+  
+  const isAndroid = Capacitor.getPlatform() === 'android';
+  const nextDate = isAndroid ? await nativeNextDate(r) : webNextDate(r);
+  if (!nextDate) return null;
+  
+  return {
+    ...r,
+    id: isAndroid ? r.id : uuidv4(),
+    date: nextDate,
+    isCompleted: false,
+    createdAt: new Date(),
+  };
+}
+
+// Occorrenza completata e, se c'è, la successiva. Se la successiva tiene l'id (Android)
+// è l'occorrenza completata a passare a un id nuovo, così resta nello storico
+function completeOccurrence(r: Reminder, next: Reminder | null): Reminder[] {
+  if (!next) return [{ ...r, isCompleted: true }];
+  const done = next.id === r.id ? { ...r, id: uuidv4(), isCompleted: true } : { ...r, isCompleted: true };
+  return [next, done];
+}
+
+// Occorrenza nativa successiva allo scatto corrente, riportata alla scadenza (senza anticipo)
+async function nativeNextDate(r: Reminder): Promise<Date | null> {
+  const leadMs = r.alarmMinutesBefore * 60 * 1000;
+  const { results } = await NativeNotification.getNextOccurrences({
+    items: [{
+      id: r.id,
+      date: new Date(r.date).toISOString(),
+      time: r.time,
+      alarmMinutesBefore: r.alarmMinutesBefore,
+      recurrence: r.recurrence,
+      recurrenceEndDate: r.recurrenceEndDate ? new Date(r.recurrenceEndDate).toISOString() : undefined,
+    }],
+    count: 1,
+    after: buildNotification(r, '').scheduledAt.getTime(),
+  });
+  
+  const next = results[0]?.occurrences[0];
+  return next === undefined ? null : new Date(next + leadMs);
+}
+
+// Solo web: senza plugin nativo resta il calcolo con date-fns
+function webNextDate(r: Reminder): Date | null {
+  const currentDate = new Date(r.date);
+  let nextDate: Date;
+  
+  switch (r.recurrence) {
+    case 'daily':
+      nextDate = addDays(currentDate, 1);
+      break;
+    case 'weekly':
+      nextDate = addWeeks(currentDate, 1);
+      break;
+    case 'monthly':
+      nextDate = addMonths(currentDate, 1);
+      break;
+    case 'yearly':
+      nextDate = addYears(currentDate, 1);
+      break;
+    default:
+      nextDate = currentDate;
+  }
+  
+  // Check if next date is before end date (if set)
+  if (r.recurrenceEndDate && !isBefore(nextDate, new Date(r.recurrenceEndDate))) {
+    return null;
+  }
+  
+  return nextDate;
+}
+
+const NATIVE_ACTION_CURSOR_KEY = 'native-action-cursor';
+
 const defaultCategories: Category[] = [
   { id: uuidv4(), name: 'Lavoro', icon: '💼', color: 'work', createdAt: new Date() },
   { id: uuidv4(), name: 'Personale', icon: '🏠', color: 'personal', createdAt: new Date() },
@@ -57,44 +158,119 @@ export function ReminderProvider({ children }: { children: React.ReactNode }) {
   const [reminders, setReminders] = useLocalStorage<Reminder[]>('reminder-items', []);
   const { 
     scheduleNotification: scheduleNativeNotification, 
-    cancelNotification 
+    scheduleNotifications: scheduleNativeNotifications,
+    cancelNotification,
+    cancelNotifications,
   } = useNativeNotifications();
   
+  // Stato più recente per i callback che attendono il plugin: il setter di useLocalStorage
+  // applica l'updater al valore della sua closure, che dopo un await può essere vecchio
+  const latest = useRef({ reminders, setReminders });
+  latest.current = { reminders, setReminders };
+  
   // Schedule notification using native Capacitor notifications
   const scheduleNotification = useCallback((reminder: Reminder, categoryName: string) => {
     if (!reminder.isAlarmEnabled) return;
     
-    const reminderDate = new Date(reminder.date);
-    
-    if (reminder.time) {
-      const [hours, minutes] = reminder.time.split(':').map(Number);
-      reminderDate.setHours(hours, minutes, 0, 0);
-    }
-    
-    // Calculate notification time (subtract alarm minutes before)
-    const notificationTime = new Date(reminderDate.getTime() - (reminder.alarmMinutesBefore * 60 * 1000));
+    const notification = buildNotification(reminder, categoryName);
     
     // Schedule native notification
-    scheduleNativeNotification({
-      id: reminder.id,
-      title: `⏰ ${categoryName}: ${reminder.title}`,
-      body: reminder.description || 'Hai un promemoria!',
-      scheduledAt: notificationTime,
-    });
-    console.log(`📱 Notifica programmata per: ${notificationTime.toLocaleString()}`);
+    scheduleNativeNotification(notification);
+    console.log(`📱 Notifica programmata per: ${notification.scheduledAt.toLocaleString()}`);
     
   }, [scheduleNativeNotification]);
 
-  // Schedule notifications for all reminders on load
+  // Schedule notifications for all reminders on load (una sola chiamata batch)
   useEffect(() => {
-    reminders.forEach((reminder) => {
+    const notifications = reminders.flatMap((reminder) => {
       const category = categories.find(c => c.id === reminder.categoryId);
       if (category && reminder.isAlarmEnabled && !reminder.isCompleted) {
-        scheduleNotification(reminder, category.name);
+        return [buildNotification(reminder, category.name)];
       }
+      return [];
     });
+    scheduleNativeNotifications(notifications);
   }, []);
 
+  // Recupera le azioni fatte dalle notifiche (Fatto / 5 min) mentre l'app era chiusa:
+  // solo le voci dopo l'ultimo cursore, quindi il costo è proporzionale alle azioni nuove
+  const mergeNativeActions = useCallback(async () => {
+    if (Capacitor.getPlatform() !== 'android') return;
+    
+    try {
+      const cursor = Number(localStorage.getItem(NATIVE_ACTION_CURSOR_KEY)) || 0;
+      const { entries, cursor: nextCursor } = await NativeNotification.getActionsSince({ cursor });
+      
+      if (entries.length > 0) {
+        const completed = new Set<string>();
+        const snoozed = new Map<string, number>();
+        entries.forEach((entry) => {
+          if (entry.type === 'complete') completed.add(entry.reminderId);
+          else if (entry.type === 'snooze' && entry.until) snoozed.set(entry.reminderId, entry.until);
+        });
+        
+        // Prossime occorrenze dal motore nativo prima di toccare lo stato
+        const nextById = new Map<string, Reminder>();
+        const toComplete = latest.current.reminders.filter((r) => completed.has(r.id) && !r.isCompleted);
+        for (const r of toComplete) {
+          const next = await buildNextOccurrence(r);
+          if (next) nextById.set(r.id, next);
+        }
+        
+        const added: Reminder[] = [];
+        latest.current.setReminders((prev) => prev.flatMap((r) => {
+          if (completed.has(r.id) && !r.isCompleted) {
+            // Come toggleReminderComplete: occorrenza completata nello storico, aggiunta la nuova
+            const next = nextById.get(r.id) ?? null;
+            if (next) added.push(next);
+            if (next?.id !== r.id) cancelNotification(r.id);
+            return completeOccurrence(r, next);
+          }
+          if (snoozed.has(r.id)) {
+            return [{ ...r, snoozedUntil: new Date(snoozed.get(r.id)!) }];
+          }
+          return [r];
+        }));
+        
+        added.forEach((next) => {
+          const category = categories.find(c => c.id === next.categoryId);
+          if (category && next.isAlarmEnabled) {
+            scheduleNotification(next, category.name);
+          }
+        });
+        console.log(`📥 Azioni native recuperate: ${entries.length}`);
+      }
+      
+      localStorage.setItem(NATIVE_ACTION_CURSOR_KEY, String(nextCursor));
+    } catch (error) {
+      console.error('❌ Errore recupero azioni native:', error);
+    }
+  }, [categories, cancelNotification, scheduleNotification]);
+  
+  // All'avvio si recupera il journal; poi sono i receiver a spingere gli eventi,
+  // e si legge il journal solo quando c'è davvero un'azione nuova
+  useEffect(() => {
+    mergeNativeActions();
+    if (Capacitor.getPlatform() !== 'android') return;
+    
+    let disposed = false;
+    let handle: PluginListenerHandle | undefined;
+    NativeNotification.addListener('nativeEvents', ({ events, dropped }) => {
+      const hasActions = events.some((e) => e.type === 'completed' || e.type === 'snoozed');
+      if (hasActions || dropped > 0) {
+        mergeNativeActions();
+      }
+    }).then((h) => {
+      if (disposed) h.remove();
+      else handle = h;
+    });
+    
+    return () => {
+      disposed = true;
+      handle?.remove();
+    };
+  }, [mergeNativeActions]);
+
   // Sincronizza dati col widget Android ogni volta che cambiano
   const isFirstRender = useRef(true);
   useEffect(() => {
@@ -129,13 +305,11 @@ export function ReminderProvider({ children }: { children: React.ReactNode }) {
 
   const deleteCategory = useCallback((id: string) => {
     // Cancel all notifications for reminders in this category
-    reminders
-      .filter((r) => r.categoryId === id)
-      .forEach((r) => cancelNotification(r.id));
+    cancelNotifications(reminders.filter((r) => r.categoryId === id).map((r) => r.id));
     
     setCategories((prev) => prev.filter((cat) => cat.id !== id));
     setReminders((prev) => prev.filter((r) => r.categoryId !== id));
-  }, [setCategories, setReminders, reminders, cancelNotification]);
+  }, [setCategories, setReminders, reminders, cancelNotifications]);
 
   const addReminder = useCallback((reminderData: Omit<Reminder, 'id' | 'createdAt'>): Reminder => {
     const newReminder: Reminder = {
@@ -184,10 +358,10 @@ export function ReminderProvider({ children }: { children: React.ReactNode }) {
   // Elimina tutti i promemoria completati
   const deleteCompletedReminders = useCallback(() => {
     const completed = reminders.filter(r => r.isCompleted);
-    completed.forEach(r => cancelNotification(r.id));
+    cancelNotifications(completed.map(r => r.id));
     setReminders((prev) => prev.filter((r) => !r.isCompleted));
     return completed.length;
-  }, [reminders, setReminders, cancelNotification]);
+  }, [reminders, setReminders, cancelNotifications]);
 
   // Elimina promemoria più vecchi di X giorni
   const deleteOldReminders = useCallback((daysOld: number) => {
@@ -199,88 +373,62 @@ export function ReminderProvider({ children }: { children: React.ReactNode }) {
       return reminderDate < cutoffDate && r.isCompleted;
     });
     
-    old.forEach(r => cancelNotification(r.id));
+    cancelNotifications(old.map(r => r.id));
     setReminders((prev) => prev.filter((r) => {
       const reminderDate = new Date(r.date);
       return !(reminderDate < cutoffDate && r.isCompleted);
     }));
     return old.length;
-  }, [reminders, setReminders, cancelNotification]);
+  }, [reminders, setReminders, cancelNotifications]);
 
   // Conta promemoria completati
   const getCompletedCount = useCallback(() => {
     return reminders.filter(r => r.isCompleted).length;
   }, [reminders]);
 
-  const toggleReminderComplete = useCallback((id: string) => {
-    setReminders((prev) => {
-      const newReminders: Reminder[] = [];
+  const toggleReminderComplete = useCallback(async (id: string) => {
+    const target = reminders.find((r) => r.id === id);
+    if (!target) return;
+    const isCompleted = !target.isCompleted;
+    
+    // If recurrent, create next occurrence
+    let newReminder: Reminder | null = null;
+    if (isCompleted) {
+      try {
+        newReminder = await buildNextOccurrence(target);
+      } catch (error) {
+        console.error('❌ Errore calcolo prossima occorrenza:', error);
+      }
+    }
+    
+    let applied = false;
+    latest.current.setReminders((prev) => prev.flatMap((r) => {
+      // Ignorato se già cambiato mentre si attendeva il plugin
+      if (r.id !== id || r.isCompleted === isCompleted) return [r];
+      applied = true;
+      return isCompleted ? completeOccurrence(r, newReminder) : [{ ...r, isCompleted }];
+    }));
+    if (!applied) return;
+    
+    if (isCompleted) {
+      // Su Android la prossima occorrenza tiene l'id: la sua notifica sostituisce quella vecchia
+      const next = newReminder;
+      if (next?.id !== id) cancelNotification(id);
       
-      prev.forEach((r) => {
-        if (r.id === id) {
-          const isCompleted = !r.isCompleted;
-          
-          if (isCompleted) {
-            cancelNotification(id);
-            
-            // If recurrent, create next occurrence
-            if (r.recurrence !== 'none') {
-              const currentDate = new Date(r.date);
-              let nextDate: Date;
-              
-              switch (r.recurrence) {
-                case 'daily':
-                  nextDate = addDays(currentDate, 1);
-                  break;
-                case 'weekly':
-                  nextDate = addWeeks(currentDate, 1);
-                  break;
-                case 'monthly':
-                  nextDate = addMonths(currentDate, 1);
-                  break;
-                case 'yearly':
-                  nextDate = addYears(currentDate, 1);
-                  break;
-                default:
-                  nextDate = currentDate;
-              }
-              
-              // Check if next date is before end date (if set)
-              if (!r.recurrenceEndDate || isBefore(nextDate, new Date(r.recurrenceEndDate))) {
-                const newReminder: Reminder = {
-                  ...r,
-                  id: uuidv4(),
-                  date: nextDate,
-                  isCompleted: false,
-                  createdAt: new Date(),
-                };
-                newReminders.push(newReminder);
-                
-                // Schedule notification for new reminder
-                if (newReminder.isAlarmEnabled) {
-                  const category = categories.find(c => c.id === newReminder.categoryId);
-                  if (category) {
-                    scheduleNotification(newReminder, category.name);
-                  }
-                }
-              }
-            }
-          } else if (r.isAlarmEnabled) {
-            const category = categories.find(c => c.id === r.categoryId);
-            if (category) {
-              scheduleNotification({ ...r, isCompleted }, category.name);
-            }
-          }
-          
-          newReminders.push({ ...r, isCompleted });
-        } else {
-          newReminders.push(r);
+      // Schedule notification for new reminder
+      if (next?.isAlarmEnabled) {
+        const category = categories.find(c => c.id === next.categoryId);
+        if (category) {
+          scheduleNotification(next, category.name);
         }
-      });
-      
-      return newReminders;
-    });
-  }, [setReminders, categories, cancelNotification, scheduleNotification]);
+      }
+    } else if (target.isAlarmEnabled) {
+      const category = categories.find(c => c.id === target.categoryId);
+      if (category) {
+        scheduleNotification({ ...target, isCompleted }, category.name);
+      }
+    }
+  }, [reminders, categories, cancelNotification, scheduleNotification]);
 
   const snoozeReminder = useCallback((id: string, minutes: number) => {
     setReminders((prev) =>
@@ -177,6 +177,54 @@ export function useNativeNotifications() {
     }
   }, [isNative, isAndroid]);
 
+  // Programma molti promemoria insieme (Android: una sola chiamata nativa)
+  const scheduleNotifications = useCallback(async (list: NativeNotificationOptions[]) => {
+    if (list.length === 0) return;
+
+    if (isAndroid) {
+      try {
+        const { results } = await NativeNotification.scheduleMany({
+          items: list.map((options) => ({
+            id: options.id,
+            title: options.title,
+            body: options.body,
+            timestamp: options.scheduledAt.getTime(),
+          })),
+        });
+        const failed = results.filter((r) => !r.success);
+        console.log(`✅ Notifiche native programmate: ${results.length - failed.length}/${results.length}`);
+        if (failed.length > 0) {
+          console.error('❌ Errore scheduling notifiche native:', failed);
+        }
+      } catch (error) {
+        console.error('❌ Errore scheduling batch nativo:', error);
+      }
+      return;
+    }
+
+    for (const options of list) {
+      await scheduleNotification(options);
+    }
+  }, [isAndroid, scheduleNotification]);
+
+  const cancelNotifications = useCallback(async (ids: string[]) => {
+    if (ids.length === 0) return;
+
+    if (isAndroid) {
+      try {
+        await NativeNotification.cancelMany({ ids });
+        console.log('🗑️ Notifiche native cancellate:', ids.length);
+      } catch (error) {
+        console.error('❌ Errore cancellazione batch:', error);
+      }
+      return;
+    }
+
+    for (const id of ids) {
+      await cancelNotification(id);
+    }
+  }, [isAndroid, cancelNotification]);
+
   const cancelAllNotifications = useCallback(async () => {
     if (!isNative) return;
 
@@ -234,7 +282,9 @@ export function useNativeNotifications() {
     hasPermission,
     requestPermission,
     scheduleNotification,
+    scheduleNotifications,
     cancelNotification,
+    cancelNotifications,
     cancelAllNotifications,
     testNotification,
   };
@@ -1,10 +1,13 @@
 import { useEffect } from 'react';
 import { Preferences } from '@capacitor/preferences';
 import { Capacitor } from '@capacitor/core';
+import { NativeNotification } from '@/plugins/NativeNotification';
+
+const SYNC_VERSION_KEY = 'native-sync-version';
 
 /**
- * Hook per sincronizzare i dati del localStorage con SharedPreferences native
- * in modo che il widget Android possa leggerli.
+ * Hook per sincronizzare i dati del localStorage con lo store nativo
+ * in modo che widget e receiver Android possano leggerli.
  */
 export function useWidgetSync() {
   const isNative = Capacitor.isNativePlatform();
@@ -21,51 +24,108 @@ export function useWidgetSync() {
     };
 
     window.addEventListener('storage', handleStorageChange);
-    
-    // Sincronizza ogni volta che cambia il focus (quando si torna all'app)
-    const handleVisibilityChange = () => {
-      if (document.visibilityState === 'visible') {
-        syncDataToWidget();
-      }
-    };
-    document.addEventListener('visibilitychange', handleVisibilityChange);
 
+    // Niente re-sync completo al ritorno in primo piano: le azioni native
+    // arrivano come eventi (vedi ReminderContext) e i cambi locali passano da qui
     return () => {
       window.removeEventListener('storage', handleStorageChange);
-      document.removeEventListener('visibilitychange', handleVisibilityChange);
     };
   }, [isNative]);
 
   return { syncDataToWidget };
 }
 
-// Funzione per sincronizzare i dati
-async function syncDataToWidget() {
+// Ultimo stato confermato dal nativo: JSON di ogni elemento per id (null = serve un sync completo)
+let lastSynced: { reminders: Map<string, string>; categories: Map<string, string> } | null = null;
+
+// I sync si accodano: ogni delta si calcola sullo stato confermato dal precedente
+let pending: Promise<void> = Promise.resolve();
+
+// Chi legge dati derivati dallo store nativo (es. StatsCard) e va avvisato quando cambiano
+const syncListeners = new Set<() => void>();
+
+export function onNativeSynced(listener: () => void): () => void {
+  syncListeners.add(listener);
+  return () => {
+    syncListeners.delete(listener);
+  };
+}
+
+function indexById(json: string): Map<string, string> {
+  const index = new Map<string, string>();
   try {
-    // Leggi i dati dal localStorage
-    const reminders = localStorage.getItem('reminder-items') || '[]';
-    const categories = localStorage.getItem('reminder-categories') || '[]';
-
-    // Scrivi su SharedPreferences native (accessibili dal widget)
-    await Preferences.set({ key: 'reminders', value: reminders });
-    await Preferences.set({ key: 'categories', value: categories });
-
-    // Invia broadcast per aggiornare il widget
-    if (Capacitor.getPlatform() === 'android') {
-      try {
-        // Usa un intent broadcast per aggiornare il widget
-        const { App } = await import('@capacitor/app');
-        // Il widget si aggiornerà automaticamente alla prossima richiesta
-        console.log('📱 Dati sincronizzati con widget');
-      } catch (e) {
-        console.log('Widget sync: broadcast non disponibile');
-      }
+    const items = JSON.parse(json);
+    if (Array.isArray(items)) {
+      items.forEach((item) => {
+        if (item && item.id) index.set(String(item.id), JSON.stringify(item));
+      });
     }
+  } catch (error) {
+    console.error('Errore lettura dati da sincronizzare:', error);
+  }
+  return index;
+}
+
+function diff(prev: Map<string, string>, next: Map<string, string>) {
+  const upserts: unknown[] = [];
+  const deletes: string[] = [];
+  next.forEach((json, id) => {
+    if (prev.get(id) !== json) upserts.push(JSON.parse(json));
+  });
+  prev.forEach((_, id) => {
+    if (!next.has(id)) deletes.push(id);
+  });
+  return { upserts, deletes };
+}
+
+async function runSync() {
+  try {
+    const remindersJson = localStorage.getItem('reminder-items') || '[]';
+    const categoriesJson = localStorage.getItem('reminder-categories') || '[]';
+    const reminders = indexById(remindersJson);
+    const categories = indexById(categoriesJson);
+    const version = (Number(localStorage.getItem(SYNC_VERSION_KEY)) || 0) + 1;
+
+    let applied = false;
+    if (lastSynced) {
+      const r = diff(lastSynced.reminders, reminders);
+      const c = diff(lastSynced.categories, categories);
+      if (r.upserts.length + r.deletes.length + c.upserts.length + c.deletes.length === 0) return;
+
+      ({ applied } = await NativeNotification.applyDelta({
+        version,
+        upserts: r.upserts,
+        deletes: r.deletes,
+        categoryUpserts: c.upserts,
+        categoryDeletes: c.deletes,
+      }));
+      if (applied) console.log(`📱 Delta sincronizzato: ${r.upserts.length + c.upserts.length} modifiche, ${r.deletes.length + c.deletes.length} eliminazioni`);
+    }
+
+    if (!applied) {
+      // Primo sync della sessione (o versione nativa disallineata): stato completo, poi solo delta
+      await NativeNotification.syncData({ reminders: remindersJson, categories: categoriesJson, version });
+      // Il nativo non legge più i blob da CapacitorStorage: via, così il file XML resta piccolo
+      await Preferences.remove({ key: 'reminders' });
+      await Preferences.remove({ key: 'categories' });
+      console.log('📱 Dati sincronizzati con widget');
+    }
+
+    localStorage.setItem(SYNC_VERSION_KEY, String(version));
+    lastSynced = { reminders, categories };
+    syncListeners.forEach(listener => listener());
   } catch (error) {
     console.error('Errore sincronizzazione widget:', error);
+    lastSynced = null;
   }
 }
 
+// Funzione per sincronizzare i dati (solo Android ha store e widget nativi)
+async function syncDataToWidget() {
+  if (Capacitor.getPlatform() !== 'android') return;
+  pending = pending.then(runSync);
+  return pending;
+}
+
 // Esporta per uso manuale
 export { syncDataToWidget };
-
@@ -1,4 +1,68 @@
-import { registerPlugin } from '@capacitor/core';
+import { registerPlugin, PluginListenerHandle } from '@capacitor/core';
+
+export interface NativeAction {
+  type: 'complete' | 'snooze';
+  reminderId: string;
+  at: number;
+  until?: number;
+}
+
+// Evento spinto dai receiver nativi (scatto, 5 min, Fatto, sveglia chiusa)
+export interface NativeEvent {
+  type: 'fired' | 'snoozed' | 'completed' | 'dismissed';
+  reminderId: string;
+  at: number;
+}
+
+export interface NativeHistogram {
+  unit: string;
+  count: number;
+  mean: number;
+  max: number;
+  p50: number;
+  p90: number;
+  p99: number;
+}
+
+export interface NativeMetrics {
+  at: number;
+  uptimeMs: number;
+  counters: Record<string, number>;
+  histograms: Record<string, NativeHistogram>;
+}
+
+export interface NativeStatsCounts {
+  open: number;
+  completed: number;
+}
+
+// Stessi nomi di ReminderStats per le finestre temporali, più i contatori per categoria e priorità
+export interface NativeStats {
+  totalReminders: number;
+  open: number;
+  completed: number;
+  overdueCount: number;
+  pendingToday: number;
+  completedToday: number;
+  pendingThisWeek: number;
+  completedThisWeek: number;
+  completedThisMonth: number;
+  byCategory: Record<string, NativeStatsCounts>;
+  byPriority: Record<string, NativeStatsCounts>;
+}
+
+export interface NativeAgendaItem {
+  id: string;
+  dueAt: number;
+  hasTime: boolean;
+}
+
+export interface NativeBatchResult {
+  id: string;
+  success: boolean;
+  notificationId?: number;
+  error?: string;
+}
 
 interface NativeNotificationPlugin {
   schedule(options: {
@@ -10,7 +74,66 @@ interface NativeNotificationPlugin {
   
   cancel(options: { id: string }): Promise<void>;
   
+  // Batch: un solo attraversamento del bridge per N promemoria
+  scheduleMany(options: {
+    items: { id: string; title: string; body: string; timestamp: number }[];
+  }): Promise<{ results: NativeBatchResult[] }>;
+  
+  cancelMany(options: { ids: string[] }): Promise<{ results: NativeBatchResult[] }>;
+  
+  // Prossimi `count` scatti (ms epoch, già anticipati) calcolati dal motore di ricorrenza nativo
+  getNextOccurrences(options: {
+    items: {
+      id: string;
+      date: string;
+      time?: string;
+      alarmMinutesBefore?: number;
+      recurrence?: string;
+      recurrenceEndDate?: string;
+    }[];
+    count?: number;
+    after?: number;
+  }): Promise<{ results: { id: string; occurrences: number[] }[] }>;
+  
+  // Allinea lo store nativo (SQLite) usato dai receiver; `version` diventa la base dei delta
+  syncData(options: { reminders: string; categories: string; version?: number }): Promise<void>;
+  
+  // Solo le modifiche rispetto all'ultimo sync; ignorato se `version` non è più recente
+  applyDelta(options: {
+    version: number;
+    upserts: unknown[];
+    deletes: string[];
+    categoryUpserts: unknown[];
+    categoryDeletes: string[];
+  }): Promise<{ applied: boolean; version: number }>;
+  
+  // Azioni fatte dalle notifiche (Fatto / 5 min) dopo il cursore; il cursore passato conferma le precedenti
+  getActionsSince(options: { cursor: number }): Promise<{ entries: NativeAction[]; cursor: number }>;
+  
+  // Metriche della pipeline nativa (salvate anche in files/metrics.json)
+  getMetrics(): Promise<NativeMetrics>;
+  
+  // Ricerca full-text nativa: id per rilevanza (pagina da `offset`) e numero totale di risultati
+  search(options: { query: string; offset?: number; limit?: number }): Promise<{ ids: string[]; total: number }>;
+  
+  // Contatori aggregati mantenuti dallo store nativo, letti in una sola chiamata
+  getStats(): Promise<NativeStats>;
+  
+  // Promemoria aperti con scadenza in [from, to) (epoch ms), in ordine di scadenza
+  getAgenda(options: {
+    from?: number;
+    to?: number;
+    offset?: number;
+    limit?: number;
+  }): Promise<{ items: NativeAgendaItem[]; total: number }>;
+  
   test(): Promise<{ id: number }>;
+  
+  // Eventi nativi a blocchi; dropped > 0 se il buffer è stato sovrascritto prima della consegna
+  addListener(
+    eventName: 'nativeEvents',
+    listenerFunc: (data: { events: NativeEvent[]; dropped: number }) => void,
+  ): Promise<PluginListenerHandle>;
 }
 
 const NativeNotification = registerPlugin<NativeNotificationPlugin>('NativeNotification');